@@ -1,24 +1,286 @@
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.LinkedList;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 public class Basic {
+    private static final long CACHE_LIMIT = 256L * 1024 * 1024;
+
     public static void main(String[] args) {
+        String filePath = "test.basic"; // default path to your BASIC file
+        boolean printAst = false;
+        boolean optimize = true;
+        boolean parallel = false; // lex and parse large files on all cores instead of streaming tokens
+        Path cacheDirectory = null; // parse cache, off unless --cache is given
+        String backend = "interp"; // interp walks the AST, vm runs compiled bytecode, jit generates JVM classes
+        Path batch = null; // directory or manifest of programs to run concurrently instead of one file
+        boolean lint = false; // only check the syntax of every file given, reporting all errors
+        List<String> files = new ArrayList<>(); // every file named, for --lint
+        boolean showStats = false; // print per-phase timings to stderr when done
+        boolean profile = false; // print a flat profile of the run to stderr
+        Path collapsedStacks = null; // where to write the profile's collapsed stacks, if anywhere
+        // Flush PRINT output line by line when a person is watching, otherwise in large blocks
+        OutputSink.FlushPolicy flush = System.console() != null ? OutputSink.FlushPolicy.LINE : OutputSink.FlushPolicy.BUFFER;
+        Path dataFile = null; // values for READ instead of the program's DATA statements
+        Path inputFile = null; // values for INPUT instead of the console
+        for (String arg : args) {
+            if (arg.equals("--ast")) {
+                printAst = true;
+            } else if (arg.equals("--cache")) {
+                cacheDirectory = Paths.get(System.getProperty("user.home"), ".cache", "basic");
+            } else if (arg.startsWith("--cache=")) {
+                cacheDirectory = Paths.get(arg.substring("--cache=".length()));
+            } else if (arg.equals("--parallel")) {
+                parallel = true;
+            } else if (arg.equals("--no-opt")) {
+                optimize = false;
+            } else if (arg.startsWith("--backend=")) {
+                backend = arg.substring("--backend=".length());
+            } else if (arg.equals("--stats")) {
+                showStats = true;
+            } else if (arg.equals("--profile")) {
+                profile = true;
+            } else if (arg.startsWith("--profile=")) {
+                profile = true;
+                collapsedStacks = Paths.get(arg.substring("--profile=".length()));
+            } else if (arg.startsWith("--data=")) {
+                dataFile = Paths.get(arg.substring("--data=".length()));
+            } else if (arg.startsWith("--input=")) {
+                inputFile = Paths.get(arg.substring("--input=".length()));
+            } else if (arg.startsWith("--flush=")) {
+                flush = OutputSink.FlushPolicy.valueOf(arg.substring("--flush=".length()).toUpperCase());
+            } else if (arg.startsWith("--batch=")) {
+                batch = Paths.get(arg.substring("--batch=".length()));
+            } else if (arg.equals("--lint")) {
+                lint = true;
+            } else {
+                filePath = arg;
+                files.add(arg);
+            }
+        }
+
+        if (lint) {
+            if (files.isEmpty()) {
+                files.add(filePath);
+            }
+            if (lint(files) > 0) {
+                System.exit(1);
+            }
+            return;
+        }
+
+        if (batch != null) {
+            runBatch(batch, backend, optimize);
+            return;
+        }
+
+        PipelineStats stats = new PipelineStats();
         try {
-            String filePath = "test.basic"; // this is the path to your BASIC file
-            // Initialize the Lexer with the file path
-            Lexer lexer = new Lexer();
-            LinkedList<Token> tokens = lexer.lex(filePath);
-
-            // Initialize the Parser with the tokens generated by the lexer
-            Parser parser = new Parser(tokens);
-            Node ast = parser.parse(); // Parse the tokens to generate the AST
-
-            // Output the AST
-            System.out.println("After Parsing");
-            System.out.println(ast.toString());
-        } catch (IOException | LexerException e) {
+            stats.begin(PipelineStats.Phase.LOAD);
+            CodeHandler codeHandler = new CodeHandler(filePath);
+            stats.end(PipelineStats.Phase.LOAD, codeHandler.length());
+
+            StatementsNode ast = null;
+            ParseCache cache = null;
+            String cacheKey = null;
+            if (cacheDirectory != null) {
+                cache = new ParseCache(cacheDirectory, CACHE_LIMIT);
+                cacheKey = cache.key(codeHandler);
+                ast = cache.get(cacheKey);
+            }
+
+            if (ast == null) {
+                if (parallel) {
+                    // Lex and parse on all cores
+                    stats.begin(PipelineStats.Phase.LEX);
+                    TokenBuffer tokens = new ParallelLexer().lex(codeHandler);
+                    stats.end(PipelineStats.Phase.LEX, tokens.size());
+                    stats.begin(PipelineStats.Phase.PARSE);
+                    ast = new ParallelParser().parseAll(tokens);
+                    stats.end(PipelineStats.Phase.PARSE, PipelineStats.countNodes(ast));
+                } else if (showStats) {
+                    // Lex everything before parsing so the two phases can be timed apart
+                    stats.begin(PipelineStats.Phase.LEX);
+                    TokenBuffer tokens = new Lexer().lexPacked(codeHandler);
+                    stats.end(PipelineStats.Phase.LEX, tokens.size());
+                    stats.begin(PipelineStats.Phase.PARSE);
+                    Parser parser = new Parser(new TokenManager(tokens));
+                    ast = parser.parse();
+                    stats.end(PipelineStats.Phase.PARSE, parser.getNodeCount());
+                    parser.requireFinished();
+                } else {
+                    // Stream tokens from the Lexer straight into the Parser
+                    Lexer lexer = new Lexer();
+                    TokenManager tokens = new TokenManager(lexer, codeHandler);
+
+                    // Initialize the Parser with the tokens generated by the lexer; lexing is timed as part of parsing
+                    stats.begin(PipelineStats.Phase.PARSE);
+                    Parser parser = new Parser(tokens);
+                    ast = parser.parse(); // Parse the tokens to generate the AST
+                    stats.end(PipelineStats.Phase.PARSE, parser.getNodeCount());
+                    // A statement that does not parse ends parse(); reject the program rather than run part of it
+                    parser.requireFinished();
+                }
+                if (cache != null) {
+                    cache.put(cacheKey, ast);
+                }
+            }
+
+            if (printAst) {
+                // Output the AST
+                System.out.println("After Parsing");
+                System.out.println(ast.toString());
+                return;
+            }
+
+            if (optimize) {
+                stats.begin(PipelineStats.Phase.OPTIMIZE);
+                ast = new Optimizer().optimize(ast);
+                stats.end(PipelineStats.Phase.OPTIMIZE, ast.getStatements().size());
+            }
+            Profiler profiler = profile ? new Profiler(ast) : null;
+            InputStream input = inputFile != null ? new FileInputStream(inputFile.toFile()) : System.in;
+            try (ValueReader data = dataFile != null ? ValueReader.open(dataFile) : null) {
+                run(ast, backend, input, OutputSink.console(flush), data, stats, profiler);
+            } finally {
+                if (input != System.in) {
+                    input.close();
+                }
+                if (profiler != null) {
+                    System.err.print(profiler.flatProfile());
+                    if (collapsedStacks != null) {
+                        profiler.writeCollapsedStacks(collapsedStacks);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("An error occurred:");
+            e.printStackTrace();
+        } catch (LexerException e) {
             System.err.println("An error occurred:");
             e.printStackTrace();
+        } catch (UncheckedLexerException e) {
+            System.err.println("An error occurred:");
+            e.getCause().printStackTrace();
+        } catch (ParseException e) {
+            System.err.println("Syntax error at " + e.getMessage());
+        } catch (BasicRuntimeException e) {
+            System.err.println("Runtime error: " + e.getMessage());
+        } finally {
+            if (showStats) {
+                System.err.print(stats.summary());
+            }
+        }
+    }
+
+    // Runs a program on the chosen backend, timing compilation and execution and, when a profiler
+    // is given, counting and sampling its statements. READ uses data instead of DATA statements unless it is null.
+    private static void run(StatementsNode ast, String backend, InputStream input, OutputSink output, ValueReader data,
+                            PipelineStats stats, Profiler profiler) {
+        int statements = ast.getStatements().size();
+        boolean profiled = profiler != null;
+        ExecutionContext context;
+        Runnable program;
+        stats.begin(PipelineStats.Phase.COMPILE);
+        try {
+            JitProgram compiled = backend.equals("jit") ? new JitCompiler().compile(ast, profiled) : null;
+            if (backend.equals("vm")) {
+                VirtualMachine machine = new VirtualMachine(new BytecodeCompiler().compile(ast, profiled));
+                context = machine.newContext(input, output);
+                program = () -> machine.run(context);
+            } else if (compiled != null) {
+                context = compiled.newContext(input, output);
+                program = () -> compiled.run(context);
+            } else {
+                // Interpreting, or the program uses something the JIT cannot translate
+                Interpreter interpreter = new Interpreter(ast);
+                context = interpreter.newContext(input, output);
+                program = () -> interpreter.run(context);
+            }
+        } finally {
+            stats.end(PipelineStats.Phase.COMPILE, statements);
+        }
+
+        if (data != null) {
+            context.setDataFile(data);
+        }
+        if (profiled) {
+            context.setProfiler(profiler);
+            profiler.start();
+        }
+        stats.begin(PipelineStats.Phase.EXECUTE);
+        try {
+            program.run();
+        } finally {
+            output.flush();
+            stats.end(PipelineStats.Phase.EXECUTE, output.getBytesWritten());
+            if (profiled) {
+                profiler.stop();
+            }
+        }
+    }
+
+    // Checks the syntax of each file, printing every problem as file:line:column: message, and returns
+    // how many there were. Parsing recovers after each syntax error; a lexer error ends a file.
+    private static int lint(List<String> files) {
+        long start = System.nanoTime();
+        Lexer lexer = new Lexer();
+        List<Diagnostic> diagnostics = new ArrayList<>();
+        StringBuilder report = new StringBuilder();
+        int problems = 0;
+        for (String file : files) {
+            diagnostics.clear();
+            try {
+                CodeHandler codeHandler = new CodeHandler(file);
+                try {
+                    new Parser(new TokenManager(lexer, codeHandler)).parse(diagnostics);
+                } catch (UncheckedLexerException e) {
+                    diagnostics.add(new Diagnostic(lexer.getTokenLine(), lexer.getTokenColumn(), e.getMessage()));
+                }
+            } catch (IOException e) {
+                report.append(file).append(": ").append(e).append('\n');
+                problems++;
+                continue;
+            }
+            for (Diagnostic diagnostic : diagnostics) {
+                report.append(file).append(':').append(diagnostic).append('\n');
+            }
+            problems += diagnostics.size();
+        }
+        System.out.print(report);
+        System.out.printf("%d files, %d problems in %.1f ms%n", files.size(), problems, (System.nanoTime() - start) / 1e6);
+        return problems;
+    }
+
+    // Runs every program of a batch and prints one result line per file followed by its output
+    private static void runBatch(Path source, String backend, boolean optimize) {
+        List<Path> files;
+        try {
+            files = BatchRunner.collect(source);
+        } catch (IOException e) {
+            System.err.println("An error occurred:");
+            e.printStackTrace();
+            return;
+        }
+        long start = System.nanoTime();
+        List<BatchRunner.Result> results = new BatchRunner(backend, optimize).run(files);
+        long elapsed = System.nanoTime() - start;
+
+        int failed = 0;
+        for (BatchRunner.Result result : results) {
+            System.out.println(result);
+            String output = result.getOutput();
+            System.out.print(output);
+            if (!output.isEmpty() && !output.endsWith("\n")) {
+                System.out.println(); // output cut short by an error
+            }
+            if (result.getStatus() != BatchRunner.Status.OK) {
+                failed++;
+            }
         }
+        System.out.printf("%d programs, %d failed, in %.1f ms%n", results.size(), failed, elapsed / 1e6);
     }
 }
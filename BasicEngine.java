@@ -0,0 +1,117 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+// Entry point for embedding BASIC in a Java application.
+// compile() lexes, parses, optimizes and compiles a program once into a Program handle; running it
+// only executes. A Program never changes after compile(), and every run gets its own
+// ExecutionContext with fresh variables, DATA cursor, GOSUB stack and I/O, so one Program can be
+// run by any number of threads at once. The engine itself holds no state besides its settings and
+// every compile() uses its own Lexer, Parser and SymbolTable, so it can be shared between threads
+// as well, and the names and strings of a program are freed along with it.
+public final class BasicEngine {
+    private final String backend;
+    private final boolean optimize;
+
+    // Constructor for an engine that optimizes programs and compiles them to JVM code when it can
+    public BasicEngine() {
+        this("jit", true);
+    }
+
+    // Constructor to compile for the given backend (interp, vm or jit), optimized or not.
+    // jit falls back to the interpreter for programs it cannot translate.
+    public BasicEngine(String backend, boolean optimize) {
+        if (!backend.equals("interp") && !backend.equals("vm") && !backend.equals("jit")) {
+            throw new IllegalArgumentException("Unknown backend " + backend);
+        }
+        this.backend = backend;
+        this.optimize = optimize;
+    }
+
+    // Method to compile source text. Syntax errors are thrown as ParseException and broken
+    // control flow (NEXT without FOR, ...) as BasicRuntimeException.
+    public Program compile(String source) throws LexerException {
+        return compile(CodeHandler.fromString(source));
+    }
+
+    // Method to compile a source file; large files are memory-mapped rather than read onto the heap
+    public Program compile(Path file) throws IOException, LexerException {
+        return compile(new CodeHandler(file));
+    }
+
+    // Method to compile source held in a buffer, one character per byte. The bytes between the
+    // buffer's position and limit are read without changing the buffer, so it can be reused.
+    public Program compile(ByteBuffer source) throws LexerException {
+        return compile(CodeHandler.fromBytes(source));
+    }
+
+    private Program compile(CodeHandler code) throws LexerException {
+        SymbolTable.Scope scope = new SymbolTable().use();
+        try {
+            return compileProgram(code);
+        } finally {
+            scope.close();
+        }
+    }
+
+    private Program compileProgram(CodeHandler code) throws LexerException {
+        Parser parser = new Parser(new TokenManager(new Lexer().lexPacked(code)));
+        StatementsNode program = parser.parse();
+        parser.requireFinished();
+        if (optimize) {
+            program = new Optimizer().optimize(program);
+        }
+        if (backend.equals("vm")) {
+            return new Program(new VirtualMachine(new BytecodeCompiler().compile(program)), null, null);
+        }
+        JitProgram compiled = backend.equals("jit") ? new JitCompiler().compile(program) : null;
+        if (compiled != null) {
+            return new Program(null, compiled, null);
+        }
+        return new Program(null, null, new Interpreter(program));
+    }
+
+    // A compiled program. Exactly one of the executors is set, and none of them is modified by a run.
+    public static final class Program {
+        private final VirtualMachine machine;
+        private final JitProgram compiled;
+        private final Interpreter interpreter;
+
+        private Program(VirtualMachine machine, JitProgram compiled, Interpreter interpreter) {
+            this.machine = machine;
+            this.compiled = compiled;
+            this.interpreter = interpreter;
+        }
+
+        // Method to get the backend the program actually runs on
+        public String getBackend() {
+            return machine != null ? "vm" : compiled != null ? "jit" : "interp";
+        }
+
+        // Method to run the program with the given text as its INPUT and return everything it printed.
+        // Runtime errors are thrown as BasicRuntimeException.
+        public String run(String input) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            run(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), output);
+            return new String(output.toByteArray(), StandardCharsets.UTF_8);
+        }
+
+        // Method to run the program reading INPUT from input and printing to output.
+        // Output is buffered and flushed when the run ends or waits for INPUT; neither stream is closed.
+        public void run(InputStream input, OutputStream output) {
+            OutputSink sink = new OutputSink(output, OutputSink.FlushPolicy.BUFFER);
+            if (machine != null) {
+                machine.run(machine.newContext(input, sink));
+            } else if (compiled != null) {
+                compiled.run(compiled.newContext(input, sink));
+            } else {
+                interpreter.run(interpreter.newContext(input, sink));
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class BasicEngineTest {
+    private static final String SOURCE = "INPUT n\ns = 0\nfor i = 1 to n\ns = s + i\nnext i\nREAD d\nprint n, s + d\nDATA 100";
+
+    @Test
+    public void testRunsCompiledProgramManyTimes() throws LexerException {
+        BasicEngine.Program program = new BasicEngine("vm", true).compile(SOURCE);
+        assertEquals("? 3 106\n", program.run("3\n"));
+        assertEquals("? 10 155\n", program.run("10\n"));
+    }
+
+    @Test
+    public void testConcurrentRunsAreIsolated() throws Exception {
+        for (String backend : new String[] {"interp", "vm", "jit"}) {
+            BasicEngine.Program program = new BasicEngine(backend, true).compile(SOURCE);
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            try {
+                List<Future<String>> runs = new ArrayList<>();
+                for (int n = 0; n < 200; n++) {
+                    String input = n + "\n";
+                    runs.add(executor.submit(() -> program.run(input)));
+                }
+                for (int n = 0; n < runs.size(); n++) {
+                    assertEquals("? " + n + " " + (n * (n + 1) / 2 + 100) + "\n", runs.get(n).get());
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    @Test
+    public void testCompilesPathsAndBuffers() throws IOException, LexerException {
+        BasicEngine engine = new BasicEngine();
+        Path file = Files.createTempFile("engine", ".basic");
+        try {
+            Files.write(file, "x = 6\nprint x * 7".getBytes());
+            assertEquals("42\n", engine.compile(file).run(""));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap("junk print \"hi\"".getBytes());
+        buffer.position(5);
+        BasicEngine.Program program = engine.compile(buffer);
+        assertEquals(5, buffer.position());
+        assertEquals("hi\n", program.run(""));
+        assertEquals("jit", program.getBackend());
+    }
+
+    @Test
+    public void testProgramsDoNotGrowTheProcessSymbolTable() throws LexerException {
+        int before = SymbolTable.current().size();
+        BasicEngine.Program program = new BasicEngine("interp", true).compile("unseenName = 1\nprint unseenName, \"unseen text\"");
+        assertEquals("1 unseen text\n", program.run(""));
+        assertEquals(before, SymbolTable.current().size());
+    }
+
+    @Test
+    public void testErrors() throws LexerException {
+        BasicEngine engine = new BasicEngine();
+        assertThrows(ParseException.class, () -> engine.compile("x = (1"));
+        for (String backend : new String[] {"interp", "vm", "jit"}) {
+            ParseException e = assertThrows(ParseException.class,
+                    () -> new BasicEngine(backend, true).compile("print 1\n) print 2\nprint 3\n"));
+            assertEquals(2, e.getLine());
+            assertEquals(1, e.getColumn());
+        }
+        assertThrows(BasicRuntimeException.class, () -> engine.compile("next i"));
+        assertThrows(BasicRuntimeException.class, () -> engine.compile("x = 0\nprint 1 / x").run(""));
+        assertThrows(IllegalArgumentException.class, () -> new BasicEngine("native", true));
+        // READ is not compiled to JVM code, so the program is interpreted instead
+        assertEquals("interp", engine.compile("READ x\nDATA 1").getBackend());
+    }
+}
@@ -0,0 +1,164 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+// Runs many small BASIC programs in one JVM, each on its own thread.
+// Every file is compiled by a shared BasicEngine and executed independently with its output
+// captured, so a failing program only affects its own Result. Lexers and SymbolTables are per task
+// and share only the static character/keyword tables; no other state is shared. Programs run
+// on virtual threads when the JVM has them (Java 21+), otherwise on one platform thread per core.
+public class BatchRunner {
+    private static final String EXTENSION = ".basic";
+
+    // How a file's run ended
+    enum Status {
+        OK, IO_ERROR, LEXER_ERROR, PARSE_ERROR, RUNTIME_ERROR
+    }
+
+    // Outcome of one file: its captured output and, unless it succeeded, what went wrong
+    public static final class Result {
+        private final Path file;
+        private final Status status;
+        private final String output;
+        private final String message;
+        private final long nanos;
+
+        Result(Path file, Status status, String output, String message, long nanos) {
+            this.file = file;
+            this.status = status;
+            this.output = output;
+            this.message = message;
+            this.nanos = nanos;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public String getOutput() {
+            return output;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        @Override
+        public String toString() {
+            String time = String.format("%.2f ms", nanos / 1e6);
+            return file + ": " + (status == Status.OK ? "ok" : status.name().toLowerCase().replace('_', ' ') + ": " + message)
+                    + " (" + time + ")";
+        }
+    }
+
+    private final BasicEngine engine;
+
+    // Constructor to run programs on the given backend (interp, vm or jit), optimized or not
+    public BatchRunner(String backend, boolean optimize) {
+        this.engine = new BasicEngine(backend, optimize);
+    }
+
+    // Method to list the programs to run: every .basic file under a directory, or the files
+    // named one per line in a manifest, relative to the manifest. Blank lines and # comments are skipped.
+    public static List<Path> collect(Path source) throws IOException {
+        if (Files.isDirectory(source)) {
+            try (Stream<Path> files = Files.walk(source)) {
+                return files.filter(file -> file.toString().endsWith(EXTENSION) && Files.isRegularFile(file))
+                        .sorted()
+                        .collect(Collectors.toList());
+            }
+        }
+        List<Path> files = new ArrayList<>();
+        Path base = source.toAbsolutePath().getParent();
+        for (String line : Files.readAllLines(source)) {
+            String name = line.trim();
+            if (!name.isEmpty() && !name.startsWith("#")) {
+                files.add(base.resolve(name));
+            }
+        }
+        return files;
+    }
+
+    // Method to run every file and return their results in the same order
+    public List<Result> run(List<Path> files) {
+        ExecutorService executor = newExecutor();
+        try {
+            List<Future<Result>> pending = new ArrayList<>(files.size());
+            for (Path file : files) {
+                pending.add(executor.submit(() -> runFile(file)));
+            }
+            List<Result> results = new ArrayList<>(files.size());
+            for (Future<Result> result : pending) {
+                results.add(result.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for batch results", e);
+        } catch (ExecutionException e) {
+            // runFile turns every failure of a program into a Result, so this is a bug in the runner
+            throw new IllegalStateException("Batch task failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Method to lex, parse and run one program with no input, capturing what it prints
+    Result runFile(Path file) {
+        long start = System.nanoTime();
+        BasicEngine.Program program;
+        try {
+            program = engine.compile(file);
+        } catch (IOException e) {
+            return new Result(file, Status.IO_ERROR, "", e.toString(), System.nanoTime() - start);
+        } catch (LexerException e) {
+            return new Result(file, Status.LEXER_ERROR, "", e.getMessage(), System.nanoTime() - start);
+        } catch (BasicRuntimeException e) {
+            // A load-time error such as NEXT without FOR
+            return new Result(file, Status.RUNTIME_ERROR, "", e.getMessage(), System.nanoTime() - start);
+        } catch (RuntimeException e) {
+            return new Result(file, Status.PARSE_ERROR, "", e.getMessage(), System.nanoTime() - start);
+        }
+
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        Status status = Status.OK;
+        String message = null;
+        try {
+            program.run(new ByteArrayInputStream(new byte[0]), captured);
+        } catch (RuntimeException e) {
+            status = Status.RUNTIME_ERROR;
+            message = e.getMessage();
+        }
+        String text = new String(captured.toByteArray(), StandardCharsets.UTF_8);
+        return new Result(file, status, text, message, System.nanoTime() - start);
+    }
+
+    // Uses Executors.newVirtualThreadPerTaskExecutor through reflection so this still builds and
+    // runs on JVMs that predate virtual threads
+    static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        }
+    }
+}
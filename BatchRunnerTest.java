@@ -0,0 +1,60 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class BatchRunnerTest {
+    // Helper method that writes a program into a directory
+    private Path write(Path directory, String name, String source) throws IOException {
+        Path file = directory.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.write(file, source.getBytes());
+        return file;
+    }
+
+    @Test
+    public void testRunsEveryFileInOrder() throws IOException {
+        Path directory = Files.createTempDirectory("batch");
+        List<Path> expected = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            expected.add(write(directory, String.format("p%03d.basic", i), "x = " + i + "\nprint x * 2\n"));
+        }
+        write(directory, "notes.txt", "not a program");
+
+        List<Path> files = BatchRunner.collect(directory);
+        assertEquals(expected, files);
+        List<BatchRunner.Result> results = new BatchRunner("vm", true).run(files);
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(BatchRunner.Status.OK, results.get(i).getStatus());
+            assertEquals((i * 2) + "\n", results.get(i).getOutput());
+        }
+    }
+
+    @Test
+    public void testReportsFailuresPerFile() throws IOException {
+        Path directory = Files.createTempDirectory("batch");
+        write(directory, "lexer.basic", "print \"open\n");
+        write(directory, "runtime/divide.basic", "print 1\nprint 1 / 0\n");
+        write(directory, "ok.basic", "print \"fine\"\n");
+        write(directory, "syntax.basic", "print 1\nif x > 1 then print 2\nprint 3\n");
+        Path manifest = write(directory, "batch.txt", "# programs\nlexer.basic\n\nruntime/divide.basic\nok.basic\nmissing.basic\nsyntax.basic\n");
+
+        List<BatchRunner.Result> results = new BatchRunner("interp", false).run(BatchRunner.collect(manifest));
+        List<BatchRunner.Status> statuses = new ArrayList<>();
+        for (BatchRunner.Result result : results) {
+            statuses.add(result.getStatus());
+        }
+        assertEquals(Arrays.asList(BatchRunner.Status.LEXER_ERROR, BatchRunner.Status.RUNTIME_ERROR,
+                BatchRunner.Status.OK, BatchRunner.Status.IO_ERROR, BatchRunner.Status.PARSE_ERROR), statuses);
+        assertEquals("1\n", results.get(1).getOutput());
+        assertEquals("Division by zero", results.get(1).getMessage());
+        assertEquals("fine\n", results.get(2).getOutput());
+        // The IF line cannot be parsed, so nothing runs rather than only the statements before it
+        assertEquals("", results.get(4).getOutput());
+    }
+}
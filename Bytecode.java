@@ -0,0 +1,99 @@
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+// Compiled form of a program for the VirtualMachine.
+// The instruction stream is a flat int[]: an opcode followed by its operands. Operands name
+// registers, which are the program's variable slots followed by compiler temporaries, or index
+// the constant pools. Small integers are stored inline in the instruction stream, and jump
+// targets are offsets into it.
+public class Bytecode {
+    // Opcodes and their operands
+    static final int HALT = 0;            //
+    static final int LOAD_INT = 1;        // dst, value
+    static final int LOAD_FLOAT = 2;      // dst, floatConstant
+    static final int LOAD_STRING = 3;     // dst, stringConstant
+    static final int MOVE = 4;            // dst, src
+    static final int ADD = 5;             // dst, left, right
+    static final int SUBTRACT = 6;        // dst, left, right
+    static final int MULTIPLY = 7;        // dst, left, right
+    static final int DIVIDE = 8;          // dst, left, right
+    static final int PRINT = 9;           // src
+    static final int PRINT_SEPARATOR = 10; //
+    static final int PRINT_END = 11;      //
+    static final int READ = 12;           // dst
+    static final int INPUT_PROMPT = 13;   // stringConstant, or -1 for the default prompt
+    static final int INPUT = 14;          // dst
+    static final int INPUT_END = 15;      //
+    static final int NEGATE = 16;         // dst, src
+    static final int JUMP = 17;           // target
+    static final int GOSUB = 18;          // target
+    static final int RETURN = 19;         //
+    static final int FOR_TEST = 20;       // variable, limit, step, exit: jumps to exit when the loop is done
+    static final int NEXT = 21;           // variable, limit, step, body: steps and jumps back to body unless done
+    static final int FAIL = 22;           // stringConstant, raised as a runtime error
+    static final int STATEMENT = 23;      // statement index, reported to the profiler; only in profiling builds
+    static final int MODULO = 24;         // dst, left, right
+    static final int EQUAL = 25;          // dst, left, right: 1 when the comparison holds, else 0
+    static final int NOT_EQUAL = 26;      // dst, left, right
+    static final int LESS = 27;           // dst, left, right
+    static final int LESS_EQUAL = 28;     // dst, left, right
+    static final int GREATER = 29;        // dst, left, right
+    static final int GREATER_EQUAL = 30;  // dst, left, right
+    static final int JUMP_UNLESS = 31;    // src, target: jumps when src is 0, the test at the top of a WHILE
+
+    private static final String[] NAMES = {
+        "HALT", "LOAD_INT", "LOAD_FLOAT", "LOAD_STRING", "MOVE", "ADD", "SUBTRACT", "MULTIPLY", "DIVIDE",
+        "PRINT", "PRINT_SEPARATOR", "PRINT_END", "READ", "INPUT_PROMPT", "INPUT", "INPUT_END", "NEGATE",
+        "JUMP", "GOSUB", "RETURN", "FOR_TEST", "NEXT", "FAIL", "STATEMENT", "MODULO", "EQUAL", "NOT_EQUAL", "LESS",
+        "LESS_EQUAL", "GREATER", "GREATER_EQUAL", "JUMP_UNLESS"
+    };
+    private static final int[] OPERAND_COUNTS = {0, 2, 2, 2, 2, 3, 3, 3, 3, 1, 0, 0, 1, 1, 1, 0, 2, 1, 1, 0, 4, 4, 1, 1, 3, 3, 3, 3, 3, 3, 3, 2};
+
+    final int[] code;
+    final float[] floatConstants;
+    final String[] stringConstants;
+    final int registerCount;
+    final List<Node> data;
+    final SlotTable slots;
+
+    Bytecode(int[] code, float[] floatConstants, String[] stringConstants, int registerCount, List<Node> data, SlotTable slots) {
+        this.code = code;
+        this.floatConstants = floatConstants;
+        this.stringConstants = stringConstants;
+        this.registerCount = registerCount;
+        this.data = data;
+        this.slots = slots;
+    }
+
+    // Method to create a fresh register file for one run of this program
+    public ExecutionContext newContext(InputStream input, PrintStream output) {
+        return new ExecutionContext(registerCount, data, input, output);
+    }
+
+    public ExecutionContext newContext(InputStream input, OutputSink output) {
+        return new ExecutionContext(registerCount, data, input, output);
+    }
+
+    // Number of operands that follow the given opcode
+    static int operandCount(int opcode) {
+        return OPERAND_COUNTS[opcode];
+    }
+
+    // Disassembles the instruction stream, one instruction per line
+    @Override
+    public String toString() {
+        StringBuilder listing = new StringBuilder();
+        int pc = 0;
+        while (pc < code.length) {
+            int opcode = code[pc];
+            listing.append(pc).append(": ").append(NAMES[opcode]);
+            for (int i = 1; i <= OPERAND_COUNTS[opcode]; i++) {
+                listing.append(i == 1 ? " " : ", ").append(code[pc + i]);
+            }
+            listing.append('\n');
+            pc += 1 + OPERAND_COUNTS[opcode];
+        }
+        return listing.toString();
+    }
+}
@@ -0,0 +1,237 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+// Lowers a StatementsNode into Bytecode for the register VM.
+// Variables keep the slots assigned by SlotTable and double as registers; intermediate results
+// use temporaries allocated above them like a stack, so an expression needs as many temporaries
+// as its nesting depth. A compiler instance compiles a single program.
+public class BytecodeCompiler {
+    private int[] code = new int[64];
+    private int size = 0;
+    private final List<Float> floatConstants = new ArrayList<>();
+    private final HashMap<Float, Integer> floatIndex = new HashMap<>();
+    private final List<String> stringConstants = new ArrayList<>();
+    private final HashMap<String, Integer> stringIndex = new HashMap<>();
+    private final List<Node> data = new ArrayList<>();
+    private int nextTemp;
+    private int registerCount;
+
+    // The statements being compiled, the code offset of each, and the jump operands still waiting for the offset of a statement
+    private StatementNode[] statements;
+    private int[] statementOffsets;
+    private final List<int[]> fixups = new ArrayList<>(); // {operand position, statement index}
+
+    // Method to compile a whole program
+    public Bytecode compile(StatementsNode program) {
+        return compile(program, false);
+    }
+
+    // Method to compile a whole program, starting each statement with a STATEMENT instruction for
+    // the Profiler when profiled is set
+    public Bytecode compile(StatementsNode program, boolean profiled) {
+        SlotTable slots = SlotTable.resolve(program);
+        statements = program.getStatements().toArray(new StatementNode[0]);
+        LineTable.resolve(statements);
+        nextTemp = slots.size();
+        registerCount = slots.size();
+
+        statementOffsets = new int[statements.length + 1];
+        for (int i = 0; i < statements.length; i++) {
+            statementOffsets[i] = size;
+            if (profiled) {
+                emit(Bytecode.STATEMENT, i);
+            }
+            compileStatement(statements[i]);
+        }
+        statementOffsets[statements.length] = size;
+        emit(Bytecode.HALT);
+        for (int[] fixup : fixups) {
+            code[fixup[0]] = statementOffsets[fixup[1]];
+        }
+
+        float[] floats = new float[floatConstants.size()];
+        for (int i = 0; i < floats.length; i++) {
+            floats[i] = floatConstants.get(i);
+        }
+        return new Bytecode(Arrays.copyOf(code, size), floats, stringConstants.toArray(new String[0]),
+                registerCount, data, slots);
+    }
+
+    private void compileStatement(StatementNode statement) {
+        if (statement instanceof AssignmentNode) {
+            AssignmentNode assignment = (AssignmentNode) statement;
+            compileInto(assignment.getValue(), assignment.getVariable().getSlot());
+        } else if (statement instanceof PrintNode) {
+            List<Node> items = ((PrintNode) statement).getNodes();
+            for (int i = 0; i < items.size(); i++) {
+                if (i > 0) {
+                    emit(Bytecode.PRINT_SEPARATOR);
+                }
+                int mark = nextTemp;
+                emit(Bytecode.PRINT, compileExpression(items.get(i)));
+                nextTemp = mark;
+            }
+            emit(Bytecode.PRINT_END);
+        } else if (statement instanceof ReadNode) {
+            for (VariableNode variable : ((ReadNode) statement).getVariables()) {
+                emit(Bytecode.READ, variable.getSlot());
+            }
+        } else if (statement instanceof InputNode) {
+            InputNode input = (InputNode) statement;
+            Node prompt = input.getPrompt();
+            emit(Bytecode.INPUT_PROMPT, prompt == null ? -1 : stringConstant(((StringNode) prompt).getValue()));
+            for (VariableNode variable : input.getVariables()) {
+                emit(Bytecode.INPUT, variable.getSlot());
+            }
+            emit(Bytecode.INPUT_END);
+        } else if (statement instanceof DataNode) {
+            data.addAll(((DataNode) statement).getData());
+        } else if (statement instanceof ForNode) {
+            ForNode loop = (ForNode) statement;
+            compileInto(loop.getStart(), loop.getVariable().getSlot());
+            compileInto(loop.getLimit(), loop.getLimitSlot());
+            compileInto(loop.getStep() != null ? loop.getStep() : new IntegerNode(1), loop.getStepSlot());
+            emit(Bytecode.FOR_TEST, loop.getVariable().getSlot(), loop.getLimitSlot(), loop.getStepSlot(), 0);
+            jumpTo(loop.getNextIndex() + 1);
+        } else if (statement instanceof NextNode) {
+            int forIndex = ((NextNode) statement).getForIndex();
+            ForNode loop = (ForNode) statements[forIndex];
+            emit(Bytecode.NEXT, loop.getVariable().getSlot(), loop.getLimitSlot(), loop.getStepSlot(), 0);
+            jumpTo(forIndex + 1);
+        } else if (statement instanceof WhileNode) {
+            WhileNode loop = (WhileNode) statement;
+            int mark = nextTemp;
+            emit(Bytecode.JUMP_UNLESS, compileExpression(loop.getCondition()), 0);
+            jumpTo(loop.getWendIndex() + 1);
+            nextTemp = mark;
+        } else if (statement instanceof WendNode) {
+            emit(Bytecode.JUMP, 0);
+            jumpTo(((WendNode) statement).getWhileIndex());
+        } else if (statement instanceof GotoNode) {
+            GotoNode jump = (GotoNode) statement;
+            compileJump(Bytecode.JUMP, jump.getTargetIndex(), jump.getTarget());
+        } else if (statement instanceof GosubNode) {
+            GosubNode call = (GosubNode) statement;
+            compileJump(Bytecode.GOSUB, call.getTargetIndex(), call.getTarget());
+        } else if (statement instanceof ReturnNode) {
+            emit(Bytecode.RETURN);
+        } else if (statement instanceof EndNode) {
+            emit(Bytecode.HALT);
+        } else {
+            throw new IllegalArgumentException("Cannot compile " + statement);
+        }
+    }
+
+    // Compiles a GOTO or GOSUB; a jump to a missing line fails only when it is reached
+    private void compileJump(int opcode, int targetIndex, int lineNumber) {
+        if (targetIndex < 0) {
+            emit(Bytecode.FAIL, stringConstant("Undefined line " + lineNumber));
+            return;
+        }
+        emit(opcode, 0);
+        jumpTo(targetIndex);
+    }
+
+    // Makes the last emitted word the code offset of the given statement once it is known
+    private void jumpTo(int statementIndex) {
+        fixups.add(new int[] {size - 1, statementIndex});
+    }
+
+    // Compiles an expression and returns the register holding its value; variables need no code at all
+    private int compileExpression(Node node) {
+        if (node instanceof VariableNode) {
+            return ((VariableNode) node).getSlot();
+        }
+        int temp = allocateTemp();
+        compileInto(node, temp);
+        return temp;
+    }
+
+    // Compiles an expression so that its value ends up in register dst
+    private void compileInto(Node node, int dst) {
+        if (node instanceof VariableNode) {
+            int src = ((VariableNode) node).getSlot();
+            if (src != dst) {
+                emit(Bytecode.MOVE, dst, src);
+            }
+        } else if (node instanceof IntegerNode) {
+            emit(Bytecode.LOAD_INT, dst, ((IntegerNode) node).getValue());
+        } else if (node instanceof FloatNode) {
+            emit(Bytecode.LOAD_FLOAT, dst, floatConstant(((FloatNode) node).getValue()));
+        } else if (node instanceof StringNode) {
+            emit(Bytecode.LOAD_STRING, dst, stringConstant(((StringNode) node).getValue()));
+        } else if (node instanceof MathOpNode) {
+            MathOpNode op = (MathOpNode) node;
+            int mark = nextTemp;
+            // Operands go to their own registers so dst is only written after both are read
+            int left = compileExpression(op.getLeft());
+            int right = compileExpression(op.getRight());
+            emit(opcodeFor(op.getOperation()), dst, left, right);
+            nextTemp = mark;
+        } else if (node instanceof NegateNode) {
+            int mark = nextTemp;
+            emit(Bytecode.NEGATE, dst, compileExpression(((NegateNode) node).getOperand()));
+            nextTemp = mark;
+        } else {
+            throw new IllegalArgumentException("Cannot compile " + node);
+        }
+    }
+
+    private static int opcodeFor(MathOpNode.Operation operation) {
+        switch (operation) {
+            case ADD:
+                return Bytecode.ADD;
+            case SUBTRACT:
+                return Bytecode.SUBTRACT;
+            case MULTIPLY:
+                return Bytecode.MULTIPLY;
+            case DIVIDE:
+                return Bytecode.DIVIDE;
+            case MODULO:
+                return Bytecode.MODULO;
+            case EQUAL:
+                return Bytecode.EQUAL;
+            case NOT_EQUAL:
+                return Bytecode.NOT_EQUAL;
+            case LESS:
+                return Bytecode.LESS;
+            case LESS_EQUAL:
+                return Bytecode.LESS_EQUAL;
+            case GREATER:
+                return Bytecode.GREATER;
+            default:
+                return Bytecode.GREATER_EQUAL;
+        }
+    }
+
+    private int allocateTemp() {
+        int temp = nextTemp++;
+        registerCount = Math.max(registerCount, nextTemp);
+        return temp;
+    }
+
+    private int floatConstant(float value) {
+        return floatIndex.computeIfAbsent(value, v -> {
+            floatConstants.add(v);
+            return floatConstants.size() - 1;
+        });
+    }
+
+    private int stringConstant(String value) {
+        return stringIndex.computeIfAbsent(value, v -> {
+            stringConstants.add(v);
+            return stringConstants.size() - 1;
+        });
+    }
+
+    private void emit(int... words) {
+        if (size + words.length > code.length) {
+            code = Arrays.copyOf(code, Math.max(code.length * 2, size + words.length));
+        }
+        for (int word : words) {
+            code[size++] = word;
+        }
+    }
+}
@@ -1,47 +1,202 @@
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 
 public class CodeHandler {
-    private String document;
+    // Files at least this large are memory-mapped instead of being read onto the heap
+    static final long MAPPING_THRESHOLD = 8L * 1024 * 1024;
+
+    private CharSequence document;
     private int index = 0;
+    private int limit; // reading stops here; the end of the document unless this is a range view
 
     // Constructor to initialize the CodeHandler object
     public CodeHandler(String filename) throws IOException {
-        this.document = new String(Files.readAllBytes(Paths.get(filename)));
+        this(Paths.get(filename));
+    }
+
+    // Constructor that maps large files and reads small ones
+    public CodeHandler(Path path) throws IOException {
+        this(path, Files.size(path) >= MAPPING_THRESHOLD);
+    }
+
+    // Constructor that lets the caller force the memory-mapped mode on or off
+    public CodeHandler(Path path, boolean mapped) throws IOException {
+        if (mapped) {
+            this.document = new MappedDocument(map(path));
+        } else {
+            // One byte per character, exactly as MappedDocument decodes, whatever the file's size
+            this.document = new String(Files.readAllBytes(path), StandardCharsets.ISO_8859_1);
+        }
+        this.limit = document.length();
+    }
+
+    private CodeHandler(CharSequence document) {
+        this(document, 0, document.length());
+    }
+
+    private CodeHandler(CharSequence document, int start, int end) {
+        this.document = document;
+        this.index = start;
+        this.limit = end;
+    }
+
+    // Creates a CodeHandler over source text that is already in memory
+    public static CodeHandler fromString(String source) {
+        return new CodeHandler((CharSequence) source);
+    }
+
+    // Creates a CodeHandler over the bytes between a buffer's position and limit, decoded one
+    // character per byte like a mapped file; the buffer itself is left untouched
+    public static CodeHandler fromBytes(ByteBuffer source) {
+        return new CodeHandler(new MappedDocument(source.slice()));
+    }
+
+    // Method to get an independent handler that reads only [start, end) of the same document.
+    // Positions stay absolute, so tokens lexed from a range slice correctly against the whole document.
+    public CodeHandler range(int start, int end) {
+        return new CodeHandler(document, start, end);
+    }
+
+    // Maps the whole file read-only; the mapping lives as long as the buffer is reachable
+    private static MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File too large to map: " + path + " (" + size + " bytes)");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
     }
 
     // Method to get a substring from the current position
     public String peekString(int i) {
-        if (index + i >= document.length()) return "";
-        return document.substring(index, index + i);
+        if (index + i >= limit) return "";
+        return document.subSequence(index, index + i).toString();
     }
 
     // Method to move the index forward by a specified length
     public void swallow(int i) {
-        index = Math.min(index + i, document.length());
+        index = Math.min(index + i, limit);
     }
 
     // Method to get the remaining part of the document
     public String remainder() {
         if (isDone()) return "";
-        return document.substring(index);
+        return document.subSequence(index, limit).toString();
     }
 
     // Method to peek a single character at a specified position
     public char peek(int i) {
-        if (index + i >= document.length()) return '\0';
+        if (index + i >= limit) return '\0';
         return document.charAt(index + i);
     }
 
+    // Method to get the character at an absolute position, independent of the current position
+    public char charAt(int position) {
+        return document.charAt(position);
+    }
+
     // Method to get the current character and move the index
     public char getChar() {
-        if (index >= document.length()) return '\0';
+        if (index >= limit) return '\0';
         return document.charAt(index++);
     }
 
     // Method to check if the entire document has been processed
     public boolean isDone() {
-        return index >= document.length();
+        return index >= limit;
+    }
+
+    // Method to get the total length of the document in characters
+    public int length() {
+        return document.length();
+    }
+
+    // Method to get the position where reading stops
+    public int getLimit() {
+        return limit;
+    }
+
+    // Method to get the current position in the document
+    public int getIndex() {
+        return index;
+    }
+
+    // Method to feed the document into a digest. Text that fits in one byte per character is hashed as
+    // those bytes, so a file hashes the same whether it was mapped or read; anything else is hashed as
+    // UTF-16 behind a different leading byte so the two forms cannot collide.
+    public void digest(MessageDigest digest) {
+        if (document instanceof MappedDocument) {
+            digest.update((byte) 0);
+            digest.update(((MappedDocument) document).bytes());
+            return;
+        }
+        String text = document.toString();
+        if (StandardCharsets.ISO_8859_1.newEncoder().canEncode(text)) {
+            digest.update((byte) 0);
+            digest.update(text.getBytes(StandardCharsets.ISO_8859_1));
+        } else {
+            digest.update((byte) 1);
+            digest.update(text.getBytes(StandardCharsets.UTF_16BE));
+        }
+    }
+
+    // Method to intern an absolute range of the document without copying it out first
+    public int intern(SymbolTable symbols, int start, int end, boolean lowerCase) {
+        return symbols.intern(document, start, end, lowerCase);
+    }
+
+    // Method to copy out an absolute range of the document, independent of the current position
+    public String slice(int start, int end) {
+        return document.subSequence(start, end).toString();
+    }
+}
+
+// Read-only character view over a byte buffer holding ASCII/Latin-1 BASIC source.
+// Characters are decoded one byte at a time, so nothing is copied onto the heap.
+class MappedDocument implements CharSequence {
+    private final ByteBuffer buffer;
+
+    MappedDocument(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    // A view of the underlying bytes that can be consumed without disturbing this document
+    ByteBuffer bytes() {
+        ByteBuffer view = buffer.duplicate();
+        view.position(0);
+        return view;
+    }
+
+    @Override
+    public int length() {
+        return buffer.limit();
+    }
+
+    @Override
+    public char charAt(int i) {
+        return (char) (buffer.get(i) & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        char[] chars = new char[end - start];
+        for (int i = start; i < end; i++) {
+            chars[i - start] = charAt(i);
+        }
+        return new String(chars);
+    }
+
+    @Override
+    public String toString() {
+        return subSequence(0, length()).toString();
     }
 }
@@ -0,0 +1,60 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+
+public class CodeHandlerTest {
+    private byte[] digest(CodeHandler code) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        code.digest(digest);
+        return digest.digest();
+    }
+
+    @Test
+    public void testMappedAndReadFilesAgree() throws Exception {
+        Path file = Files.createTempFile("code", ".basic");
+        try {
+            // "cafe" with an accented e in UTF-8, two bytes that both modes must read as two characters
+            Files.write(file, new byte[] {'p', 'r', 'i', 'n', 't', ' ', '"', 'c', 'a', 'f', (byte) 0xc3, (byte) 0xa9, '"'});
+            CodeHandler read = new CodeHandler(file, false);
+            CodeHandler mapped = new CodeHandler(file, true);
+            assertEquals(read.length(), mapped.length());
+            assertEquals(read.remainder(), mapped.remainder());
+            assertTrue(MessageDigest.isEqual(digest(read), digest(mapped)));
+            assertTrue(MessageDigest.isEqual(digest(read), digest(CodeHandler.fromString(read.remainder()))));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testMappedFileReadsLikeReadFile() throws Exception {
+        Path file = Files.createTempFile("code", ".basic");
+        try {
+            String source = new ProgramGenerator(5).generate(ProgramGenerator.Profile.MIXED, 5000);
+            Files.write(file, source.getBytes());
+            CodeHandler mapped = new CodeHandler(file, true);
+            assertEquals(source.length(), mapped.length());
+            assertEquals(source.charAt(0), mapped.peek(0));
+            assertEquals(source.substring(0, 10), mapped.peekString(10));
+            mapped.swallow(10);
+            assertEquals(10, mapped.getIndex());
+            assertEquals(source.substring(10), mapped.remainder());
+            assertEquals(source.substring(20, 40), mapped.range(20, 40).remainder());
+
+            TokenBuffer expected = new Lexer().lexPacked(new CodeHandler(file, false));
+            TokenBuffer actual = new Lexer().lexPacked(new CodeHandler(file, true));
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.type(i), actual.type(i));
+                assertEquals(expected.value(i), actual.value(i));
+                assertEquals(expected.line(i), actual.line(i));
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
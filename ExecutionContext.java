@@ -0,0 +1,379 @@
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+
+// Mutable state of a single program run: the variable slots, the DATA cursor and the I/O streams.
+// Variables live in parallel primitive arrays indexed by slot, tagged with their current kind,
+// so numeric values are never boxed.
+public class ExecutionContext {
+    // Kinds a variable slot can hold
+    static final byte INT = 0;
+    static final byte FLOAT = 1;
+    static final byte STRING = 2;
+
+    final byte[] kinds;
+    final int[] ints;
+    final float[] floats;
+    final String[] strings;
+
+    // Result registers used by executors that evaluate expressions without allocating values
+    int intResult;
+    float floatResult;
+    String stringResult;
+
+    private final List<Node> data;
+    private int dataIndex = 0;
+    private ValueReader dataFile; // when set, READ takes values from it instead of the DATA statements
+    private final ValueReader input;
+    private final OutputSink output;
+
+    // GOSUB return addresses: statement indexes for the Interpreter, code offsets for the VM
+    private int[] returnStack = new int[16];
+    private int returnDepth = 0;
+
+    private Profiler profiler; // null unless the run is being profiled
+
+    // Constructor to create a context with the given number of variable slots, buffering PRINT output
+    // until the run ends or waits for INPUT
+    public ExecutionContext(int slotCount, List<Node> data, InputStream input, PrintStream output) {
+        this(slotCount, data, input, new OutputSink(output, OutputSink.FlushPolicy.BUFFER));
+    }
+
+    // Constructor to create a context that prints to the given sink
+    public ExecutionContext(int slotCount, List<Node> data, InputStream input, OutputSink output) {
+        this.kinds = new byte[slotCount];
+        this.ints = new int[slotCount];
+        this.floats = new float[slotCount];
+        this.strings = new String[slotCount];
+        this.data = data;
+        this.input = ValueReader.forInput(input);
+        this.output = output;
+    }
+
+    // Method to store the value described by a constant node into a slot
+    void assignConstant(int slot, Node value) {
+        if (value instanceof IntegerNode) {
+            kinds[slot] = INT;
+            ints[slot] = ((IntegerNode) value).getValue();
+        } else if (value instanceof FloatNode) {
+            kinds[slot] = FLOAT;
+            floats[slot] = ((FloatNode) value).getValue();
+        } else {
+            kinds[slot] = STRING;
+            strings[slot] = ((StringNode) value).getValue();
+        }
+    }
+
+    // Method to store text typed by the user, as an int or float when it looks like one
+    void assignParsed(int slot, String text) {
+        String trimmed = text.trim();
+        try {
+            ints[slot] = Integer.parseInt(trimmed);
+            kinds[slot] = INT;
+            return;
+        } catch (NumberFormatException e) {
+            // not an integer, try the next kind
+        }
+        try {
+            floats[slot] = Float.parseFloat(trimmed);
+            kinds[slot] = FLOAT;
+            return;
+        } catch (NumberFormatException e) {
+            // not a number at all, keep it as text
+        }
+        strings[slot] = trimmed;
+        kinds[slot] = STRING;
+    }
+
+    // Method to have READ take its values from a data file instead of the program's DATA statements
+    public void setDataFile(ValueReader dataFile) {
+        this.dataFile = dataFile;
+    }
+
+    // Method to copy the next DATA value into a slot
+    void readData(int slot) {
+        if (dataFile != null) {
+            if (!dataFile.readData(this, slot)) {
+                throw new BasicRuntimeException("Out of DATA");
+            }
+            return;
+        }
+        if (dataIndex >= data.size()) {
+            throw new BasicRuntimeException("Out of DATA");
+        }
+        assignConstant(slot, data.get(dataIndex++));
+    }
+
+    // Method to read the next comma separated value from the input stream into a slot
+    void readInput(int slot) {
+        input.readInput(this, slot);
+    }
+
+    // Method to drop any values left over from the previous INPUT line
+    void endInput() {
+        input.endLine();
+    }
+
+    // Methods used by PRINT; items are separated by a single space and the statement ends the line
+    void printInt(int value) {
+        output.printInt(value);
+    }
+
+    void printFloat(float value) {
+        output.printFloat(value);
+    }
+
+    void printString(String value) {
+        output.printString(value);
+    }
+
+    void printSeparator() {
+        output.printSeparator();
+    }
+
+    void printEnd() {
+        output.printEnd();
+    }
+
+    void flush() {
+        output.flush();
+    }
+
+    // Methods used by compiled code to write its final variable values back into the slots
+    void storeInt(int slot, int value) {
+        kinds[slot] = INT;
+        ints[slot] = value;
+    }
+
+    void storeFloat(int slot, float value) {
+        kinds[slot] = FLOAT;
+        floats[slot] = value;
+    }
+
+    void storeString(int slot, String value) {
+        kinds[slot] = STRING;
+        strings[slot] = value;
+    }
+
+    // Method to have the statements of this run counted and sampled; executors built for profiling report to it
+    public void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
+    }
+
+    Profiler getProfiler() {
+        return profiler;
+    }
+
+    // Method used by code compiled for profiling as each statement starts
+    void enterStatement(int statement) {
+        if (profiler != null) {
+            profiler.enter(statement);
+        }
+    }
+
+    // Methods used by GOSUB and RETURN
+    void pushReturn(int address) {
+        if (returnDepth == returnStack.length) {
+            returnStack = Arrays.copyOf(returnStack, returnDepth * 2);
+        }
+        returnStack[returnDepth++] = address;
+        if (profiler != null) {
+            profiler.call();
+        }
+    }
+
+    int popReturn() {
+        if (returnDepth == 0) {
+            throw new BasicRuntimeException("RETURN without GOSUB");
+        }
+        if (profiler != null) {
+            profiler.ret();
+        }
+        return returnStack[--returnDepth];
+    }
+
+    // Method to check whether a FOR loop is done: its variable has passed the limit in the direction of the step
+    boolean loopFinished(int variable, int limit, int step) {
+        if (kinds[variable] == STRING || kinds[limit] == STRING || kinds[step] == STRING) {
+            throw new BasicRuntimeException("Type mismatch: FOR needs numbers");
+        }
+        if (kinds[variable] == INT && kinds[limit] == INT && kinds[step] == INT) {
+            return ints[step] >= 0 ? ints[variable] > ints[limit] : ints[variable] < ints[limit];
+        }
+        float value = kinds[variable] == INT ? ints[variable] : floats[variable];
+        float bound = kinds[limit] == INT ? ints[limit] : floats[limit];
+        float increment = kinds[step] == INT ? ints[step] : floats[step];
+        return increment >= 0 ? value > bound : value < bound;
+    }
+
+    // Method to test the value in the result registers as a WHILE condition: any number but 0 is true
+    boolean isTrue(byte kind) {
+        switch (kind) {
+            case INT:
+                return intResult != 0;
+            case FLOAT:
+                return floatResult != 0;
+            default:
+                throw new BasicRuntimeException("Type mismatch: WHILE needs a number");
+        }
+    }
+
+    // Method used by NEXT to add the step to the loop variable
+    void advanceLoop(int variable, int step) {
+        byte kind = apply(MathOpNode.Operation.ADD,
+                kinds[variable], ints[variable], floats[variable], strings[variable],
+                kinds[step], ints[step], floats[step], strings[step]);
+        if (kind == STRING) {
+            throw new BasicRuntimeException("Type mismatch: FOR needs numbers");
+        }
+        kinds[variable] = kind;
+        if (kind == INT) {
+            ints[variable] = intResult;
+        } else {
+            floats[variable] = floatResult;
+        }
+    }
+
+    // Method to apply a binary operation to two tagged values, leaving the result in the result registers.
+    // int op int stays int (division truncates), any float operand promotes to float, and + concatenates strings.
+    // Comparisons work on two numbers or two strings and always give an int.
+    byte apply(MathOpNode.Operation operation,
+               byte leftKind, int leftInt, float leftFloat, String leftString,
+               byte rightKind, int rightInt, float rightFloat, String rightString) {
+        if (leftKind == INT && rightKind == INT) {
+            switch (operation) {
+                case ADD:
+                    intResult = leftInt + rightInt;
+                    return INT;
+                case SUBTRACT:
+                    intResult = leftInt - rightInt;
+                    return INT;
+                case MULTIPLY:
+                    intResult = leftInt * rightInt;
+                    return INT;
+                case DIVIDE:
+                    if (rightInt == 0) {
+                        throw new BasicRuntimeException("Division by zero");
+                    }
+                    intResult = leftInt / rightInt;
+                    return INT;
+                case MODULO:
+                    if (rightInt == 0) {
+                        throw new BasicRuntimeException("Division by zero");
+                    }
+                    intResult = leftInt % rightInt;
+                    return INT;
+                default:
+                    intResult = compare(operation, leftInt, rightInt);
+                    return INT;
+            }
+        }
+
+        if (leftKind == STRING || rightKind == STRING) {
+            if (operation == MathOpNode.Operation.ADD) {
+                stringResult = text(leftKind, leftInt, leftFloat, leftString) + text(rightKind, rightInt, rightFloat, rightString);
+                return STRING;
+            }
+            if (operation.isComparison() && leftKind == STRING && rightKind == STRING) {
+                intResult = compare(operation, leftString.compareTo(rightString), 0);
+                return INT;
+            }
+            throw new BasicRuntimeException("Type mismatch: cannot apply " + operation + " to a string");
+        }
+
+        float left = leftKind == INT ? leftInt : leftFloat;
+        float right = rightKind == INT ? rightInt : rightFloat;
+        switch (operation) {
+            case ADD:
+                floatResult = left + right;
+                break;
+            case SUBTRACT:
+                floatResult = left - right;
+                break;
+            case MULTIPLY:
+                floatResult = left * right;
+                break;
+            case DIVIDE:
+                if (right == 0) {
+                    throw new BasicRuntimeException("Division by zero");
+                }
+                floatResult = left / right;
+                break;
+            case MODULO:
+                if (right == 0) {
+                    throw new BasicRuntimeException("Division by zero");
+                }
+                floatResult = left % right;
+                break;
+            default:
+                intResult = compare(operation, left, right);
+                return INT;
+        }
+        return FLOAT;
+    }
+
+    // Method to evaluate a comparison of two ints, giving 1 when it holds and 0 when it does not
+    static int compare(MathOpNode.Operation operation, int left, int right) {
+        switch (operation) {
+            case EQUAL:
+                return left == right ? 1 : 0;
+            case NOT_EQUAL:
+                return left != right ? 1 : 0;
+            case LESS:
+                return left < right ? 1 : 0;
+            case LESS_EQUAL:
+                return left <= right ? 1 : 0;
+            case GREATER:
+                return left > right ? 1 : 0;
+            case GREATER_EQUAL:
+                return left >= right ? 1 : 0;
+            default:
+                throw new IllegalArgumentException(operation + " is not a comparison");
+        }
+    }
+
+    // Float comparisons follow Java's: 0.0 equals -0.0 and NaN is neither less, equal nor greater
+    static int compare(MathOpNode.Operation operation, float left, float right) {
+        switch (operation) {
+            case EQUAL:
+                return left == right ? 1 : 0;
+            case NOT_EQUAL:
+                return left != right ? 1 : 0;
+            case LESS:
+                return left < right ? 1 : 0;
+            case LESS_EQUAL:
+                return left <= right ? 1 : 0;
+            case GREATER:
+                return left > right ? 1 : 0;
+            case GREATER_EQUAL:
+                return left >= right ? 1 : 0;
+            default:
+                throw new IllegalArgumentException(operation + " is not a comparison");
+        }
+    }
+
+    // Method to negate a tagged value with the same result as 0 - value, so floats never become -0.0
+    byte negate(byte kind, int intValue, float floatValue, String stringValue) {
+        return apply(MathOpNode.Operation.SUBTRACT, INT, 0, 0f, null, kind, intValue, floatValue, stringValue);
+    }
+
+    // Method to render a tagged value as text, used for string concatenation
+    static String text(byte kind, int intValue, float floatValue, String stringValue) {
+        switch (kind) {
+            case INT:
+                return Integer.toString(intValue);
+            case FLOAT:
+                return Float.toString(floatValue);
+            default:
+                return stringValue;
+        }
+    }
+}
+
+// Raised when a running BASIC program hits an error such as division by zero
+class BasicRuntimeException extends RuntimeException {
+    public BasicRuntimeException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,612 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Flat, arena-style form of a parsed program, filled directly by Parser.parseFlat.
+// Every node is a row across parallel primitive arrays: its kind, one int of payload and the range
+// of its children in a shared child array. Nodes are numbered in the order the parser finishes
+// them, so children always come before their parents. Names and strings are SymbolTable ids, and
+// a missing optional child (an INPUT prompt, a FOR step, a NEXT variable) is stored as -1.
+//
+// Payload by kind: VARIABLE and STRING a symbol id, INTEGER the value, FLOAT the value's bits,
+// MATH_OP the Operation ordinal, GOTO and GOSUB the target line, everything else unused.
+// Children by kind: MATH_OP left, right; ASSIGNMENT variable, value; PRINT, READ and DATA their
+// items; INPUT prompt then variables; FOR variable, start, limit, step; NEXT variable; WHILE condition.
+public class FlatAst {
+    enum Kind {
+        VARIABLE, INTEGER, FLOAT, STRING, MATH_OP,
+        ASSIGNMENT, PRINT, READ, DATA, INPUT, GOTO, GOSUB, RETURN, END, FOR, NEXT, WHILE, WEND
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+    private static final MathOpNode.Operation[] OPERATIONS = MathOpNode.Operation.values();
+
+    // Receives one call per node from accept(); implementations read the node through the FlatAst
+    public interface Visitor<R> {
+        R visitVariable(FlatAst ast, int node);
+        R visitInteger(FlatAst ast, int node);
+        R visitFloat(FlatAst ast, int node);
+        R visitString(FlatAst ast, int node);
+        R visitMathOp(FlatAst ast, int node);
+        R visitAssignment(FlatAst ast, int node);
+        R visitPrint(FlatAst ast, int node);
+        R visitRead(FlatAst ast, int node);
+        R visitData(FlatAst ast, int node);
+        R visitInput(FlatAst ast, int node);
+        R visitGoto(FlatAst ast, int node);
+        R visitGosub(FlatAst ast, int node);
+        R visitReturn(FlatAst ast, int node);
+        R visitEnd(FlatAst ast, int node);
+        R visitFor(FlatAst ast, int node);
+        R visitNext(FlatAst ast, int node);
+        R visitWhile(FlatAst ast, int node);
+        R visitWend(FlatAst ast, int node);
+    }
+
+    private final byte[] kinds;
+    private final int[] payloads;
+    private final int[] childStarts;
+    private final int[] childCounts;
+    private final int[] children;
+    private final int nodeCount;
+    private final int[] statements;
+    private final int[] lineNumbers;
+    private final int[] sourceLines;
+    private final int[] sourceColumns;
+    private final int statementCount;
+    private final SymbolTable symbols;
+
+    private FlatAst(Builder builder) {
+        this.kinds = builder.kinds;
+        this.payloads = builder.payloads;
+        this.childStarts = builder.childStarts;
+        this.childCounts = builder.childCounts;
+        this.children = builder.children;
+        this.nodeCount = builder.nodeCount;
+        this.statements = builder.statements;
+        this.lineNumbers = builder.lineNumbers;
+        this.sourceLines = builder.sourceLines;
+        this.sourceColumns = builder.sourceColumns;
+        this.statementCount = builder.statementCount;
+        this.symbols = builder.symbols;
+    }
+
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    public int statementCount() {
+        return statementCount;
+    }
+
+    // Method to get the root node of the i-th statement
+    public int statement(int i) {
+        return statements[i];
+    }
+
+    // Method to get the BASIC line number of the i-th statement, or -1 if it has none
+    public int lineNumber(int i) {
+        return lineNumbers[i];
+    }
+
+    // Methods to get where the i-th statement starts in the source text, -1 when unknown
+    public int sourceLine(int i) {
+        return sourceLines[i];
+    }
+
+    public int sourceColumn(int i) {
+        return sourceColumns[i];
+    }
+
+    public Kind kind(int node) {
+        return KINDS[kinds[node]];
+    }
+
+    public int childCount(int node) {
+        return childCounts[node];
+    }
+
+    // Method to get a node's i-th child, or -1 for a missing optional child
+    public int child(int node, int i) {
+        return children[childStarts[node] + i];
+    }
+
+    // Method to get the SymbolTable id of a VARIABLE or STRING
+    public int symbol(int node) {
+        return payloads[node];
+    }
+
+    // Method to get the name of a VARIABLE or the text of a STRING
+    public String text(int node) {
+        return symbols.name(payloads[node]);
+    }
+
+    public int intValue(int node) {
+        return payloads[node];
+    }
+
+    public float floatValue(int node) {
+        return Float.intBitsToFloat(payloads[node]);
+    }
+
+    public MathOpNode.Operation operation(int node) {
+        return OPERATIONS[payloads[node]];
+    }
+
+    // Method to get the line a GOTO or GOSUB jumps to
+    public int target(int node) {
+        return payloads[node];
+    }
+
+    // Method to dispatch a node to the visitor method for its kind
+    public <R> R accept(int node, Visitor<R> visitor) {
+        switch (kind(node)) {
+            case VARIABLE:
+                return visitor.visitVariable(this, node);
+            case INTEGER:
+                return visitor.visitInteger(this, node);
+            case FLOAT:
+                return visitor.visitFloat(this, node);
+            case STRING:
+                return visitor.visitString(this, node);
+            case MATH_OP:
+                return visitor.visitMathOp(this, node);
+            case ASSIGNMENT:
+                return visitor.visitAssignment(this, node);
+            case PRINT:
+                return visitor.visitPrint(this, node);
+            case READ:
+                return visitor.visitRead(this, node);
+            case DATA:
+                return visitor.visitData(this, node);
+            case INPUT:
+                return visitor.visitInput(this, node);
+            case GOTO:
+                return visitor.visitGoto(this, node);
+            case GOSUB:
+                return visitor.visitGosub(this, node);
+            case RETURN:
+                return visitor.visitReturn(this, node);
+            case END:
+                return visitor.visitEnd(this, node);
+            case FOR:
+                return visitor.visitFor(this, node);
+            case NEXT:
+                return visitor.visitNext(this, node);
+            case WHILE:
+                return visitor.visitWhile(this, node);
+            default:
+                return visitor.visitWend(this, node);
+        }
+    }
+
+    // Method to build the equivalent Node tree, for the executors that work on Nodes
+    public StatementsNode toStatements() {
+        NodeBuilder builder = new NodeBuilder();
+        List<StatementNode> program = new ArrayList<>(statementCount);
+        for (int i = 0; i < statementCount; i++) {
+            StatementNode statement = (StatementNode) accept(statements[i], builder);
+            statement.setLineNumber(lineNumbers[i]);
+            statement.setSource(sourceLines[i], sourceColumns[i]);
+            program.add(statement);
+        }
+        return new StatementsNode(program);
+    }
+
+    // Prints the program the same way StatementsNode does
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        Printer printer = new Printer(text);
+        for (int i = 0; i < statementCount; i++) {
+            if (i > 0) {
+                text.append('\n');
+            }
+            if (lineNumbers[i] >= 0) {
+                text.append(lineNumbers[i]).append(' ');
+            }
+            accept(statements[i], printer);
+        }
+        return text.toString();
+    }
+
+    // Appends parser output to growable arrays; nodes of a statement are kept even if the
+    // statement never completes, which only wastes their rows
+    public static final class Builder implements AstEmitter {
+        private byte[] kinds;
+        private int[] payloads;
+        private int[] childStarts;
+        private int[] childCounts;
+        private int nodeCount = 0;
+        private int[] children;
+        private int childTotal = 0;
+        private int[] statements;
+        private int[] lineNumbers;
+        private int[] sourceLines;
+        private int[] sourceColumns;
+        private int statementCount = 0;
+        private final SymbolTable symbols = SymbolTable.current(); // the table the parser's ids come from
+
+        public Builder() {
+            this(64);
+        }
+
+        // Constructor to size the arrays for about expectedNodes nodes up front
+        public Builder(int expectedNodes) {
+            int capacity = Math.max(16, expectedNodes);
+            kinds = new byte[capacity];
+            payloads = new int[capacity];
+            childStarts = new int[capacity];
+            childCounts = new int[capacity];
+            children = new int[capacity];
+            statements = new int[Math.max(16, capacity / 4)];
+            lineNumbers = new int[statements.length];
+            sourceLines = new int[statements.length];
+            sourceColumns = new int[statements.length];
+        }
+
+        public FlatAst build() {
+            return new FlatAst(this);
+        }
+
+        private int add(Kind kind, int payload, int childCount) {
+            if (nodeCount == kinds.length) {
+                int capacity = nodeCount * 2;
+                kinds = Arrays.copyOf(kinds, capacity);
+                payloads = Arrays.copyOf(payloads, capacity);
+                childStarts = Arrays.copyOf(childStarts, capacity);
+                childCounts = Arrays.copyOf(childCounts, capacity);
+            }
+            if (childTotal + childCount > children.length) {
+                children = Arrays.copyOf(children, Math.max(children.length * 2, childTotal + childCount));
+            }
+            kinds[nodeCount] = (byte) kind.ordinal();
+            payloads[nodeCount] = payload;
+            childStarts[nodeCount] = childTotal;
+            childCounts[nodeCount] = childCount;
+            return nodeCount++;
+        }
+
+        private int add(Kind kind, int payload, int first, int second) {
+            int node = add(kind, payload, 2);
+            children[childTotal++] = first;
+            children[childTotal++] = second;
+            return node;
+        }
+
+        private int add(Kind kind, int[] items, int from, int count) {
+            int node = add(kind, 0, count);
+            System.arraycopy(items, from, children, childTotal, count);
+            childTotal += count;
+            return node;
+        }
+
+        public int variable(int symbol) {
+            return add(Kind.VARIABLE, symbol, 0);
+        }
+
+        public int integer(int value) {
+            return add(Kind.INTEGER, value, 0);
+        }
+
+        public int floating(float value) {
+            return add(Kind.FLOAT, Float.floatToRawIntBits(value), 0);
+        }
+
+        public int string(int symbol) {
+            return add(Kind.STRING, symbol, 0);
+        }
+
+        public int mathOp(MathOpNode.Operation operation, int left, int right) {
+            return add(Kind.MATH_OP, operation.ordinal(), left, right);
+        }
+
+        public int assignment(int variable, int value) {
+            return add(Kind.ASSIGNMENT, 0, variable, value);
+        }
+
+        public int print(int[] items, int from, int count) {
+            return add(Kind.PRINT, items, from, count);
+        }
+
+        public int read(int[] items, int from, int count) {
+            return add(Kind.READ, items, from, count);
+        }
+
+        public int data(int[] items, int from, int count) {
+            return add(Kind.DATA, items, from, count);
+        }
+
+        public int input(int prompt, int[] items, int from, int count) {
+            int node = add(Kind.INPUT, 0, count + 1);
+            children[childTotal++] = prompt;
+            System.arraycopy(items, from, children, childTotal, count);
+            childTotal += count;
+            return node;
+        }
+
+        public int gotoLine(int target) {
+            return add(Kind.GOTO, target, 0);
+        }
+
+        public int gosub(int target) {
+            return add(Kind.GOSUB, target, 0);
+        }
+
+        public int returnStatement() {
+            return add(Kind.RETURN, 0, 0);
+        }
+
+        public int end() {
+            return add(Kind.END, 0, 0);
+        }
+
+        public int forLoop(int variable, int start, int limit, int step) {
+            int node = add(Kind.FOR, 0, 4);
+            children[childTotal++] = variable;
+            children[childTotal++] = start;
+            children[childTotal++] = limit;
+            children[childTotal++] = step;
+            return node;
+        }
+
+        public int next(int variable) {
+            int node = add(Kind.NEXT, 0, 1);
+            children[childTotal++] = variable;
+            return node;
+        }
+
+        public int whileLoop(int condition) {
+            int node = add(Kind.WHILE, 0, 1);
+            children[childTotal++] = condition;
+            return node;
+        }
+
+        public int wend() {
+            return add(Kind.WEND, 0, 0);
+        }
+
+        public void statement(int statement, int lineNumber, int sourceLine, int sourceColumn) {
+            if (statementCount == statements.length) {
+                statements = Arrays.copyOf(statements, statementCount * 2);
+                lineNumbers = Arrays.copyOf(lineNumbers, statementCount * 2);
+                sourceLines = Arrays.copyOf(sourceLines, statementCount * 2);
+                sourceColumns = Arrays.copyOf(sourceColumns, statementCount * 2);
+            }
+            statements[statementCount] = statement;
+            lineNumbers[statementCount] = lineNumber;
+            sourceLines[statementCount] = sourceLine;
+            sourceColumns[statementCount] = sourceColumn;
+            statementCount++;
+        }
+    }
+
+    // Writes nodes in the same text form as their Node counterparts
+    private static final class Printer implements Visitor<Void> {
+        private final StringBuilder text;
+
+        Printer(StringBuilder text) {
+            this.text = text;
+        }
+
+        private void print(FlatAst ast, int node) {
+            ast.accept(node, this);
+        }
+
+        private Void list(FlatAst ast, int node, String keyword, int from) {
+            text.append(keyword);
+            for (int i = from; i < ast.childCount(node); i++) {
+                text.append(i > from ? ", " : " ");
+                print(ast, ast.child(node, i));
+            }
+            return null;
+        }
+
+        public Void visitVariable(FlatAst ast, int node) {
+            text.append(ast.text(node));
+            return null;
+        }
+
+        public Void visitInteger(FlatAst ast, int node) {
+            text.append(ast.intValue(node));
+            return null;
+        }
+
+        public Void visitFloat(FlatAst ast, int node) {
+            text.append(ast.floatValue(node));
+            return null;
+        }
+
+        public Void visitString(FlatAst ast, int node) {
+            text.append('"').append(ast.text(node)).append('"');
+            return null;
+        }
+
+        public Void visitMathOp(FlatAst ast, int node) {
+            text.append('(');
+            print(ast, ast.child(node, 0));
+            text.append(' ').append(ast.operation(node).name()).append(' ');
+            print(ast, ast.child(node, 1));
+            text.append(')');
+            return null;
+        }
+
+        public Void visitAssignment(FlatAst ast, int node) {
+            print(ast, ast.child(node, 0));
+            text.append(" = ");
+            print(ast, ast.child(node, 1));
+            return null;
+        }
+
+        public Void visitPrint(FlatAst ast, int node) {
+            return list(ast, node, "print", 0);
+        }
+
+        public Void visitRead(FlatAst ast, int node) {
+            return list(ast, node, "read", 0);
+        }
+
+        public Void visitData(FlatAst ast, int node) {
+            return list(ast, node, "data", 0);
+        }
+
+        public Void visitInput(FlatAst ast, int node) {
+            text.append("input ");
+            if (ast.child(node, 0) >= 0) {
+                print(ast, ast.child(node, 0));
+                text.append(", ");
+            }
+            for (int i = 1; i < ast.childCount(node); i++) {
+                if (i > 1) {
+                    text.append(", ");
+                }
+                print(ast, ast.child(node, i));
+            }
+            return null;
+        }
+
+        public Void visitGoto(FlatAst ast, int node) {
+            text.append("goto ").append(ast.target(node));
+            return null;
+        }
+
+        public Void visitGosub(FlatAst ast, int node) {
+            text.append("gosub ").append(ast.target(node));
+            return null;
+        }
+
+        public Void visitReturn(FlatAst ast, int node) {
+            text.append("return");
+            return null;
+        }
+
+        public Void visitEnd(FlatAst ast, int node) {
+            text.append("end");
+            return null;
+        }
+
+        public Void visitFor(FlatAst ast, int node) {
+            text.append("for ");
+            print(ast, ast.child(node, 0));
+            text.append(" = ");
+            print(ast, ast.child(node, 1));
+            text.append(" to ");
+            print(ast, ast.child(node, 2));
+            if (ast.child(node, 3) >= 0) {
+                text.append(" step ");
+                print(ast, ast.child(node, 3));
+            }
+            return null;
+        }
+
+        public Void visitNext(FlatAst ast, int node) {
+            text.append("next");
+            if (ast.child(node, 0) >= 0) {
+                text.append(' ');
+                print(ast, ast.child(node, 0));
+            }
+            return null;
+        }
+
+        public Void visitWhile(FlatAst ast, int node) {
+            text.append("while ");
+            print(ast, ast.child(node, 0));
+            return null;
+        }
+
+        public Void visitWend(FlatAst ast, int node) {
+            text.append("wend");
+            return null;
+        }
+    }
+
+    // Rebuilds Node objects bottom-up
+    private static final class NodeBuilder implements Visitor<Node> {
+        private Node build(FlatAst ast, int node) {
+            return node < 0 ? null : ast.accept(node, this);
+        }
+
+        private <T extends Node> List<T> list(FlatAst ast, int node, int from) {
+            List<T> list = new ArrayList<>(ast.childCount(node) - from);
+            for (int i = from; i < ast.childCount(node); i++) {
+                @SuppressWarnings("unchecked")
+                T item = (T) build(ast, ast.child(node, i));
+                list.add(item);
+            }
+            return list;
+        }
+
+        public Node visitVariable(FlatAst ast, int node) {
+            return new VariableNode(ast.symbol(node));
+        }
+
+        public Node visitInteger(FlatAst ast, int node) {
+            return new IntegerNode(ast.intValue(node));
+        }
+
+        public Node visitFloat(FlatAst ast, int node) {
+            return new FloatNode(ast.floatValue(node));
+        }
+
+        public Node visitString(FlatAst ast, int node) {
+            return new StringNode(ast.symbol(node));
+        }
+
+        public Node visitMathOp(FlatAst ast, int node) {
+            return new MathOpNode(ast.operation(node), build(ast, ast.child(node, 0)), build(ast, ast.child(node, 1)));
+        }
+
+        public Node visitAssignment(FlatAst ast, int node) {
+            return new AssignmentNode((VariableNode) build(ast, ast.child(node, 0)), build(ast, ast.child(node, 1)));
+        }
+
+        public Node visitPrint(FlatAst ast, int node) {
+            return new PrintNode(list(ast, node, 0));
+        }
+
+        public Node visitRead(FlatAst ast, int node) {
+            return new ReadNode(list(ast, node, 0));
+        }
+
+        public Node visitData(FlatAst ast, int node) {
+            return new DataNode(list(ast, node, 0));
+        }
+
+        public Node visitInput(FlatAst ast, int node) {
+            return new InputNode(build(ast, ast.child(node, 0)), list(ast, node, 1));
+        }
+
+        public Node visitGoto(FlatAst ast, int node) {
+            return new GotoNode(ast.target(node));
+        }
+
+        public Node visitGosub(FlatAst ast, int node) {
+            return new GosubNode(ast.target(node));
+        }
+
+        public Node visitReturn(FlatAst ast, int node) {
+            return new ReturnNode();
+        }
+
+        public Node visitEnd(FlatAst ast, int node) {
+            return new EndNode();
+        }
+
+        public Node visitFor(FlatAst ast, int node) {
+            return new ForNode((VariableNode) build(ast, ast.child(node, 0)), build(ast, ast.child(node, 1)),
+                    build(ast, ast.child(node, 2)), build(ast, ast.child(node, 3)));
+        }
+
+        public Node visitNext(FlatAst ast, int node) {
+            return new NextNode((VariableNode) build(ast, ast.child(node, 0)));
+        }
+
+        public Node visitWhile(FlatAst ast, int node) {
+            return new WhileNode(build(ast, ast.child(node, 0)));
+        }
+
+        public Node visitWend(FlatAst ast, int node) {
+            return new WendNode();
+        }
+    }
+}
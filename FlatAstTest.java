@@ -0,0 +1,141 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+public class FlatAstTest {
+    // Helper method that parses a program into both forms
+    private Parser parser(String source) throws LexerException {
+        return new Parser(new TokenManager(new Lexer().lexPacked(CodeHandler.fromString(source))));
+    }
+
+    @Test
+    public void testMatchesNodeTree() throws LexerException {
+        String source = new ProgramGenerator(3).generate(ProgramGenerator.Profile.MIXED, 5000)
+                + "10 input \"n\", a, b\n20 for i = 1 to a step -1\nread x\ndata -1.5, \"s\", 2\n"
+                + "next i\nfor j = 0 to 1\nnext\ngosub 40\ngoto 50\n40 return\n50 end\nprint -x * (2 - y)\n";
+        String expected = parser(source).parse().toString();
+        FlatAst ast = parser(source).parseFlat();
+        assertEquals(expected, ast.toString());
+        assertEquals(expected, ast.toStatements().toString());
+    }
+
+    @Test
+    public void testChildrenComeBeforeParents() throws LexerException {
+        FlatAst ast = parser("x = (a + 1) * b\nprint x, \"x\"\n").parseFlat();
+        assertEquals(2, ast.statementCount());
+        assertEquals(10, ast.nodeCount());
+        for (int node = 0; node < ast.nodeCount(); node++) {
+            for (int i = 0; i < ast.childCount(node); i++) {
+                assertTrue(ast.child(node, i) < node);
+            }
+        }
+        int assignment = ast.statement(0);
+        assertEquals(FlatAst.Kind.ASSIGNMENT, ast.kind(assignment));
+        assertEquals(MathOpNode.Operation.MULTIPLY, ast.operation(ast.child(assignment, 1)));
+    }
+
+    @Test
+    public void testVisitorWalksNodes() throws LexerException {
+        FlatAst ast = parser("x = a + b * a\nprint c\n").parseFlat();
+        Set<String> names = new HashSet<>();
+        FlatAst.Visitor<Void> collector = new Walker() {
+            @Override
+            public Void visitVariable(FlatAst ast, int node) {
+                names.add(ast.text(node));
+                return null;
+            }
+        };
+        for (int i = 0; i < ast.statementCount(); i++) {
+            ast.accept(ast.statement(i), collector);
+        }
+        assertEquals(new HashSet<>(Arrays.asList("x", "a", "b", "c")), names);
+    }
+
+    // Visits every child of every node
+    private static class Walker implements FlatAst.Visitor<Void> {
+        private Void children(FlatAst ast, int node) {
+            for (int i = 0; i < ast.childCount(node); i++) {
+                if (ast.child(node, i) >= 0) {
+                    ast.accept(ast.child(node, i), this);
+                }
+            }
+            return null;
+        }
+
+        public Void visitVariable(FlatAst ast, int node) {
+            return null;
+        }
+
+        public Void visitInteger(FlatAst ast, int node) {
+            return null;
+        }
+
+        public Void visitFloat(FlatAst ast, int node) {
+            return null;
+        }
+
+        public Void visitString(FlatAst ast, int node) {
+            return null;
+        }
+
+        public Void visitMathOp(FlatAst ast, int node) {
+            return children(ast, node);
+        }
+
+        public Void visitAssignment(FlatAst ast, int node) {
+            return children(ast, node);
+        }
+
+        public Void visitPrint(FlatAst ast, int node) {
+            return children(ast, node);
+        }
+
+        public Void visitRead(FlatAst ast, int node) {
+            return children(ast, node);
+        }
+
+        public Void visitData(FlatAst ast, int node) {
+            return children(ast, node);
+        }
+
+        public Void visitInput(FlatAst ast, int node) {
+            return children(ast, node);
+        }
+
+        public Void visitGoto(FlatAst ast, int node) {
+            return null;
+        }
+
+        public Void visitGosub(FlatAst ast, int node) {
+            return null;
+        }
+
+        public Void visitReturn(FlatAst ast, int node) {
+            return null;
+        }
+
+        public Void visitEnd(FlatAst ast, int node) {
+            return null;
+        }
+
+        public Void visitFor(FlatAst ast, int node) {
+            return children(ast, node);
+        }
+
+        public Void visitWhile(FlatAst ast, int node) {
+            return children(ast, node);
+        }
+
+        public Void visitWend(FlatAst ast, int node) {
+            return null;
+        }
+
+        public Void visitNext(FlatAst ast, int node) {
+            return children(ast, node);
+        }
+    }
+}
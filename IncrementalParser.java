@@ -0,0 +1,372 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Keeps a program parsed while its text is edited, for editor integrations.
+// The text is held as segments: logical lines that end at a newline outside any string literal,
+// so each one lexes on its own exactly as it would inside the whole document. Segments are grouped
+// into units that start where a statement must start (see ParallelParser.isStatementBoundary) and
+// each unit keeps the statements it parsed to. An edit re-lexes only the segments it touches, plus
+// any that an opened or closed string literal runs into, and reparses only the units around them;
+// every other statement object is reused. When some unit does not parse on its own, the program is
+// parsed again as a whole so the result and errors always match Parser.
+// Because statements are reused, a returned program is only valid until the next edit(): an edit
+// that inserts or removes lines moves the source lines of the statements below it in place, in the
+// programs already handed out as well. Callers that keep a program across edits, for a Profiler or
+// diagnostics, must take what they need from it first.
+public class IncrementalParser {
+    private static final StatementNode[] NO_STATEMENTS = new StatementNode[0];
+
+    private final List<Segment> segments = new ArrayList<>();
+    // For segment i: where its text starts, and how many statements come before its unit's ones.
+    // Entry segments.size() holds the totals. Edits shift the entries after them instead of rebuilding.
+    private int[] offsets = new int[1];
+    private int[] statementStarts = new int[1];
+    private final ArrayList<StatementNode> statements = new ArrayList<>();
+    private int lexerErrors = 0;
+    private int incompleteUnits = 0;
+    private int movedFrom = Integer.MAX_VALUE; // first segment that may have moved since relocate()
+
+    // Result for the current text: the program, or the error lexing or parsing it raised
+    private StatementsNode program;
+    private LexerException lexerError;
+    private RuntimeException parseError;
+
+    // Constructor to lex and parse a whole document; errors are reported by getProgram()
+    public IncrementalParser(String source) {
+        splice(0, 0, split(new StringBuilder(source), 0));
+        regroup(0, segments.size());
+        update();
+    }
+
+    // Method to get the program for the current text, throwing the error Parser would raise for it
+    public StatementsNode getProgram() throws LexerException {
+        if (lexerError != null) {
+            throw lexerError;
+        } else if (parseError != null) {
+            throw parseError;
+        }
+        return program;
+    }
+
+    // Method to get the current text of the document
+    public String getText() {
+        StringBuilder text = new StringBuilder(length());
+        for (Segment segment : segments) {
+            text.append(segment.text);
+        }
+        return text.toString();
+    }
+
+    public int length() {
+        return offsets[segments.size()];
+    }
+
+    // Method to replace length characters at offset with replacement and return the updated program.
+    // The document is updated even when the new text does not lex or parse; the error is then thrown.
+    // Programs returned before are invalidated, as their statements may be reused and moved.
+    public StatementsNode edit(int offset, int length, String replacement) throws LexerException {
+        if (offset < 0 || length < 0 || offset + length > length()) {
+            throw new IndexOutOfBoundsException("Edit " + offset + "+" + length + " outside document of length " + length());
+        }
+        int first = segmentAt(offset);
+        int last = length > 0 ? segmentAt(offset + length - 1) : first;
+        StringBuilder text = new StringBuilder();
+        if (first < segments.size()) {
+            text.append(segments.get(first).text, 0, offset - offsets[first]);
+        }
+        text.append(replacement);
+        if (last < segments.size()) {
+            Segment tail = segments.get(last);
+            text.append(tail.text, offset + length - offsets[last], tail.text.length());
+        }
+
+        int before = text.length();
+        List<Segment> replaced = split(text, last + 1);
+        // split() may have taken in following segments; they are replaced too
+        int end = Math.min(last + 1, segments.size());
+        for (int extra = text.length() - before; extra > 0; end++) {
+            extra -= segments.get(end).text.length();
+        }
+        splice(first, end, replaced);
+        regroup(first, first + replaced.size());
+        update();
+        return getProgram();
+    }
+
+    // Cuts text into segments. While the text ends inside a string literal or without a newline,
+    // the text of the following segments, starting at index next, is appended and scanned as well.
+    private List<Segment> split(StringBuilder text, int next) {
+        List<Segment> pieces = new ArrayList<>();
+        int start = 0;
+        boolean inString = false;
+        int i = 0;
+        while (true) {
+            for (; i < text.length(); i++) {
+                char ch = text.charAt(i);
+                if (inString) {
+                    if (ch == '\\' && i + 1 == text.length() && next < segments.size()) {
+                        break; // need the next character to tell whether this escapes a quote
+                    }
+                    if (ch == '\\' && i + 1 < text.length() && text.charAt(i + 1) == '"') {
+                        i++;
+                    } else if (ch == '"') {
+                        inString = false;
+                    }
+                } else if (ch == '"') {
+                    inString = true;
+                } else if (ch == '\n') {
+                    pieces.add(new Segment(text.substring(start, i + 1)));
+                    start = i + 1;
+                }
+            }
+            if (start == text.length() && i == text.length() || next >= segments.size()) {
+                break;
+            }
+            text.append(segments.get(next++).text);
+        }
+        if (start < text.length()) {
+            pieces.add(new Segment(text.substring(start)));
+        }
+        return pieces;
+    }
+
+    // Replaces segments [from, to) with new ones, dropping the statements of the removed units.
+    // The new segments start with no unit; regroup() decides where their units begin.
+    private void splice(int from, int to, List<Segment> replacement) {
+        int offset = offsets[from];
+        int removedStatements = statementStarts[to] - statementStarts[from];
+        for (int i = from; i < to; i++) {
+            Segment segment = segments.get(i);
+            lexerErrors -= segment.error != null ? 1 : 0;
+            incompleteUnits -= segment.complete ? 0 : 1;
+        }
+        statements.subList(statementStarts[from], statementStarts[to]).clear();
+        int oldSize = segments.size();
+        segments.subList(from, to).clear();
+        segments.addAll(from, replacement);
+
+        int added = replacement.size();
+        int size = segments.size();
+        if (added != to - from) {
+            movedFrom = Math.min(movedFrom, from);
+        }
+        if (offsets.length < size + 1) {
+            int capacity = size + 1 + (size >> 1);
+            offsets = Arrays.copyOf(offsets, capacity);
+            statementStarts = Arrays.copyOf(statementStarts, capacity);
+        }
+        System.arraycopy(offsets, to, offsets, from + added, oldSize + 1 - to);
+        System.arraycopy(statementStarts, to, statementStarts, from + added, oldSize + 1 - to);
+
+        int start = statementStarts[from + added] - removedStatements;
+        for (int i = from; i < from + added; i++) {
+            Segment segment = replacement.get(i - from);
+            offsets[i] = offset;
+            offset += segment.text.length();
+            statementStarts[i] = start;
+            lexerErrors += segment.error != null ? 1 : 0;
+        }
+        int charDelta = offset - offsets[from + added];
+        for (int i = from + added; i <= size; i++) {
+            offsets[i] += charDelta;
+            statementStarts[i] -= removedStatements;
+        }
+    }
+
+    // Recomputes unit boundaries after segments [from, to) were replaced and reparses every unit
+    // whose segments or boundaries may have changed
+    private void regroup(int from, int to) {
+        int firstUnit = from;
+        if (firstUnit > 0) {
+            firstUnit--;
+            while (firstUnit > 0 && !segments.get(firstUnit).unitStart) {
+                firstUnit--;
+            }
+        }
+
+        // The boundary of a segment depends on the last token before it, so statuses can change
+        // up to and including the first segment with tokens after the replaced ones
+        int stop = from;
+        while (stop < segments.size()) {
+            Segment segment = segments.get(stop);
+            segment.unitStart = stop == 0 || startsUnit(stop);
+            stop++;
+            if (stop > to && segment.size() > 0) {
+                break;
+            }
+        }
+        while (stop < segments.size() && !segments.get(stop).unitStart) {
+            stop++;
+        }
+
+        int begin = statementStarts[firstUnit];
+        int removed = statementStarts[stop] - begin;
+        statements.subList(begin, statementStarts[stop]).clear();
+        for (int i = firstUnit; i < stop; i++) {
+            Segment segment = segments.get(i);
+            incompleteUnits -= segment.complete ? 0 : 1;
+            segment.statements = NO_STATEMENTS;
+            segment.complete = true;
+        }
+
+        int position = begin;
+        for (int unit = firstUnit; unit < stop; ) {
+            int next = unit + 1;
+            while (next < segments.size() && !segments.get(next).unitStart) {
+                next++;
+            }
+            Segment head = parseUnit(unit, next);
+            incompleteUnits += head.complete ? 0 : 1;
+            statements.addAll(position, Arrays.asList(head.statements));
+            for (int i = unit; i < next; i++) {
+                statementStarts[i] = position;
+            }
+            position += head.statements.length;
+            unit = next;
+        }
+
+        int delta = position - begin - removed;
+        for (int i = stop; i <= segments.size(); i++) {
+            statementStarts[i] += delta;
+        }
+    }
+
+    private boolean startsUnit(int index) {
+        Segment segment = segments.get(index);
+        if (segment.size() == 0) {
+            return false;
+        }
+        for (int i = index - 1; i >= 0; i--) {
+            Segment previous = segments.get(i);
+            if (previous.size() > 0) {
+                return ParallelParser.isStatementBoundary(previous.tokens.type(previous.size() - 1), segment.tokens.type(0));
+            }
+        }
+        return true;
+    }
+
+    // Parses the unit made of segments [from, to) and stores its statements on its first segment,
+    // which it returns
+    private Segment parseUnit(int from, int to) {
+        Segment head = segments.get(from);
+        head.complete = false;
+        for (int i = from; i < to; i++) {
+            if (segments.get(i).error != null) {
+                return head;
+            }
+        }
+        try {
+            Parser parser = new Parser(new TokenManager(tokens(from, to)));
+            head.statements = parser.parse().getStatements().toArray(NO_STATEMENTS);
+            head.parsedAt = from;
+            head.complete = parser.isFinished();
+        } catch (RuntimeException e) {
+            // left incomplete; update() parses the whole program to report this exactly as Parser would
+        }
+        return head;
+    }
+
+    // Streams the tokens of segments [from, to) with document line numbers. The Lexer does not
+    // count newlines inside strings, so segment i starts on line i + 1.
+    private TokenManager.TokenSource tokens(int from, int to) {
+        return new TokenManager.TokenSource() {
+            private int segment = from;
+            private int position = 0;
+
+            @Override
+            public Token next() {
+                while (segment < to && position >= segments.get(segment).size()) {
+                    segment++;
+                    position = 0;
+                }
+                if (segment >= to) {
+                    return null;
+                }
+                TokenBuffer buffer = segments.get(segment).tokens;
+                Token token = new Token(buffer.type(position), buffer.line(position) + segment,
+                        buffer.column(position), buffer.value(position), buffer.symbol(position));
+                position++;
+                return token;
+            }
+        };
+    }
+
+    // Works out the result for the current text; only a broken document costs more than a copy
+    private void update() {
+        relocate();
+        program = null;
+        lexerError = null;
+        parseError = null;
+        if (lexerErrors > 0) {
+            for (Segment segment : segments) {
+                if (segment.error != null) {
+                    lexerError = segment.error;
+                    return;
+                }
+            }
+        }
+        if (incompleteUnits > 0) {
+            try {
+                program = new Parser(new TokenManager(tokens(0, segments.size()))).parse();
+            } catch (RuntimeException e) {
+                parseError = e;
+            }
+            return;
+        }
+        program = new StatementsNode(new ArrayList<>(statements));
+    }
+
+    // Reused statements keep the source lines they were parsed on; moves those of units that lines
+    // were inserted or removed above. This changes the nodes of programs returned before the edit.
+    private void relocate() {
+        for (int i = Math.min(movedFrom, segments.size()); i < segments.size(); i++) {
+            Segment segment = segments.get(i);
+            if (segment.parsedAt != i && segment.statements.length > 0) {
+                int delta = i - segment.parsedAt;
+                for (StatementNode statement : segment.statements) {
+                    statement.setSource(statement.getSourceLine() + delta, statement.getSourceColumn());
+                }
+                segment.parsedAt = i;
+            }
+        }
+        movedFrom = Integer.MAX_VALUE;
+    }
+
+    // Finds the segment containing offset; an offset at the very end belongs to the last segment
+    private int segmentAt(int offset) {
+        if (segments.isEmpty()) {
+            return 0;
+        }
+        int found = Arrays.binarySearch(offsets, 0, segments.size(), offset);
+        return found >= 0 ? found : Math.min(-found - 2, segments.size() - 1);
+    }
+
+    // One logical line of the document with its tokens and, if it starts a unit, the unit's statements
+    private static final class Segment {
+        final String text;
+        final TokenBuffer tokens; // null when the text does not lex
+        final LexerException error;
+        boolean unitStart;
+        StatementNode[] statements = NO_STATEMENTS;
+        int parsedAt; // index of the segment when its statements were parsed
+        boolean complete = true;
+
+        Segment(String text) {
+            this.text = text;
+            TokenBuffer lexed = null;
+            LexerException failure = null;
+            try {
+                lexed = new Lexer().lexPacked(CodeHandler.fromString(text));
+            } catch (LexerException e) {
+                failure = e;
+            }
+            this.tokens = lexed;
+            this.error = failure;
+        }
+
+        int size() {
+            return tokens != null ? tokens.size() : 0;
+        }
+    }
+}
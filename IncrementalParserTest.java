@@ -0,0 +1,70 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+
+public class IncrementalParserTest {
+    // Helper method that parses a whole program the ordinary way
+    private String parse(String source) throws LexerException {
+        return new Parser(new TokenManager(new Lexer().lex(CodeHandler.fromString(source)))).parse().toString();
+    }
+
+    @Test
+    public void testEditsMatchFullParse() throws LexerException {
+        String source = new ProgramGenerator(5).generate(ProgramGenerator.Profile.MIXED, 5000);
+        IncrementalParser parser = new IncrementalParser(source);
+        assertEquals(parse(source), parser.getProgram().toString());
+
+        int middle = source.indexOf('\n', source.length() / 2) + 1;
+        parser.edit(middle, 0, "print \"inserted\"\n");
+        assertEquals(parse(parser.getText()), parser.getProgram().toString());
+        parser.edit(0, source.indexOf('\n') + 1, "");
+        assertEquals(parse(parser.getText()), parser.getProgram().toString());
+        parser.edit(parser.length(), 0, "x = x\n+ 1\n");
+        assertEquals(parse(parser.getText()), parser.getProgram().toString());
+    }
+
+    @Test
+    public void testUntouchedStatementsAreReused() throws LexerException {
+        IncrementalParser parser = new IncrementalParser("a = 1\nb = 2\nc = 3\nd = 4\ne = 5\n");
+        List<StatementNode> before = parser.getProgram().getStatements();
+        List<StatementNode> after = parser.edit(12, 5, "c = 30").getStatements();
+        assertEquals("a = 1\nb = 2\nc = 30\nd = 4\ne = 5", parser.getProgram().toString());
+        assertSame(before.get(0), after.get(0));
+        assertSame(before.get(4), after.get(4));
+    }
+
+    @Test
+    public void testReusedStatementsMoveWithTheirLines() throws LexerException {
+        IncrementalParser parser = new IncrementalParser("a = 1\nb = 2\nc = 3\nd = 4\ne = 5\n");
+        StatementNode last = parser.getProgram().getStatements().get(4);
+        assertEquals(5, last.getSourceLine());
+        List<StatementNode> after = parser.edit(0, 0, "x = 0\ny = 0\n").getStatements();
+        assertSame(last, after.get(6));
+        assertEquals(7, last.getSourceLine());
+    }
+
+    @Test
+    public void testOpeningAndClosingStrings() throws LexerException {
+        IncrementalParser parser = new IncrementalParser("print \"a\"\nx = 1\nprint \"b\"\n");
+        assertThrows(LexerException.class, () -> parser.edit(6, 1, ""));
+        assertEquals("print a\"\nx = 1\nprint \"b\"\n", parser.getText());
+        assertEquals(parse("print \"a\"\nx = 1\nprint \"b\"\n"), parser.edit(6, 0, "\"").toString());
+
+        assertThrows(LexerException.class, () -> parser.edit(0, 0, "print \"q\n"));
+        parser.edit(8, 0, "\"");
+        assertEquals("print \"q\"\nprint \"a\"\nx = 1\nprint \"b\"\n", parser.getText());
+        assertEquals(parse(parser.getText()), parser.getProgram().toString());
+    }
+
+    @Test
+    public void testReportsErrorsLikeParser() throws LexerException {
+        IncrementalParser parser = new IncrementalParser("x = 1\ny = 2\n");
+        assertThrows(RuntimeException.class, () -> parser.edit(10, 0, " +"));
+        assertThrows(RuntimeException.class, parser::getProgram);
+        assertEquals("x = 1\ny = 2", parser.edit(10, 2, "").toString());
+        assertThrows(IndexOutOfBoundsException.class, () -> parser.edit(5, 20, ""));
+    }
+}
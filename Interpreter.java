@@ -0,0 +1,510 @@
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+// Tree-walking interpreter for a parsed program.
+// Loading resolves every variable to an integer slot and every jump to a statement index once,
+// so running the program never looks a name or line number up; values stay in the
+// ExecutionContext's primitive arrays and result registers.
+// The loaded program is not modified by run(), so one Interpreter can serve several contexts.
+// Slots and jump indexes are written onto the nodes, so loading works on its own copy of every node
+// that carries them: the caller's tree may be shared with an optimized version of it or with later
+// edits, and loading those must not renumber this one.
+public class Interpreter {
+    private final StatementNode[] statements;
+    private final SlotTable slots;
+    private final LineTable lines;
+    private final List<Node> data = new ArrayList<>();
+
+    // Constructor to load a program, resolving variable slots and jumps and collecting its DATA values
+    public Interpreter(StatementsNode program) {
+        this.statements = new StatementNode[program.getStatements().size()];
+        for (int i = 0; i < statements.length; i++) {
+            statements[i] = copy(program.getStatements().get(i));
+        }
+        this.slots = SlotTable.resolve(new StatementsNode(Arrays.asList(statements)));
+        this.lines = LineTable.resolve(statements);
+        for (StatementNode statement : statements) {
+            if (statement instanceof DataNode) {
+                data.addAll(((DataNode) statement).getData());
+            }
+        }
+    }
+
+    // Method to create fresh variable state for one run of this program
+    public ExecutionContext newContext(InputStream input, PrintStream output) {
+        return new ExecutionContext(slots.size(), data, input, output);
+    }
+
+    public ExecutionContext newContext(InputStream input, OutputSink output) {
+        return new ExecutionContext(slots.size(), data, input, output);
+    }
+
+    // Method to run the program against the console
+    public void run() {
+        run(newContext(System.in, System.out));
+    }
+
+    // Method to run the program against the given context, reporting each statement to its Profiler if it has one
+    public void run(ExecutionContext context) {
+        Profiler profiler = context.getProfiler();
+        try {
+            int pc = 0;
+            if (profiler != null) {
+                while (pc < statements.length) {
+                    profiler.enter(pc);
+                    pc = execute(statements[pc], pc, context);
+                }
+                return;
+            }
+            while (pc < statements.length) {
+                pc = execute(statements[pc], pc, context);
+            }
+        } finally {
+            context.flush();
+        }
+    }
+
+    // Copies a statement with fresh nodes wherever loading writes a slot or index; literals and
+    // statements that carry neither are immutable and kept
+    private static StatementNode copy(StatementNode statement) {
+        StatementNode copy;
+        if (statement instanceof AssignmentNode) {
+            AssignmentNode assignment = (AssignmentNode) statement;
+            copy = new AssignmentNode(copy(assignment.getVariable()), copy(assignment.getValue()));
+        } else if (statement instanceof PrintNode) {
+            copy = new PrintNode(copyAll(((PrintNode) statement).getNodes()));
+        } else if (statement instanceof ReadNode) {
+            copy = new ReadNode(copyAll(((ReadNode) statement).getVariables()));
+        } else if (statement instanceof InputNode) {
+            InputNode input = (InputNode) statement;
+            copy = new InputNode(copy(input.getPrompt()), copyAll(input.getVariables()));
+        } else if (statement instanceof ForNode) {
+            ForNode loop = (ForNode) statement;
+            copy = new ForNode(copy(loop.getVariable()), copy(loop.getStart()), copy(loop.getLimit()), copy(loop.getStep()));
+        } else if (statement instanceof NextNode) {
+            copy = new NextNode(copy(((NextNode) statement).getVariable()));
+        } else if (statement instanceof WhileNode) {
+            copy = new WhileNode(copy(((WhileNode) statement).getCondition()));
+        } else if (statement instanceof WendNode) {
+            copy = new WendNode();
+        } else if (statement instanceof GotoNode) {
+            copy = new GotoNode(((GotoNode) statement).getTarget());
+        } else if (statement instanceof GosubNode) {
+            copy = new GosubNode(((GosubNode) statement).getTarget());
+        } else {
+            return statement;
+        }
+        copy.setLineNumber(statement.getLineNumber());
+        copy.setSource(statement.getSourceLine(), statement.getSourceColumn());
+        return copy;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Node> T copy(T node) {
+        if (node instanceof VariableNode) {
+            return (T) new VariableNode((VariableNode) node);
+        } else if (node instanceof MathOpNode) {
+            MathOpNode op = (MathOpNode) node;
+            return (T) new MathOpNode(op.getOperation(), copy(op.getLeft()), copy(op.getRight()));
+        } else if (node instanceof NegateNode) {
+            return (T) new NegateNode(copy(((NegateNode) node).getOperand()));
+        }
+        return node;
+    }
+
+    private static <T extends Node> List<T> copyAll(List<T> nodes) {
+        List<T> copies = new ArrayList<>(nodes.size());
+        for (T node : nodes) {
+            copies.add(copy(node));
+        }
+        return copies;
+    }
+
+    SlotTable getSlots() {
+        return slots;
+    }
+
+    LineTable getLines() {
+        return lines;
+    }
+
+    // Executes the statement at index pc and returns the index of the next one to run
+    private int execute(StatementNode statement, int pc, ExecutionContext context) {
+        if (statement instanceof AssignmentNode) {
+            AssignmentNode assignment = (AssignmentNode) statement;
+            store(assignment.getVariable().getSlot(), evaluate(assignment.getValue(), context), context);
+        } else if (statement instanceof PrintNode) {
+            print((PrintNode) statement, context);
+        } else if (statement instanceof ForNode) {
+            return startLoop((ForNode) statement, pc, context);
+        } else if (statement instanceof NextNode) {
+            int forIndex = ((NextNode) statement).getForIndex();
+            ForNode loop = (ForNode) statements[forIndex];
+            int variable = loop.getVariable().getSlot();
+            int limit = loop.getLimitSlot();
+            int step = loop.getStepSlot();
+            byte[] kinds = context.kinds;
+            if (kinds[variable] == ExecutionContext.INT && kinds[limit] == ExecutionContext.INT && kinds[step] == ExecutionContext.INT) {
+                // Counting with ints, the usual case, stays in the primitive slots
+                int[] ints = context.ints;
+                int value = ints[variable] += ints[step];
+                return (ints[step] >= 0 ? value > ints[limit] : value < ints[limit]) ? pc + 1 : forIndex + 1;
+            }
+            context.advanceLoop(variable, step);
+            return context.loopFinished(variable, limit, step) ? pc + 1 : forIndex + 1;
+        } else if (statement instanceof WhileNode) {
+            WhileNode loop = (WhileNode) statement;
+            return context.isTrue(evaluate(loop.getCondition(), context)) ? pc + 1 : loop.getWendIndex() + 1;
+        } else if (statement instanceof WendNode) {
+            return ((WendNode) statement).getWhileIndex();
+        } else if (statement instanceof GotoNode) {
+            GotoNode jump = (GotoNode) statement;
+            return target(jump.getTargetIndex(), jump.getTarget());
+        } else if (statement instanceof GosubNode) {
+            GosubNode call = (GosubNode) statement;
+            int target = target(call.getTargetIndex(), call.getTarget());
+            context.pushReturn(pc + 1);
+            return target;
+        } else if (statement instanceof ReturnNode) {
+            return context.popReturn();
+        } else if (statement instanceof EndNode) {
+            return statements.length;
+        } else if (statement instanceof ReadNode) {
+            for (VariableNode variable : ((ReadNode) statement).getVariables()) {
+                context.readData(variable.getSlot());
+            }
+        } else if (statement instanceof InputNode) {
+            input((InputNode) statement, context);
+        } else if (!(statement instanceof DataNode)) {
+            throw new BasicRuntimeException("Cannot execute " + statement);
+        }
+        return pc + 1;
+    }
+
+    // Jump targets that name a missing line are only an error once the jump is taken
+    private static int target(int index, int lineNumber) {
+        if (index < 0) {
+            throw new BasicRuntimeException("Undefined line " + lineNumber);
+        }
+        return index;
+    }
+
+    // Initializes a FOR loop; when the body should not run at all, continues after the matching NEXT
+    private int startLoop(ForNode loop, int pc, ExecutionContext context) {
+        int variable = loop.getVariable().getSlot();
+        store(variable, evaluate(loop.getStart(), context), context);
+        store(loop.getLimitSlot(), evaluate(loop.getLimit(), context), context);
+        if (loop.getStep() != null) {
+            store(loop.getStepSlot(), evaluate(loop.getStep(), context), context);
+        } else {
+            context.storeInt(loop.getStepSlot(), 1);
+        }
+        return context.loopFinished(variable, loop.getLimitSlot(), loop.getStepSlot()) ? loop.getNextIndex() + 1 : pc + 1;
+    }
+
+    // Copies the result registers into a variable slot
+    private static void store(int slot, byte kind, ExecutionContext context) {
+        context.kinds[slot] = kind;
+        switch (kind) {
+            case ExecutionContext.INT:
+                context.ints[slot] = context.intResult;
+                break;
+            case ExecutionContext.FLOAT:
+                context.floats[slot] = context.floatResult;
+                break;
+            default:
+                context.strings[slot] = context.stringResult;
+                break;
+        }
+    }
+
+    private void print(PrintNode node, ExecutionContext context) {
+        List<Node> items = node.getNodes();
+        for (int i = 0; i < items.size(); i++) {
+            if (i > 0) {
+                context.printSeparator();
+            }
+            switch (evaluate(items.get(i), context)) {
+                case ExecutionContext.INT:
+                    context.printInt(context.intResult);
+                    break;
+                case ExecutionContext.FLOAT:
+                    context.printFloat(context.floatResult);
+                    break;
+                default:
+                    context.printString(context.stringResult);
+                    break;
+            }
+        }
+        context.printEnd();
+    }
+
+    private void input(InputNode node, ExecutionContext context) {
+        if (node.getPrompt() != null) {
+            evaluate(node.getPrompt(), context);
+            context.printString(context.stringResult);
+        } else {
+            context.printString("? ");
+        }
+        context.flush();
+        for (VariableNode variable : node.getVariables()) {
+            context.readInput(variable.getSlot());
+        }
+        context.endInput();
+    }
+
+    // Evaluates an expression into the context's result registers and returns the kind of the result
+    byte evaluate(Node node, ExecutionContext context) {
+        if (node instanceof VariableNode) {
+            int slot = ((VariableNode) node).getSlot();
+            byte kind = context.kinds[slot];
+            context.intResult = context.ints[slot];
+            context.floatResult = context.floats[slot];
+            context.stringResult = context.strings[slot];
+            return kind;
+        } else if (node instanceof IntegerNode) {
+            context.intResult = ((IntegerNode) node).getValue();
+            return ExecutionContext.INT;
+        } else if (node instanceof MathOpNode) {
+            MathOpNode op = (MathOpNode) node;
+            byte leftKind = evaluate(op.getLeft(), context);
+            int leftInt = context.intResult;
+            float leftFloat = context.floatResult;
+            String leftString = context.stringResult;
+            byte rightKind = evaluate(op.getRight(), context);
+            return context.apply(op.getOperation(), leftKind, leftInt, leftFloat, leftString,
+                    rightKind, context.intResult, context.floatResult, context.stringResult);
+        } else if (node instanceof NegateNode) {
+            byte kind = evaluate(((NegateNode) node).getOperand(), context);
+            if (kind == ExecutionContext.INT) {
+                context.intResult = -context.intResult;
+                return kind;
+            }
+            return context.negate(kind, context.intResult, context.floatResult, context.stringResult);
+        } else if (node instanceof FloatNode) {
+            context.floatResult = ((FloatNode) node).getValue();
+            return ExecutionContext.FLOAT;
+        } else if (node instanceof StringNode) {
+            context.stringResult = ((StringNode) node).getValue();
+            return ExecutionContext.STRING;
+        }
+        throw new BasicRuntimeException("Cannot evaluate " + node);
+    }
+}
+
+// Maps variable names to dense slot numbers. Built once when a program is loaded;
+// every VariableNode in the program is stamped with its slot so no lookup happens at run time.
+// FOR loops also get two unnamed slots for their limit and step.
+class SlotTable {
+    private final HashMap<Integer, Integer> slots = new HashMap<>(); // by SymbolTable id
+    private final List<String> names = new ArrayList<>();
+
+    // Method to assign slots to all variables of a program
+    static SlotTable resolve(StatementsNode program) {
+        SlotTable table = new SlotTable();
+        for (StatementNode statement : program.getStatements()) {
+            table.resolveNode(statement);
+        }
+        return table;
+    }
+
+    private void resolveNode(Node node) {
+        if (node instanceof VariableNode) {
+            VariableNode variable = (VariableNode) node;
+            variable.setSlot(slotOf(variable));
+        } else if (node instanceof MathOpNode) {
+            resolveNode(((MathOpNode) node).getLeft());
+            resolveNode(((MathOpNode) node).getRight());
+        } else if (node instanceof NegateNode) {
+            resolveNode(((NegateNode) node).getOperand());
+        } else if (node instanceof AssignmentNode) {
+            resolveNode(((AssignmentNode) node).getVariable());
+            resolveNode(((AssignmentNode) node).getValue());
+        } else if (node instanceof PrintNode) {
+            for (Node item : ((PrintNode) node).getNodes()) {
+                resolveNode(item);
+            }
+        } else if (node instanceof ReadNode) {
+            for (VariableNode variable : ((ReadNode) node).getVariables()) {
+                resolveNode(variable);
+            }
+        } else if (node instanceof InputNode) {
+            for (VariableNode variable : ((InputNode) node).getVariables()) {
+                resolveNode(variable);
+            }
+        } else if (node instanceof ForNode) {
+            ForNode loop = (ForNode) node;
+            resolveNode(loop.getVariable());
+            resolveNode(loop.getStart());
+            resolveNode(loop.getLimit());
+            resolveNode(loop.getStep());
+            loop.setLoopSlots(hiddenSlot(loop.getVariable().getName() + " limit"),
+                    hiddenSlot(loop.getVariable().getName() + " step"));
+        } else if (node instanceof NextNode) {
+            resolveNode(((NextNode) node).getVariable());
+        } else if (node instanceof WhileNode) {
+            resolveNode(((WhileNode) node).getCondition());
+        }
+    }
+
+    // Allocates a slot that no variable name maps to; the description is only for nameOf
+    private int hiddenSlot(String description) {
+        names.add(description);
+        return names.size() - 1;
+    }
+
+    // Method to get the slot for a variable's name, allocating the next one on first use
+    int slotOf(VariableNode variable) {
+        Integer slot = slots.get(variable.getSymbol());
+        if (slot == null) {
+            slot = names.size();
+            slots.put(variable.getSymbol(), slot);
+            names.add(variable.getName());
+        }
+        return slot;
+    }
+
+    int size() {
+        return names.size();
+    }
+
+    String nameOf(int slot) {
+        return names.get(slot);
+    }
+}
+
+// Maps BASIC line numbers to statement indexes. Built once when a program is loaded: GOTO and GOSUB
+// are stamped with the index of their target and each FOR/NEXT and WHILE/WEND pair with each other's index, so
+// executors jump by array index. The table is a dense array over the range of line numbers, or
+// sorted arrays searched by bisection when the numbers are too sparse for that.
+class LineTable {
+    private final int first;
+    private final int[] dense; // statement index for line first + i, or -1
+    private final int[] numbers; // sorted line numbers, used when dense is null
+    private final int[] indexes;
+
+    private LineTable(int first, int[] dense, int[] numbers, int[] indexes) {
+        this.first = first;
+        this.dense = dense;
+        this.numbers = numbers;
+        this.indexes = indexes;
+    }
+
+    // Method to index the numbered statements of a program and resolve its jumps and loops
+    static LineTable resolve(StatementNode[] statements) {
+        LineTable table = build(statements);
+        List<Integer> openLoops = new ArrayList<>();
+        List<Integer> openWhiles = new ArrayList<>();
+        for (int i = 0; i < statements.length; i++) {
+            StatementNode statement = statements[i];
+            if (statement instanceof GotoNode) {
+                GotoNode jump = (GotoNode) statement;
+                jump.setTargetIndex(table.indexOf(jump.getTarget()));
+            } else if (statement instanceof GosubNode) {
+                GosubNode call = (GosubNode) statement;
+                call.setTargetIndex(table.indexOf(call.getTarget()));
+            } else if (statement instanceof ForNode) {
+                openLoops.add(i);
+            } else if (statement instanceof NextNode) {
+                NextNode next = (NextNode) statement;
+                if (openLoops.isEmpty()) {
+                    throw new BasicRuntimeException("NEXT without FOR" + at(next));
+                }
+                int forIndex = openLoops.remove(openLoops.size() - 1);
+                ForNode loop = (ForNode) statements[forIndex];
+                if (next.getVariable() != null && next.getVariable().getSymbol() != loop.getVariable().getSymbol()) {
+                    throw new BasicRuntimeException("NEXT " + next.getVariable() + " does not match FOR " + loop.getVariable() + at(next));
+                }
+                loop.setNextIndex(i);
+                next.setForIndex(forIndex);
+            } else if (statement instanceof WhileNode) {
+                openWhiles.add(i);
+            } else if (statement instanceof WendNode) {
+                if (openWhiles.isEmpty()) {
+                    throw new BasicRuntimeException("WEND without WHILE" + at(statement));
+                }
+                int whileIndex = openWhiles.remove(openWhiles.size() - 1);
+                ((WhileNode) statements[whileIndex]).setWendIndex(i);
+                ((WendNode) statement).setWhileIndex(whileIndex);
+            }
+        }
+        if (!openLoops.isEmpty()) {
+            throw new BasicRuntimeException("FOR without NEXT" + at(statements[openLoops.get(openLoops.size() - 1)]));
+        }
+        if (!openWhiles.isEmpty()) {
+            throw new BasicRuntimeException("WHILE without WEND" + at(statements[openWhiles.get(openWhiles.size() - 1)]));
+        }
+        return table;
+    }
+
+    private static LineTable build(StatementNode[] statements) {
+        int count = 0;
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (StatementNode statement : statements) {
+            int line = statement.getLineNumber();
+            if (line >= 0) {
+                count++;
+                min = Math.min(min, line);
+                max = Math.max(max, line);
+            }
+        }
+        if (count == 0) {
+            return new LineTable(0, new int[0], null, null);
+        }
+
+        // Typical programs number lines in steps of 10, so allow a few empty entries per line
+        if ((long) max - min < 16L * count + 64) {
+            int[] dense = new int[max - min + 1];
+            Arrays.fill(dense, -1);
+            for (int i = 0; i < statements.length; i++) {
+                int line = statements[i].getLineNumber();
+                if (line >= 0) {
+                    if (dense[line - min] >= 0) {
+                        throw new BasicRuntimeException("Duplicate line " + line);
+                    }
+                    dense[line - min] = i;
+                }
+            }
+            return new LineTable(min, dense, null, null);
+        }
+
+        long[] pairs = new long[count];
+        int n = 0;
+        for (int i = 0; i < statements.length; i++) {
+            int line = statements[i].getLineNumber();
+            if (line >= 0) {
+                pairs[n++] = ((long) line << 32) | i;
+            }
+        }
+        Arrays.sort(pairs);
+        int[] numbers = new int[count];
+        int[] indexes = new int[count];
+        for (int i = 0; i < count; i++) {
+            numbers[i] = (int) (pairs[i] >>> 32);
+            indexes[i] = (int) pairs[i];
+            if (i > 0 && numbers[i] == numbers[i - 1]) {
+                throw new BasicRuntimeException("Duplicate line " + numbers[i]);
+            }
+        }
+        return new LineTable(0, null, numbers, indexes);
+    }
+
+    // Method to get the index of the statement with the given line number, or -1 if there is none
+    int indexOf(int lineNumber) {
+        if (dense != null) {
+            int offset = lineNumber - first;
+            return offset >= 0 && offset < dense.length ? dense[offset] : -1;
+        }
+        int found = Arrays.binarySearch(numbers, lineNumber);
+        return found >= 0 ? indexes[found] : -1;
+    }
+
+    private static String at(StatementNode statement) {
+        return statement.getLineNumber() >= 0 ? " in line " + statement.getLineNumber() : "";
+    }
+}
@@ -0,0 +1,96 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+public class InterpreterTest {
+
+    // Helper method that parses and runs a program, returning everything it printed
+    private String run(String source, String input) throws LexerException {
+        Lexer lexer = new Lexer();
+        Parser parser = new Parser(lexer.lexString(source));
+        Interpreter interpreter = new Interpreter(parser.parse());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        interpreter.run(interpreter.newContext(new ByteArrayInputStream(input.getBytes()), new PrintStream(out)));
+        return out.toString().replace("\r\n", "\n");
+    }
+
+    @Test
+    public void testAssignmentAndPrint() throws LexerException {
+        assertEquals("17\n", run("x = 10\ny = x + 7\nprint y", ""));
+    }
+
+    @Test
+    public void testLoadsDoNotShareResolvedNodes() throws LexerException {
+        StatementsNode program = new Parser(new Lexer().lexString("a = 1\nfor i = 1 to 2\nprint i\nnext i")).parse();
+        Interpreter original = new Interpreter(program);
+        // Dead-store elimination drops a, so the optimized program numbers its slots and statements
+        // differently while still sharing nodes with the original
+        new Interpreter(new Optimizer().optimize(program));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        original.run(original.newContext(new ByteArrayInputStream(new byte[0]), new PrintStream(out)));
+        assertEquals("1\n2\n", out.toString().replace("\r\n", "\n"));
+    }
+
+    @Test
+    public void testIntegerAndFloatArithmetic() throws LexerException {
+        assertEquals("3 3.5 -4\n", run("print 7 / 2, 7.0 / 2, -(2 * 2)", ""));
+    }
+
+    @Test
+    public void testComparisonsAndModulo() throws LexerException {
+        assertEquals("1 0 1 1 0 1\n", run("x = 3\nprint x < 4, x > 4, x <= 3, x >= 3.0, x = 2, x <> 2", ""));
+        assertEquals("1 -1 1.5 1 0\n", run("print 7 % 3, -7 % 3, 7.5 % 2, \"a\" < \"b\", \"a\" = \"b\"", ""));
+        assertThrows(BasicRuntimeException.class, () -> run("x = 0\nprint 1 % x", ""));
+        assertThrows(BasicRuntimeException.class, () -> run("print \"a\" < 1", ""));
+    }
+
+    @Test
+    public void testStringConcatenation() throws LexerException {
+        assertEquals("x=5\n", run("x = 5\nprint \"x=\" + x", ""));
+    }
+
+    @Test
+    public void testReadData() throws LexerException {
+        assertEquals("1 two -3.5\n", run("DATA 1, \"two\", -3.5\nREAD a, b, c\nprint a, b, c", ""));
+    }
+
+    @Test
+    public void testInput() throws LexerException {
+        assertEquals("n? 7.5\n", run("INPUT \"n? \", a, b\nprint a + b", "3, 4.5\n"));
+    }
+
+    @Test
+    public void testDivisionByZero() {
+        assertThrows(BasicRuntimeException.class, () -> run("x = 1 / 0", ""));
+    }
+
+    @Test
+    public void testGotoAndGosub() throws LexerException {
+        assertEquals("1\nsub\n3\n", run("10 print 1\n20 gosub 100\n30 goto 50\n40 print 2\n50 print 3\n60 end\n100 print \"sub\"\n110 return", ""));
+    }
+
+    @Test
+    public void testForNext() throws LexerException {
+        assertEquals("10 -3 5\n", run("t = 0\nfor i = 1 to 4\nt = t + i\nnext i\nfor j = 1 to -1 step -1\nnext\nfor k = 5 to 1\nprint \"never\"\nnext k\nprint t, j - 1, k", ""));
+    }
+
+    @Test
+    public void testWhileWend() throws LexerException {
+        assertEquals("4 16 0.5\n", run("i = 1\nwhile i < 10\ni = i * 2\nj = 0\nwhile j - 3\nj = j + 1\nwend\nwend\n"
+                + "f = 3\nwhile f\nf = f - 1.5\nwend\nwhile 0\nprint \"never\"\nwend\nprint j + 1, i, f + 0.5", ""));
+    }
+
+    @Test
+    public void testControlFlowErrors() {
+        assertThrows(BasicRuntimeException.class, () -> run("10 goto 99", ""));
+        assertThrows(BasicRuntimeException.class, () -> run("return", ""));
+        assertThrows(BasicRuntimeException.class, () -> run("for i = 1 to 2\nnext j", ""));
+        assertThrows(BasicRuntimeException.class, () -> run("wend", ""));
+        assertThrows(BasicRuntimeException.class, () -> run("while 1", ""));
+        assertThrows(BasicRuntimeException.class, () -> run("s = \"a\"\nwhile s\nwend", ""));
+    }
+}
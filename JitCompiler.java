@@ -0,0 +1,815 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+// Translates a program into JVM bytecode and loads it as a hidden class, so HotSpot compiles
+// BASIC arithmetic like any other Java method.
+// Programs are straight-line apart from FOR/NEXT and WHILE/WEND loops, and every variable must have
+// the same kind at the end of a loop body as on entry, so the kind of every variable is known at
+// every statement: each variable gets an int and a float JVM local and the compiler tracks which one
+// currently holds it. Loops become plain JVM branches with the test at the bottom, so the counter,
+// bound and step live in locals and HotSpot sees an ordinary counted loop.
+// Anything whose kind cannot be tracked statically (strings in expressions, READ, INPUT, jumps) makes
+// compile() return null so the caller can fall back to the Interpreter.
+public class JitCompiler {
+    private static final String CONTEXT = "ExecutionContext";
+    private static final MathOpNode.Operation[] OPERATIONS = MathOpNode.Operation.values();
+    private static int classCounter = 0;
+
+    private SlotTable slots;
+    private byte[] kinds;
+    private ClassFileBuilder classFile;
+    private MethodCode code;
+    private boolean profiled;
+    private List<Loop> loops; // loops whose NEXT or WEND has not been reached yet, innermost last
+    private boolean[] loopSlots; // the hidden limit and step slots of FOR loops
+
+    // Method to compile a program, or return null when it uses something the JIT does not support
+    public JitProgram compile(StatementsNode program) {
+        return compile(program, false);
+    }
+
+    // Method to compile a program that, when profiled is set, reports each statement to the context's Profiler
+    public JitProgram compile(StatementsNode program, boolean profiled) {
+        this.profiled = profiled;
+        slots = SlotTable.resolve(program);
+        kinds = new byte[slots.size()];
+        loops = new ArrayList<>();
+        try {
+            byte[] bytes = generate(program);
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            JitCode jitCode = (JitCode) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+            return new JitProgram(jitCode, slots.size());
+        } catch (Unsupported e) {
+            return null;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Failed to load compiled program", e);
+        }
+    }
+
+    private byte[] generate(StatementsNode program) {
+        classFile = new ClassFileBuilder("BasicJitProgram" + nextClassNumber(), "JitCode");
+
+        MethodCode init = new MethodCode(classFile, 1);
+        init.op(0x2a, 1); // aload_0
+        init.invoke(0xb7, "java/lang/Object", "<init>", "()V", -1);
+        init.op(0xb1, 0); // return
+        classFile.addMethod(0x0001, "<init>", "()V", init);
+
+        // Locals: 0 = this, 1 = context, then an int and a float local per variable slot
+        if (floatLocal(slots.size() - 1) > 65534) {
+            throw new Unsupported(); // more locals than max_locals can count
+        }
+        code = new MethodCode(classFile, 2 + 2 * slots.size());
+        for (int slot = 0; slot < slots.size(); slot++) {
+            code.op(0x03, 1); // iconst_0
+            code.local(0x36, intLocal(slot), -1); // istore
+            code.op(0x0b, 1); // fconst_0
+            code.local(0x38, floatLocal(slot), -1); // fstore
+        }
+
+        List<StatementNode> statements = program.getStatements();
+        loopSlots = new boolean[slots.size()];
+        for (StatementNode statement : statements) {
+            if (statement instanceof ForNode) {
+                loopSlots[((ForNode) statement).getLimitSlot()] = true;
+                loopSlots[((ForNode) statement).getStepSlot()] = true;
+            }
+        }
+        for (int i = 0; i < statements.size(); i++) {
+            StatementNode statement = statements.get(i);
+            // A WHILE is reported from its test, which is compiled at the bottom of the loop
+            if (profiled && !(statement instanceof WhileNode)) {
+                enterStatement(i);
+            }
+            compileStatement(statement, i);
+        }
+        if (!loops.isEmpty()) {
+            throw new Unsupported();
+        }
+
+        // Write the final values back so the context reflects the run, as with the other backends
+        for (int slot = 0; slot < slots.size(); slot++) {
+            if (loopSlots[slot]) {
+                continue; // only ever read by their own loop
+            }
+            code.op(0x2b, 1); // aload_1
+            code.pushInt(slot);
+            if (kinds[slot] == ExecutionContext.INT) {
+                code.local(0x15, intLocal(slot), 1); // iload
+                code.invoke(0xb6, CONTEXT, "storeInt", "(II)V", -3);
+            } else {
+                code.local(0x17, floatLocal(slot), 1); // fload
+                code.invoke(0xb6, CONTEXT, "storeFloat", "(IF)V", -3);
+            }
+        }
+        code.op(0xb1, 0); // return
+        if (code.length() > (code.hasBranches() ? 32767 : 65535) || classFile.constantCount() > 65535) {
+            throw new Unsupported(); // too big for one JVM method
+        }
+        classFile.addMethod(0x0001, "run", "(L" + CONTEXT + ";)V", code);
+        return classFile.toByteArray();
+    }
+
+    private static synchronized int nextClassNumber() {
+        return classCounter++;
+    }
+
+    private static int intLocal(int slot) {
+        return 2 + 2 * slot;
+    }
+
+    private static int floatLocal(int slot) {
+        return 3 + 2 * slot;
+    }
+
+    private void enterStatement(int index) {
+        code.op(0x2b, 1); // aload_1
+        code.pushInt(index);
+        code.invoke(0xb6, CONTEXT, "enterStatement", "(I)V", -2);
+    }
+
+    private void compileStatement(StatementNode statement, int index) {
+        if (statement instanceof AssignmentNode) {
+            AssignmentNode assignment = (AssignmentNode) statement;
+            store(assignment.getVariable().getSlot(), compileExpression(assignment.getValue()));
+        } else if (statement instanceof ForNode) {
+            ForNode loop = (ForNode) statement;
+            store(loop.getVariable().getSlot(), compileExpression(loop.getStart()));
+            store(loop.getLimitSlot(), compileExpression(loop.getLimit()));
+            if (loop.getStep() != null) {
+                store(loop.getStepSlot(), compileExpression(loop.getStep()));
+            } else {
+                code.pushInt(1);
+                store(loop.getStepSlot(), ExecutionContext.INT);
+            }
+            // The loop is rotated: tested once here, then again after every NEXT
+            Loop open = new Loop(statement, index, kinds.clone());
+            compileLoopTest(loop, true, -1, open.exits);
+            open.body = code.length();
+            loops.add(open);
+        } else if (statement instanceof NextNode) {
+            Loop open = closeLoop(true);
+            ForNode loop = (ForNode) open.head;
+            int variable = loop.getVariable().getSlot();
+            VariableNode named = ((NextNode) statement).getVariable(); // null for a bare NEXT
+            if (named != null && named.getSlot() != variable) {
+                throw new Unsupported();
+            }
+            byte kind = kinds[variable] == ExecutionContext.INT && kinds[loop.getStepSlot()] == ExecutionContext.INT
+                    ? ExecutionContext.INT : ExecutionContext.FLOAT;
+            load(variable, kind);
+            load(loop.getStepSlot(), kind);
+            code.op(kind == ExecutionContext.INT ? 0x60 : 0x62, -1); // iadd / fadd
+            store(variable, kind);
+            checkLoopKinds(open);
+            compileLoopTest(loop, false, open.body, null);
+            for (int exit : open.exits) {
+                code.patch(exit);
+            }
+        } else if (statement instanceof WhileNode) {
+            Loop open = new Loop(statement, index, kinds.clone());
+            open.exits.add(code.branch(0xa7, 0)); // goto the test
+            open.body = code.length();
+            loops.add(open);
+        } else if (statement instanceof WendNode) {
+            Loop open = closeLoop(false);
+            checkLoopKinds(open);
+            code.patch(open.exits.get(0));
+            if (profiled) {
+                enterStatement(open.index);
+            }
+            compileCondition(((WhileNode) open.head).getCondition(), open.body);
+        } else if (statement instanceof PrintNode) {
+            List<Node> items = ((PrintNode) statement).getNodes();
+            for (int i = 0; i < items.size(); i++) {
+                if (i > 0) {
+                    code.op(0x2b, 1); // aload_1
+                    code.invoke(0xb6, CONTEXT, "printSeparator", "()V", -1);
+                }
+                Node item = items.get(i);
+                code.op(0x2b, 1); // aload_1
+                if (item instanceof StringNode) {
+                    String value = ((StringNode) item).getValue();
+                    if (ClassFileBuilder.utf8Length(value) > 65535) {
+                        throw new Unsupported(); // too long for a constant pool entry
+                    }
+                    code.ldc(classFile.string(value));
+                    code.invoke(0xb6, CONTEXT, "printString", "(Ljava/lang/String;)V", -2);
+                } else if (compileExpression(item) == ExecutionContext.INT) {
+                    code.invoke(0xb6, CONTEXT, "printInt", "(I)V", -2);
+                } else {
+                    code.invoke(0xb6, CONTEXT, "printFloat", "(F)V", -2);
+                }
+            }
+            code.op(0x2b, 1); // aload_1
+            code.invoke(0xb6, CONTEXT, "printEnd", "()V", -1);
+        } else if (!(statement instanceof DataNode)) {
+            // DATA is inert without READ; everything else needs the interpreter
+            throw new Unsupported();
+        }
+    }
+
+    // Pops a value of the given kind off the operand stack into a variable's local
+    private void store(int slot, byte kind) {
+        if (kind == ExecutionContext.INT) {
+            code.local(0x36, intLocal(slot), -1); // istore
+        } else {
+            code.local(0x38, floatLocal(slot), -1); // fstore
+        }
+        kinds[slot] = kind;
+    }
+
+    // Pushes a variable's value, widened to float when kind asks for it
+    private void load(int slot, byte kind) {
+        if (kinds[slot] == ExecutionContext.INT) {
+            code.local(0x15, intLocal(slot), 1); // iload
+            if (kind == ExecutionContext.FLOAT) {
+                code.op(0x86, 0); // i2f
+            }
+        } else {
+            code.local(0x17, floatLocal(slot), 1); // fload
+        }
+    }
+
+    // Removes the innermost open loop, which has to be a FOR for NEXT or a WHILE for WEND
+    private Loop closeLoop(boolean isFor) {
+        if (loops.isEmpty() || loops.get(loops.size() - 1).head instanceof ForNode != isFor) {
+            throw new Unsupported();
+        }
+        return loops.remove(loops.size() - 1);
+    }
+
+    // The body was compiled for the kinds on entry, so the next pass must start with the same ones.
+    // Limit and step slots are exempt: a nested FOR always sets its own before its NEXT reads them.
+    private void checkLoopKinds(Loop open) {
+        for (int slot = 0; slot < kinds.length; slot++) {
+            if (kinds[slot] != open.kinds[slot] && !loopSlots[slot]) {
+                throw new Unsupported();
+            }
+        }
+    }
+
+    // Emits a FOR test that branches to target when the loop has finished, or when it has not if
+    // whenFinished is false. With no target yet the branches are added to exits for patching.
+    private void compileLoopTest(ForNode loop, boolean whenFinished, int target, List<Integer> exits) {
+        int variable = loop.getVariable().getSlot();
+        int limit = loop.getLimitSlot();
+        int step = loop.getStepSlot();
+        byte kind = kinds[variable] == ExecutionContext.INT && kinds[limit] == ExecutionContext.INT
+                && kinds[step] == ExecutionContext.INT ? ExecutionContext.INT : ExecutionContext.FLOAT;
+        Node stepValue = loop.getStep();
+        if (stepValue == null || stepValue instanceof IntegerNode || stepValue instanceof FloatNode) {
+            // The direction is known, so one compare does
+            boolean ascending = stepValue == null || (stepValue instanceof IntegerNode
+                    ? ((IntegerNode) stepValue).getValue() >= 0 : ((FloatNode) stepValue).getValue() >= 0);
+            compileBoundTest(variable, limit, kind, ascending, whenFinished, target, exits);
+            return;
+        }
+        load(step, kinds[step]);
+        if (kinds[step] == ExecutionContext.FLOAT) {
+            code.op(0x0b, 1); // fconst_0
+            code.op(0x95, -1); // fcmpl: a NaN step counts down, as step >= 0 is false
+        }
+        int descending = code.branch(0x9b, -1); // iflt
+        compileBoundTest(variable, limit, kind, true, whenFinished, target, exits);
+        int done = code.branch(0xa7, 0); // goto
+        code.patch(descending);
+        compileBoundTest(variable, limit, kind, false, whenFinished, target, exits);
+        code.patch(done);
+    }
+
+    // The loop has finished once the variable is past the limit: above it counting up, below it counting down
+    private void compileBoundTest(int variable, int limit, byte kind, boolean ascending, boolean whenFinished,
+                                  int target, List<Integer> exits) {
+        load(variable, kind);
+        load(limit, kind);
+        if (kind == ExecutionContext.INT) {
+            int opcode = ascending ? (whenFinished ? 0xa3 : 0xa4) : (whenFinished ? 0xa1 : 0xa2); // if_icmpgt/le/lt/ge
+            branch(opcode, -2, target, exits);
+        } else {
+            // fcmpl and fcmpg give -1 and 1 for NaN, so a NaN never counts as past the limit
+            code.op(ascending ? 0x95 : 0x96, -1);
+            int opcode = ascending ? (whenFinished ? 0x9d : 0x9e) : (whenFinished ? 0x9b : 0x9c); // ifgt/le/lt/ge
+            branch(opcode, -1, target, exits);
+        }
+    }
+
+    private void branch(int opcode, int stackDelta, int target, List<Integer> exits) {
+        if (target >= 0) {
+            code.branchTo(opcode, target, stackDelta);
+        } else {
+            exits.add(code.branch(opcode, stackDelta));
+        }
+    }
+
+    // Emits a WHILE condition that branches back to target while it holds. A comparison becomes a
+    // single compare and branch instead of computing 1 or 0 first.
+    private void compileCondition(Node condition, int target) {
+        if (condition instanceof MathOpNode && ((MathOpNode) condition).getOperation().isComparison()) {
+            MathOpNode op = (MathOpNode) condition;
+            byte kind = operandKind(op);
+            compileOperand(op.getLeft(), kind);
+            compileOperand(op.getRight(), kind);
+            int branch; // if<cond>, the if_icmp<cond> forms are 6 further on
+            switch (op.getOperation()) {
+                case EQUAL:
+                    branch = 0x99;
+                    break;
+                case NOT_EQUAL:
+                    branch = 0x9a;
+                    break;
+                case LESS:
+                    branch = 0x9b;
+                    break;
+                case GREATER_EQUAL:
+                    branch = 0x9c;
+                    break;
+                case GREATER:
+                    branch = 0x9d;
+                    break;
+                default:
+                    branch = 0x9e;
+                    break;
+            }
+            if (kind == ExecutionContext.INT) {
+                code.branchTo(branch + 6, target, -2);
+            } else {
+                // Pick the compare whose NaN result fails the test, as NaN is neither less nor greater
+                boolean less = op.getOperation() == MathOpNode.Operation.LESS || op.getOperation() == MathOpNode.Operation.LESS_EQUAL;
+                code.op(less ? 0x96 : 0x95, -1); // fcmpg / fcmpl
+                code.branchTo(branch, target, -1);
+            }
+        } else if (compileExpression(condition) == ExecutionContext.INT) {
+            code.branchTo(0x9a, target, -1); // ifne
+        } else {
+            code.op(0x0b, 1); // fconst_0
+            code.op(0x95, -1); // fcmpl
+            code.branchTo(0x9a, target, -1); // ifne
+        }
+    }
+
+    // Emits code leaving the expression's value on the operand stack and returns its kind
+    private byte compileExpression(Node node) {
+        if (node instanceof VariableNode) {
+            int slot = ((VariableNode) node).getSlot();
+            load(slot, kinds[slot]);
+            return kinds[slot];
+        } else if (node instanceof IntegerNode) {
+            code.pushInt(((IntegerNode) node).getValue());
+            return ExecutionContext.INT;
+        } else if (node instanceof FloatNode) {
+            code.pushFloat(((FloatNode) node).getValue());
+            return ExecutionContext.FLOAT;
+        } else if (node instanceof MathOpNode) {
+            MathOpNode op = (MathOpNode) node;
+            if (op.getOperation().isComparison()) {
+                byte kind = operandKind(op);
+                compileOperand(op.getLeft(), kind);
+                compileOperand(op.getRight(), kind);
+                code.pushInt(op.getOperation().ordinal());
+                code.invoke(0xb8, "JitCompiler", "compare", kind == ExecutionContext.INT ? "(III)I" : "(FFI)I", -2);
+                return ExecutionContext.INT;
+            }
+            byte kind = kindOf(op);
+            compileOperand(op.getLeft(), kind);
+            compileOperand(op.getRight(), kind);
+            boolean isInt = kind == ExecutionContext.INT;
+            switch (op.getOperation()) {
+                case ADD:
+                    code.op(isInt ? 0x60 : 0x62, -1); // iadd / fadd
+                    break;
+                case SUBTRACT:
+                    code.op(isInt ? 0x64 : 0x66, -1); // isub / fsub
+                    break;
+                case MULTIPLY:
+                    code.op(isInt ? 0x68 : 0x6a, -1); // imul / fmul
+                    break;
+                case MODULO:
+                    code.invoke(0xb8, "JitCompiler", "remainder", isInt ? "(II)I" : "(FF)F", -1);
+                    break;
+                default:
+                    code.invoke(0xb8, "JitCompiler", "divide", isInt ? "(II)I" : "(FF)F", -1);
+                    break;
+            }
+            return kind;
+        } else if (node instanceof NegateNode) {
+            Node operand = ((NegateNode) node).getOperand();
+            if (kindOf(operand) == ExecutionContext.INT) {
+                compileExpression(operand);
+                code.op(0x74, 0); // ineg
+                return ExecutionContext.INT;
+            }
+            // 0 - x rather than fneg, so the result is never -0.0
+            code.pushFloat(0f);
+            compileExpression(operand);
+            code.op(0x66, -1); // fsub
+            return ExecutionContext.FLOAT;
+        }
+        throw new Unsupported();
+    }
+
+    // Emits an operand, widening it to float when the operation is done in float
+    private void compileOperand(Node node, byte kind) {
+        byte operandKind = compileExpression(node);
+        if (operandKind == ExecutionContext.INT && kind == ExecutionContext.FLOAT) {
+            code.op(0x86, 0); // i2f
+        }
+    }
+
+    // Works out the static kind of an expression from the kinds variables have at this point
+    private byte kindOf(Node node) {
+        if (node instanceof VariableNode) {
+            return kinds[((VariableNode) node).getSlot()];
+        } else if (node instanceof IntegerNode) {
+            return ExecutionContext.INT;
+        } else if (node instanceof FloatNode) {
+            return ExecutionContext.FLOAT;
+        } else if (node instanceof MathOpNode) {
+            MathOpNode op = (MathOpNode) node;
+            return op.getOperation().isComparison() ? ExecutionContext.INT : operandKind(op);
+        } else if (node instanceof NegateNode) {
+            return kindOf(((NegateNode) node).getOperand());
+        }
+        throw new Unsupported();
+    }
+
+    // Works out whether an operation is done in int or float: int only when both operands are ints
+    private byte operandKind(MathOpNode op) {
+        byte left = kindOf(op.getLeft());
+        byte right = kindOf(op.getRight());
+        return left == ExecutionContext.INT && right == ExecutionContext.INT ? ExecutionContext.INT : ExecutionContext.FLOAT;
+    }
+
+    // Division helpers called from compiled code so errors match the other backends
+    static int divide(int left, int right) {
+        if (right == 0) {
+            throw new BasicRuntimeException("Division by zero");
+        }
+        return left / right;
+    }
+
+    static float divide(float left, float right) {
+        if (right == 0) {
+            throw new BasicRuntimeException("Division by zero");
+        }
+        return left / right;
+    }
+
+    static int remainder(int left, int right) {
+        if (right == 0) {
+            throw new BasicRuntimeException("Division by zero");
+        }
+        return left % right;
+    }
+
+    static float remainder(float left, float right) {
+        if (right == 0) {
+            throw new BasicRuntimeException("Division by zero");
+        }
+        return left % right;
+    }
+
+    // Comparison helpers; the operation's ordinal is a constant at each call site, so HotSpot folds the switch
+    static int compare(int left, int right, int operation) {
+        return ExecutionContext.compare(OPERATIONS[operation], left, right);
+    }
+
+    static int compare(float left, float right, int operation) {
+        return ExecutionContext.compare(OPERATIONS[operation], left, right);
+    }
+
+    // A FOR or WHILE whose NEXT or WEND is still to come
+    private static class Loop {
+        final StatementNode head;
+        final int index;
+        final byte[] kinds; // variable kinds as the body starts
+        final List<Integer> exits = new ArrayList<>(); // forward branches to patch when the loop is closed
+        int body;
+
+        Loop(StatementNode head, int index, byte[] kinds) {
+            this.head = head;
+            this.index = index;
+            this.kinds = kinds;
+        }
+    }
+
+    // Thrown while generating code when the program needs a feature the JIT does not handle
+    private static class Unsupported extends RuntimeException {
+        Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+}
+
+// Entry point implemented by every generated class
+interface JitCode {
+    void run(ExecutionContext context);
+}
+
+// Minimal class file writer: a constant pool, one interface and a list of methods.
+// Classes are written as version 49 so the verifier infers stack frames itself and no
+// StackMapTable has to be produced.
+class ClassFileBuilder {
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream poolOut = new DataOutputStream(pool);
+    private final HashMap<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+    private final ByteArrayOutputStream methods = new ByteArrayOutputStream();
+    private final DataOutputStream methodsOut = new DataOutputStream(methods);
+    private int methodCount = 0;
+    private final int thisClass;
+    private final int superClass;
+    private final int interfaceClass;
+
+    ClassFileBuilder(String name, String interfaceName) {
+        thisClass = classRef(name);
+        superClass = classRef("java/lang/Object");
+        interfaceClass = classRef(interfaceName);
+    }
+
+    // Method to get the length of value in the class file's modified UTF-8, which writeUTF limits to 65535
+    static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            length += ch != 0 && ch < 0x80 ? 1 : ch < 0x800 ? 2 : 3;
+        }
+        return length;
+    }
+
+    int utf8(String value) {
+        return constant("U" + value, out -> {
+            out.writeByte(1);
+            out.writeUTF(value);
+        });
+    }
+
+    int classRef(String name) {
+        int nameIndex = utf8(name);
+        return constant("C" + name, out -> {
+            out.writeByte(7);
+            out.writeShort(nameIndex);
+        });
+    }
+
+    int string(String value) {
+        int valueIndex = utf8(value);
+        return constant("S" + value, out -> {
+            out.writeByte(8);
+            out.writeShort(valueIndex);
+        });
+    }
+
+    int integer(int value) {
+        return constant("I" + value, out -> {
+            out.writeByte(3);
+            out.writeInt(value);
+        });
+    }
+
+    int floating(float value) {
+        return constant("F" + Float.floatToRawIntBits(value), out -> {
+            out.writeByte(4);
+            out.writeFloat(value);
+        });
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        int nameAndType = constant("N" + name + descriptor, out -> {
+            out.writeByte(12);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+        });
+        return constant("M" + owner + "." + name + descriptor, out -> {
+            out.writeByte(10);
+            out.writeShort(ownerIndex);
+            out.writeShort(nameAndType);
+        });
+    }
+
+    private interface Entry {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private int constant(String key, Entry entry) {
+        Integer index = poolIndex.get(key);
+        if (index != null) {
+            return index;
+        }
+        try {
+            entry.write(poolOut);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        poolIndex.put(key, poolCount);
+        return poolCount++;
+    }
+
+    void addMethod(int access, String name, String descriptor, MethodCode code) {
+        byte[] bytes = code.bytes();
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        int codeName = utf8("Code");
+        try {
+            methodsOut.writeShort(access);
+            methodsOut.writeShort(nameIndex);
+            methodsOut.writeShort(descriptorIndex);
+            methodsOut.writeShort(1); // attributes
+            methodsOut.writeShort(codeName);
+            methodsOut.writeInt(12 + bytes.length);
+            methodsOut.writeShort(code.maxStack());
+            methodsOut.writeShort(code.maxLocals());
+            methodsOut.writeInt(bytes.length);
+            methodsOut.write(bytes);
+            methodsOut.writeShort(0); // exception table
+            methodsOut.writeShort(0); // attributes
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        methodCount++;
+    }
+
+    int constantCount() {
+        return poolCount;
+    }
+
+    byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);  // minor version
+            out.writeShort(49); // major version
+            out.writeShort(poolCount);
+            pool.writeTo(out);
+            out.writeShort(0x0001 | 0x0010 | 0x0020); // public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(interfaceClass);
+            out.writeShort(0); // fields
+            out.writeShort(methodCount);
+            methods.writeTo(out);
+            out.writeShort(0); // attributes
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
+
+// Bytecode buffer for one method that keeps track of the operand stack depth as it is written
+class MethodCode {
+    private final ClassFileBuilder classFile;
+    private final int maxLocals;
+    private byte[] bytes = new byte[256];
+    private int size = 0;
+    private int stack = 0;
+    private int maxStack = 0;
+    private boolean branched = false;
+
+    MethodCode(ClassFileBuilder classFile, int maxLocals) {
+        this.classFile = classFile;
+        this.maxLocals = maxLocals;
+    }
+
+    // Writes a single-byte instruction that changes the stack depth by stackDelta
+    void op(int opcode, int stackDelta) {
+        u1(opcode);
+        adjust(stackDelta);
+    }
+
+    // Writes a load or store of a local, using the wide form when the index needs it
+    void local(int opcode, int index, int stackDelta) {
+        if (index > 255) {
+            u1(0xc4); // wide
+            u1(opcode);
+            u2(index);
+        } else {
+            u1(opcode);
+            u1(index);
+        }
+        adjust(stackDelta);
+    }
+
+    void invoke(int opcode, String owner, String name, String descriptor, int stackDelta) {
+        u1(opcode);
+        u2(classFile.methodRef(owner, name, descriptor));
+        adjust(stackDelta);
+    }
+
+    void pushInt(int value) {
+        if (value >= -1 && value <= 5) {
+            u1(0x03 + value); // iconst_<n>
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            u1(0x10); // bipush
+            u1(value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            u1(0x11); // sipush
+            u2(value);
+        } else {
+            ldcIndex(classFile.integer(value));
+            return;
+        }
+        adjust(1);
+    }
+
+    void pushFloat(float value) {
+        if (Float.floatToRawIntBits(value) == 0 || value == 1f || value == 2f) {
+            u1(0x0b + (int) value); // fconst_<n>
+            adjust(1);
+        } else {
+            ldcIndex(classFile.floating(value));
+        }
+    }
+
+    // Writes a forward branch and returns its position, for patch() once the target is reached
+    int branch(int opcode, int stackDelta) {
+        int at = size;
+        u1(opcode);
+        u2(0);
+        adjust(stackDelta);
+        branched = true;
+        return at;
+    }
+
+    // Points the branch written at position at to the end of the code so far
+    void patch(int at) {
+        int offset = size - at;
+        bytes[at + 1] = (byte) (offset >> 8);
+        bytes[at + 2] = (byte) offset;
+    }
+
+    // Writes a branch back to an earlier position
+    void branchTo(int opcode, int target, int stackDelta) {
+        int offset = target - size;
+        u1(opcode);
+        u2(offset);
+        adjust(stackDelta);
+        branched = true;
+    }
+
+    // Branch offsets are 16 bit signed, so methods with branches must stay within 32767 bytes
+    boolean hasBranches() {
+        return branched;
+    }
+
+    // Pushes a constant pool entry such as a string
+    void ldc(int index) {
+        ldcIndex(index);
+    }
+
+    private void ldcIndex(int index) {
+        if (index > 255) {
+            u1(0x13); // ldc_w
+            u2(index);
+        } else {
+            u1(0x12); // ldc
+            u1(index);
+        }
+        adjust(1);
+    }
+
+    private void adjust(int stackDelta) {
+        stack += stackDelta;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    private void u1(int value) {
+        if (size == bytes.length) {
+            bytes = Arrays.copyOf(bytes, bytes.length * 2);
+        }
+        bytes[size++] = (byte) value;
+    }
+
+    private void u2(int value) {
+        u1(value >> 8);
+        u1(value);
+    }
+
+    byte[] bytes() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+    int length() {
+        return size;
+    }
+
+    int maxStack() {
+        return maxStack;
+    }
+
+    int maxLocals() {
+        return maxLocals;
+    }
+}
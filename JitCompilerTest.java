@@ -0,0 +1,71 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+public class JitCompilerTest {
+
+    private StatementsNode parse(String source) throws LexerException {
+        return new Parser(new Lexer().lexString(source)).parse();
+    }
+
+    @Test
+    public void testCompiledArithmetic() throws LexerException {
+        JitProgram program = new JitCompiler().compile(parse("x = 7\ny = x * 3 + 2.5\nx = x / 2\nprint \"r\", x, y"));
+        assertNotNull(program);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        program.run(program.newContext(new ByteArrayInputStream(new byte[0]), new PrintStream(out)));
+        assertEquals("r 3 23.5\n", out.toString().replace("\r\n", "\n"));
+    }
+
+    @Test
+    public void testCompiledLoops() throws LexerException {
+        JitProgram program = new JitCompiler().compile(parse("s = 0.0\nf = 0.0\nfor i = 1 to 10\nfor f = 1.0 to 0 step -0.25\ns = s + f\nnext f\nnext i\n"
+                + "n = 0\nwhile n * n < 50\nn = n + 1\nwend\nfor d = 3 to 1 step n - 9\nnext d\nprint s, n, i, d"));
+        assertNotNull(program);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        program.run(program.newContext(new ByteArrayInputStream(new byte[0]), new PrintStream(out)));
+        assertEquals("25.0 8 11 0\n", out.toString().replace("\r\n", "\n"));
+    }
+
+    @Test
+    public void testBareNext() throws LexerException {
+        JitProgram program = new JitCompiler().compile(parse("for i = 1 to 3\nprint i\nnext"));
+        assertNotNull(program);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        program.run(program.newContext(new ByteArrayInputStream(new byte[0]), new PrintStream(out)));
+        assertEquals("1\n2\n3\n", out.toString().replace("\r\n", "\n"));
+    }
+
+    @Test
+    public void testUnsupportedProgramFallsBack() throws LexerException {
+        assertNull(new JitCompiler().compile(parse("s = \"a\" + 1\nprint s")));
+        assertNull(new JitCompiler().compile(parse("READ x\nDATA 1")));
+        // x starts as an int and comes back from the body as a float
+        assertNull(new JitCompiler().compile(parse("x = 1\nwhile x < 5\nx = x * 1.5\nwend")));
+    }
+
+    @Test
+    public void testClassFileLimitsFallBack() throws LexerException {
+        // 22000 three-byte characters are 66000 bytes of modified UTF-8, more than a constant can hold
+        char[] euros = new char[22000];
+        Arrays.fill(euros, '\u20ac');
+        assertNull(new JitCompiler().compile(parse("print \"" + new String(euros) + "\"")));
+        char[] letters = new char[70000];
+        Arrays.fill(letters, 'a');
+        assertNull(new JitCompiler().compile(parse("print \"" + new String(letters) + "\"")));
+        assertEquals(65535, ClassFileBuilder.utf8Length(new String(letters, 0, 65535)));
+
+        StringBuilder variables = new StringBuilder();
+        for (int i = 0; i < 33000; i++) {
+            variables.append('v').append(i).append(" = ").append(i).append('\n');
+        }
+        assertNull(new JitCompiler().compile(parse(variables.toString())));
+        assertEquals("interp", new BasicEngine().compile("print \"" + new String(letters) + "\"").getBackend());
+    }
+}
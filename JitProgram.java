@@ -0,0 +1,39 @@
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.Collections;
+
+// A program compiled to a hidden JVM class by JitCompiler.
+// The generated code keeps variables in JVM locals and only touches the context to print and
+// to store the final variable values, so the context needs no DATA.
+public class JitProgram {
+    private final JitCode code;
+    private final int slotCount;
+
+    JitProgram(JitCode code, int slotCount) {
+        this.code = code;
+        this.slotCount = slotCount;
+    }
+
+    // Method to create fresh variable state for one run of the program
+    public ExecutionContext newContext(InputStream input, PrintStream output) {
+        return new ExecutionContext(slotCount, Collections.emptyList(), input, output);
+    }
+
+    public ExecutionContext newContext(InputStream input, OutputSink output) {
+        return new ExecutionContext(slotCount, Collections.emptyList(), input, output);
+    }
+
+    // Method to run the program against the console
+    public void run() {
+        run(newContext(System.in, System.out));
+    }
+
+    // Method to run the program against the given context
+    public void run(ExecutionContext context) {
+        try {
+            code.run(context);
+        } finally {
+            context.flush();
+        }
+    }
+}
@@ -1,90 +1,275 @@
-import java.util.HashMap;
+import java.util.EnumSet;
 import java.util.LinkedList;
 import java.io.IOException;
 
 public class Lexer {
-    private HashMap<String, Token.TokenType> knownWords;
-    private HashMap<String, Token.TokenType> twoCharSymbols;
-    private HashMap<String, Token.TokenType> oneCharSymbols;
     private int lineNumber = 1;
     private int charPosition = 1;
 
-    // Constructor to initialize known words and symbols
+    // Position and source range of the lexeme most recently found by scan()
+    private int tokenLine;
+    private int tokenColumn;
+    private int tokenStart;
+    private int tokenEnd;
+    private int tokenSymbol; // SymbolTable id of a word or string literal, otherwise -1
+
+    // Token types produced by the keyword table; these tokens never carry a value
+    private static final EnumSet<Token.TokenType> KEYWORD_TYPES = EnumSet.range(Token.TokenType.PRINT, Token.TokenType.END);
+
+    // Character classes for the ASCII range; anything above 127 is classified with Character methods
+    private static final byte OTHER = 0;
+    private static final byte WHITESPACE = 1;
+    private static final byte DIGIT = 2;
+    private static final byte LETTER = 3; // letters and '_'
+    private static final byte QUOTE = 4;
+    private static final byte SYMBOL = 5;
+    private static final byte[] CHAR_CLASSES = new byte[128];
+
+    // One-character symbols and their source text, indexed by character
+    private static final Token.TokenType[] SYMBOL_TYPES = new Token.TokenType[128];
+    private static final String[] SYMBOL_TEXT = new String[128];
+
+    // Keywords live in an open table indexed by a hash of the first and last character.
+    // The hash is collision free for these words, which is checked when the class loads.
+    private static final int KEYWORD_MASK = 31;
+    private static final String[] KEYWORD_WORDS = new String[KEYWORD_MASK + 1];
+    private static final Token.TokenType[] KEYWORD_TOKENS = new Token.TokenType[KEYWORD_MASK + 1];
+
+    static {
+        for (char ch = 0; ch < 128; ch++) {
+            if (Character.isWhitespace(ch)) {
+                CHAR_CLASSES[ch] = WHITESPACE;
+            } else if (Character.isDigit(ch)) {
+                CHAR_CLASSES[ch] = DIGIT;
+            } else if (Character.isLetter(ch) || ch == '_') {
+                CHAR_CLASSES[ch] = LETTER;
+            }
+        }
+        CHAR_CLASSES['"'] = QUOTE;
+
+        addSymbol('=', Token.TokenType.EQUALS);
+        addSymbol('<', Token.TokenType.LESSTHAN);
+        addSymbol('>', Token.TokenType.GREATERTHAN);
+        addSymbol('+', Token.TokenType.PLUS);
+        addSymbol('-', Token.TokenType.MINUS);
+        addSymbol('*', Token.TokenType.STAR);
+        addSymbol('/', Token.TokenType.SLASH);
+        addSymbol('(', Token.TokenType.LPAREN);
+        addSymbol(')', Token.TokenType.RPAREN);
+        addSymbol(';', Token.TokenType.RPAREN);
+        addSymbol('%', Token.TokenType.PERCENT);
+        addSymbol(',', Token.TokenType.COMMA);
+
+        // Add BASIC keywords
+        addKeyword("print", Token.TokenType.PRINT);
+        addKeyword("read", Token.TokenType.READ);
+        addKeyword("input", Token.TokenType.INPUT);
+        addKeyword("data", Token.TokenType.DATA);
+        addKeyword("gosub", Token.TokenType.GOSUB);
+        addKeyword("goto", Token.TokenType.GOTO);
+        addKeyword("for", Token.TokenType.FOR);
+        addKeyword("to", Token.TokenType.TO);
+        addKeyword("step", Token.TokenType.STEP);
+        addKeyword("next", Token.TokenType.NEXT);
+        addKeyword("return", Token.TokenType.RETURN);
+        addKeyword("if", Token.TokenType.IF);
+        addKeyword("then", Token.TokenType.THEN);
+        addKeyword("function", Token.TokenType.FUNCTION);
+        addKeyword("while", Token.TokenType.WHILE);
+        addKeyword("wend", Token.TokenType.WEND);
+        addKeyword("end", Token.TokenType.END);
+    }
+
+    private static void addSymbol(char ch, Token.TokenType type) {
+        CHAR_CLASSES[ch] = SYMBOL;
+        SYMBOL_TYPES[ch] = type;
+        SYMBOL_TEXT[ch] = String.valueOf(ch).intern();
+    }
+
+    private static void addKeyword(String word, Token.TokenType type) {
+        int slot = keywordHash(word.charAt(0), word.charAt(word.length() - 1));
+        if (KEYWORD_WORDS[slot] != null) {
+            throw new IllegalStateException("Keyword hash collision: " + word + " and " + KEYWORD_WORDS[slot]);
+        }
+        KEYWORD_WORDS[slot] = word;
+        KEYWORD_TOKENS[slot] = type;
+    }
+
+    // Hash over the lower-case first and last characters; the length is checked by the final comparison
+    private static int keywordHash(char first, char last) {
+        return (first + 2 * last) & KEYWORD_MASK;
+    }
+
+    private final SymbolTable symbols;
+
+    // Constructor for a lexer interning into the current SymbolTable; the character and keyword tables are shared
     public Lexer() {
-        initializeKnownWords();
-        initializeSymbols();
+        this(SymbolTable.current());
     }
 
-    private void initializeKnownWords() {
-        knownWords = new HashMap<>();
-        // Add BASIC keywords
-        knownWords.put("print", Token.TokenType.PRINT);
-        knownWords.put("read", Token.TokenType.READ);
-        knownWords.put("input", Token.TokenType.INPUT);
-        knownWords.put("data", Token.TokenType.DATA);
-        knownWords.put("gosub", Token.TokenType.GOSUB);
-        knownWords.put("for", Token.TokenType.FOR);
-        knownWords.put("to", Token.TokenType.TO);
-        knownWords.put("step", Token.TokenType.STEP);
-        knownWords.put("next", Token.TokenType.NEXT);
-        knownWords.put("return", Token.TokenType.RETURN);
-        knownWords.put("if", Token.TokenType.IF);
-        knownWords.put("then", Token.TokenType.THEN);
-        knownWords.put("function", Token.TokenType.FUNCTION);
-        knownWords.put("while", Token.TokenType.WHILE);
-        knownWords.put("end", Token.TokenType.END);
-        // Add other BASIC keywords as needed
-    }
-
-    private void initializeSymbols() {
-        twoCharSymbols = new HashMap<>();
-        // Two-character symbols
-        twoCharSymbols.put("<=", Token.TokenType.LEQ);
-        twoCharSymbols.put(">=", Token.TokenType.GEQ);
-        twoCharSymbols.put("<>", Token.TokenType.NOTEQUALS);
-        // Add other two-character symbols as needed
-
-        oneCharSymbols = new HashMap<>();
-        // One-character symbols
-        oneCharSymbols.put("=", Token.TokenType.EQUALS);
-        oneCharSymbols.put("<", Token.TokenType.LESSTHAN);
-        oneCharSymbols.put(">", Token.TokenType.GREATERTHAN);
-        oneCharSymbols.put("+", Token.TokenType.PLUS);
-        oneCharSymbols.put("-", Token.TokenType.MINUS);
-        oneCharSymbols.put("*", Token.TokenType.STAR);
-        oneCharSymbols.put("/", Token.TokenType.SLASH);
-        oneCharSymbols.put("(", Token.TokenType.LPAREN);
-        oneCharSymbols.put(")", Token.TokenType.RPAREN);
-        oneCharSymbols.put(";", Token.TokenType.RPAREN);
-        oneCharSymbols.put("%", Token.TokenType.RPAREN);
-        oneCharSymbols.put(",", Token.TokenType.COMMA);
-        
+    // Constructor for a lexer interning names and strings into the given table
+    public Lexer(SymbolTable symbols) {
+        this.symbols = symbols;
     }
 
     // The main lexer function that tokenizes the input code
     public LinkedList<Token> lex(String filename) throws IOException, LexerException {
+        return lex(new CodeHandler(filename));
+    }
+
+    // Tokenizes source text that is already in memory
+    public LinkedList<Token> lexString(String source) throws LexerException {
+        return lex(CodeHandler.fromString(source));
+    }
+
+    // Tokenizes everything left in the given CodeHandler, which may be file, string or memory-mapped backed
+    public LinkedList<Token> lex(CodeHandler codeHandler) throws LexerException {
         LinkedList<Token> tokens = new LinkedList<>();
-        CodeHandler codeHandler = new CodeHandler(filename);
+        reset();
+
+        Token token;
+        while ((token = nextToken(codeHandler)) != null) {
+            tokens.add(token);
+        }
 
+        return tokens;
+    }
+
+    // Pulls the next token out of the CodeHandler, or returns null once the document is exhausted
+    public Token nextToken(CodeHandler codeHandler) throws LexerException {
+        Token.TokenType type = scan(codeHandler);
+        if (type == null) {
+            return null;
+        }
+        return new Token(type, tokenLine, tokenColumn, valueOf(type, codeHandler, symbols, tokenStart, tokenEnd, tokenSymbol), tokenSymbol);
+    }
+
+    // Tokenizes the whole document into a packed TokenBuffer without creating Token objects
+    public TokenBuffer lexPacked(CodeHandler codeHandler) throws LexerException {
+        return lexPacked(codeHandler, 1);
+    }
+
+    // Tokenizes what is left of the CodeHandler, numbering lines from firstLine. The handler must be
+    // positioned at the start of a line, as the range views used by ParallelLexer are.
+    public TokenBuffer lexPacked(CodeHandler codeHandler, int firstLine) throws LexerException {
+        TokenBuffer buffer = new TokenBuffer(codeHandler, symbols, Math.max(16, (codeHandler.getLimit() - codeHandler.getIndex()) / 4));
+        reset();
+        lineNumber = firstLine;
+
+        Token.TokenType type;
+        while ((type = scan(codeHandler)) != null) {
+            buffer.add(type, tokenLine, tokenColumn, tokenStart, tokenEnd, tokenSymbol);
+        }
+
+        return buffer;
+    }
+
+    // Resets line and position tracking before a new document is lexed
+    public void reset() {
+        lineNumber = 1;
+        charPosition = 1;
+    }
+
+    // Method to get the line of the last lexeme started, which is where a LexerException was found
+    int getTokenLine() {
+        return tokenLine;
+    }
+
+    int getTokenColumn() {
+        return tokenColumn;
+    }
+
+    // Advances past the next lexeme and records where it was; returns its type, or null at the end
+    private Token.TokenType scan(CodeHandler codeHandler) throws LexerException {
         while (!codeHandler.isDone()) {
             char ch = codeHandler.peek(0);
+            byte charClass = classOf(ch);
 
-            if (Character.isWhitespace(ch)) {
+            if (charClass == WHITESPACE) {
                 handleWhitespace(codeHandler);
-            } else if (Character.isDigit(ch)) {
-                tokens.add(processNumber(codeHandler));
-            } else if (Character.isLetter(ch) || ch == '_') {
-                tokens.add(processWord(codeHandler));
-            } else if (ch == '"') {
-                tokens.add(processStringLiteral(codeHandler));
-            } else if (isSymbol(ch, codeHandler)) {
-                tokens.add(processSymbol(codeHandler));
-            } else {
-                throw new LexerException("Unrecognized character: " + ch);
+                continue;
             }
+
+            tokenLine = lineNumber;
+            tokenColumn = charPosition;
+            tokenStart = codeHandler.getIndex();
+            tokenSymbol = -1;
+
+            Token.TokenType type;
+            switch (charClass) {
+                case DIGIT:
+                    type = processNumber(codeHandler);
+                    break;
+                case LETTER:
+                    type = processWord(codeHandler);
+                    break;
+                case QUOTE:
+                    type = processStringLiteral(codeHandler);
+                    break;
+                case SYMBOL:
+                    type = processSymbol(ch, codeHandler);
+                    break;
+                default:
+                    throw new LexerException("Unrecognized character: " + ch);
+            }
+
+            tokenEnd = codeHandler.getIndex();
+            return type;
         }
 
-        return tokens;
+        return null;
+    }
+
+    // Looks up the class of a character, falling back to Character methods outside ASCII
+    private static byte classOf(char ch) {
+        if (ch < 128) {
+            return CHAR_CLASSES[ch];
+        } else if (Character.isWhitespace(ch)) {
+            return WHITESPACE;
+        } else if (Character.isDigit(ch)) {
+            return DIGIT;
+        } else if (Character.isLetter(ch)) {
+            return LETTER;
+        }
+        return OTHER;
+    }
+
+    // Recovers a token's value from its symbol or source range; keywords carry no value
+    static String valueOf(Token.TokenType type, CodeHandler codeHandler, SymbolTable symbols, int start, int end, int symbol) {
+        if (KEYWORD_TYPES.contains(type)) {
+            return null;
+        }
+        switch (type) {
+            case WORD:
+            case STRINGLITERAL:
+                return symbols.name(symbol);
+            case NUMBER:
+                return codeHandler.slice(start, end);
+            case LEQ:
+                return "<=";
+            case GEQ:
+                return ">=";
+            case NOTEQUALS:
+                return "<>";
+            default:
+                return SYMBOL_TEXT[codeHandler.charAt(start)];
+        }
+    }
+
+    // Drops the backslash in front of escaped quotes, matching processStringLiteral
+    private static String unescape(String raw) {
+        if (raw.indexOf('\\') < 0) {
+            return raw;
+        }
+        StringBuilder strLiteral = new StringBuilder(raw.length());
+        for (int i = 0; i < raw.length(); i++) {
+            char ch = raw.charAt(i);
+            if (ch == '\\' && i + 1 < raw.length() && raw.charAt(i + 1) == '"') {
+                continue;
+            }
+            strLiteral.append(ch);
+        }
+        return strLiteral.toString();
     }
 
     // Handles whitespace characters, updates line number and char position
@@ -98,79 +283,102 @@ public class Lexer {
         }
     }
 
-    // Processes a word and returns a Token
-    private Token processWord(CodeHandler codeHandler) {
-        StringBuilder word = new StringBuilder();
-        while (Character.isLetterOrDigit(codeHandler.peek(0)) || codeHandler.peek(0) == '_') {
-            word.append(codeHandler.getChar());
+    // Processes a word and returns its token type, matching keywords in place and interning other words
+    // straight from the source, so no string is built for a name already in the SymbolTable
+    private Token.TokenType processWord(CodeHandler codeHandler) {
+        int start = codeHandler.getIndex();
+        byte charClass;
+        while ((charClass = classOf(codeHandler.peek(0))) == LETTER || charClass == DIGIT) {
+            codeHandler.getChar();
             charPosition++;
         }
+        int end = codeHandler.getIndex();
 
-        String wordStr = word.toString().toLowerCase();
-        if (knownWords.containsKey(wordStr)) {
-            return new Token(knownWords.get(wordStr), lineNumber, charPosition - word.length());
-        } else {
-            return new Token(Token.TokenType.WORD, lineNumber, charPosition - word.length(), wordStr);
+        // Keywords are ASCII, so setting the 0x20 bit is enough to lower-case a candidate
+        int slot = keywordHash((char) (codeHandler.charAt(start) | 0x20), (char) (codeHandler.charAt(end - 1) | 0x20));
+        String keyword = KEYWORD_WORDS[slot];
+        if (keyword != null && keyword.length() == end - start) {
+            int i = 0;
+            while (i < keyword.length() && (codeHandler.charAt(start + i) | 0x20) == keyword.charAt(i)) {
+                i++;
+            }
+            if (i == keyword.length()) {
+                return KEYWORD_TOKENS[slot];
+            }
         }
+        tokenSymbol = codeHandler.intern(symbols, start, end, true);
+        return Token.TokenType.WORD;
     }
 
-    // Processes a number and returns a Token
-    private Token processNumber(CodeHandler codeHandler) {
-        StringBuilder number = new StringBuilder();
-        while (Character.isDigit(codeHandler.peek(0)) || codeHandler.peek(0) == '.') {
-            number.append(codeHandler.getChar());
+    // Processes a number and returns its token type
+    private Token.TokenType processNumber(CodeHandler codeHandler) {
+        char ch;
+        while (classOf(ch = codeHandler.peek(0)) == DIGIT || ch == '.') {
+            codeHandler.getChar();
             charPosition++;
         }
-        return new Token(Token.TokenType.NUMBER, lineNumber, charPosition - number.length(), number.toString());
+        return Token.TokenType.NUMBER;
     }
 
-    // Processes a string and returns a Token
-    private Token processStringLiteral(CodeHandler codeHandler) throws LexerException {
-        StringBuilder strLiteral = new StringBuilder();
+    // Processes a string and returns its token type
+    private Token.TokenType processStringLiteral(CodeHandler codeHandler) throws LexerException {
         codeHandler.getChar(); // Consume opening quote
         charPosition++;
+        int start = codeHandler.getIndex();
+        boolean escaped = false;
 
         while (codeHandler.peek(0) != '"' && !codeHandler.isDone()) {
             if (codeHandler.peek(0) == '\\' && codeHandler.peek(1) == '"') {
                 codeHandler.getChar(); // Skip escape character
                 charPosition++;
+                escaped = true;
             }
-            strLiteral.append(codeHandler.getChar());
+            codeHandler.getChar();
             charPosition++;
         }
 
-        if (codeHandler.peek(0) == '"') {
-            codeHandler.getChar(); // Consume closing quote
-            charPosition++;
-        } else {
+        if (codeHandler.peek(0) != '"') {
             throw new LexerException("Unmatched quote in string literal");
         }
+        int end = codeHandler.getIndex();
+        codeHandler.getChar(); // Consume closing quote
+        charPosition++;
 
-        return new Token(Token.TokenType.STRINGLITERAL, lineNumber, charPosition - strLiteral.length() - 2, strLiteral.toString());
-    }
+        tokenSymbol = escaped ? symbols.intern(unescape(codeHandler.slice(start, end)))
+                : codeHandler.intern(symbols, start, end, false);
 
-    // Checks if the character is a symbol
-    private boolean isSymbol(char ch, CodeHandler codeHandler) {
-        return oneCharSymbols.containsKey(String.valueOf(ch)) ||
-               twoCharSymbols.containsKey(String.valueOf(ch) + codeHandler.peek(1));
+        return Token.TokenType.STRINGLITERAL;
     }
 
-    // Processes a symbol and returns a Token
-    private Token processSymbol(CodeHandler codeHandler) {
-        char firstChar = codeHandler.getChar();
-        String symbol = String.valueOf(firstChar);
-        Token.TokenType type = oneCharSymbols.getOrDefault(symbol, Token.TokenType.SPECIAL_CHAR);
+    // Processes a symbol and returns its token type; only '<' and '>' can start a two-character one
+    private Token.TokenType processSymbol(char first, CodeHandler codeHandler) {
+        codeHandler.getChar();
+        Token.TokenType type = SYMBOL_TYPES[first];
+        char second = codeHandler.peek(0);
+        switch (first) {
+            case '<':
+                if (second == '=') {
+                    type = Token.TokenType.LEQ;
+                } else if (second == '>') {
+                    type = Token.TokenType.NOTEQUALS;
+                }
+                break;
+            case '>':
+                if (second == '=') {
+                    type = Token.TokenType.GEQ;
+                }
+                break;
+            default:
+                break;
+        }
 
-        // Check for two-character symbol
-        if (twoCharSymbols.containsKey(symbol + codeHandler.peek(0))) {
-            symbol += codeHandler.getChar();
-            type = twoCharSymbols.get(symbol);
+        if (type != SYMBOL_TYPES[first]) {
+            codeHandler.getChar();
             charPosition += 2;
         } else {
             charPosition++;
         }
-
-        return new Token(type, lineNumber, charPosition - symbol.length(), symbol);
+        return type;
     }
 }
 
@@ -180,3 +388,15 @@ class LexerException extends Exception {
     }
 
 }
+
+// Carries a LexerException out of code that lexes on demand, such as the streaming TokenManager
+class UncheckedLexerException extends RuntimeException {
+    public UncheckedLexerException(LexerException cause) {
+        super(cause.getMessage(), cause);
+    }
+
+    @Override
+    public LexerException getCause() {
+        return (LexerException) super.getCause();
+    }
+}
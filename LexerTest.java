@@ -0,0 +1,121 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+
+public class LexerTest {
+    private static final String SOURCE = "10 total = count + 3.25 * (x - 1)\nprint \"a, b\", total\n"
+            + "input \"n\"; n\ngoto 10\n";
+
+    // Helper method that checks two buffers hold the same tokens
+    private void assertSameTokens(TokenBuffer expected, TokenBuffer actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.type(i), actual.type(i));
+            assertEquals(expected.line(i), actual.line(i));
+            assertEquals(expected.column(i), actual.column(i));
+            assertEquals(expected.start(i), actual.start(i));
+            assertEquals(expected.end(i), actual.end(i));
+            assertEquals(expected.value(i), actual.value(i));
+        }
+    }
+
+    @Test
+    public void testPackedTokensMatchTokenList() throws LexerException {
+        LinkedList<Token> tokens = new Lexer().lexString(SOURCE);
+        TokenBuffer packed = new Lexer().lexPacked(CodeHandler.fromString(SOURCE));
+        assertEquals(tokens.size(), packed.size());
+        int i = 0;
+        for (Token token : tokens) {
+            assertEquals(token.type, packed.type(i));
+            assertEquals(token.value, packed.value(i));
+            assertEquals(token.getLineNumber(), packed.line(i));
+            assertEquals(token.getCharPosition(), packed.column(i));
+            assertEquals(token.symbol, packed.symbol(i));
+            assertEquals(token.toString(), packed.token(i).toString());
+            i++;
+        }
+    }
+
+    @Test
+    public void testConcatJoinsRanges() throws LexerException {
+        CodeHandler code = CodeHandler.fromString(SOURCE);
+        int split = SOURCE.indexOf("input");
+        TokenBuffer[] parts = {
+            new Lexer().lexPacked(code.range(0, split), 1),
+            new Lexer().lexPacked(code.range(split, SOURCE.length()), 3)
+        };
+        TokenBuffer joined = TokenBuffer.concat(code, SymbolTable.current(), parts);
+        assertSameTokens(new Lexer().lexPacked(CodeHandler.fromString(SOURCE)), joined);
+    }
+
+    @Test
+    public void testBufferGrowsPastInitialCapacity() {
+        TokenBuffer buffer = new TokenBuffer(CodeHandler.fromString(""), SymbolTable.current(), 1);
+        for (int i = 0; i < 100; i++) {
+            buffer.add(Token.TokenType.PLUS, i + 1, 1, i, i + 1, -1);
+        }
+        assertEquals(100, buffer.size());
+        assertEquals(Token.TokenType.PLUS, buffer.type(99));
+        assertEquals(100, buffer.line(99));
+        assertEquals(-1, buffer.symbol(99));
+    }
+
+    // Helper method that lexes source into a list of token types
+    private LinkedList<Token.TokenType> types(String source) throws LexerException {
+        LinkedList<Token.TokenType> types = new LinkedList<>();
+        for (Token token : new Lexer().lexString(source)) {
+            types.add(token.type);
+        }
+        return types;
+    }
+
+    @Test
+    public void testKeywordsIgnoreCase() throws LexerException {
+        for (String word : new String[] {"print", "PRINT", "Print", "pRiNt"}) {
+            LinkedList<Token> tokens = new Lexer().lexString(word);
+            assertEquals(Token.TokenType.PRINT, tokens.getFirst().type);
+            assertEquals(null, tokens.getFirst().value);
+        }
+        assertEquals(Arrays.asList(Token.TokenType.GOSUB, Token.TokenType.NUMBER, Token.TokenType.WEND, Token.TokenType.END),
+                types("GoSub 10 WEND End"));
+    }
+
+    @Test
+    public void testWordsSharingAKeywordHashAreIdentifiers() throws LexerException {
+        // pint starts and ends like print, tao like to, ab hashes to goto's slot, and printer only
+        // starts with a keyword; names are folded to lower case
+        for (String word : new String[] {"pint", "printer", "tao", "ab", "PINT", "i", "f"}) {
+            LinkedList<Token> tokens = new Lexer().lexString(word);
+            assertEquals(Token.TokenType.WORD, tokens.getFirst().type);
+            assertEquals(word.toLowerCase(), tokens.getFirst().value);
+        }
+    }
+
+    @Test
+    public void testSymbols() throws LexerException {
+        assertEquals(Arrays.asList(Token.TokenType.LEQ, Token.TokenType.NOTEQUALS, Token.TokenType.GEQ,
+                Token.TokenType.LESSTHAN, Token.TokenType.GREATERTHAN, Token.TokenType.EQUALS),
+                types("<= <> >= < > ="));
+        // Two-character operators are only formed from adjacent characters
+        assertEquals(Arrays.asList(Token.TokenType.WORD, Token.TokenType.LESSTHAN, Token.TokenType.EQUALS, Token.TokenType.NUMBER),
+                types("x< =1"));
+        assertEquals(Arrays.asList(Token.TokenType.LPAREN, Token.TokenType.PLUS, Token.TokenType.MINUS, Token.TokenType.STAR,
+                Token.TokenType.SLASH, Token.TokenType.PERCENT, Token.TokenType.COMMA, Token.TokenType.RPAREN),
+                types("(+-*/%,)"));
+        LinkedList<Token> tokens = new Lexer().lexString("a<>b");
+        assertEquals(2, tokens.get(1).getCharPosition());
+        assertEquals("<>", tokens.get(1).value);
+    }
+
+    @Test
+    public void testCharacterClasses() throws LexerException {
+        LinkedList<Token> tokens = new Lexer().lexString("_tmp1\t42 \"x y\"\nz");
+        assertEquals(Arrays.asList(Token.TokenType.WORD, Token.TokenType.NUMBER, Token.TokenType.STRINGLITERAL, Token.TokenType.WORD),
+                types("_tmp1\t42 \"x y\"\nz"));
+        assertEquals("_tmp1", tokens.get(0).value);
+        assertEquals("x y", tokens.get(2).value);
+        assertEquals(2, tokens.get(3).getLineNumber());
+    }
+}
@@ -0,0 +1,554 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Simplifies a parsed program before it is executed or compiled.
+// - folds MathOpNodes whose operands are constants, using the same rules as ExecutionContext.apply
+// - rewrites the parser's (0 SUBTRACT x) into a NegateNode
+// - strength-reduces x * 2 to x + x and drops x - 0, x * 1 and x / 1 for numeric x
+// - removes assignments whose value is never read, when computing the value cannot fail
+// - hoists loop-invariant subexpressions out of FOR/NEXT and WHILE/WEND loops
+// Every rewrite keeps the program's output and runtime errors unchanged. Numbered statements are
+// never removed, since a GOTO or GOSUB may jump to them.
+public class Optimizer {
+    private Set<Integer> numericVariables; // by SymbolTable id, as SlotTable keys its slots
+    private int hoistedCount;
+
+    // Method to produce the optimized version of a program; the input tree is left untouched
+    public StatementsNode optimize(StatementsNode program) {
+        numericVariables = findNumericVariables(program.getStatements());
+
+        List<StatementNode> statements = new ArrayList<>();
+        for (StatementNode statement : program.getStatements()) {
+            statements.add(optimizeStatement(statement));
+        }
+        hoistedCount = 0;
+        return new StatementsNode(hoistInvariants(removeDeadAssignments(statements)));
+    }
+
+    private StatementNode optimizeStatement(StatementNode statement) {
+        StatementNode optimized;
+        if (statement instanceof AssignmentNode) {
+            AssignmentNode assignment = (AssignmentNode) statement;
+            optimized = new AssignmentNode(assignment.getVariable(), simplify(assignment.getValue()));
+        } else if (statement instanceof PrintNode) {
+            List<Node> items = new ArrayList<>();
+            for (Node item : ((PrintNode) statement).getNodes()) {
+                items.add(simplify(item));
+            }
+            optimized = new PrintNode(items);
+        } else if (statement instanceof ForNode) {
+            ForNode loop = (ForNode) statement;
+            optimized = new ForNode(loop.getVariable(), simplify(loop.getStart()), simplify(loop.getLimit()),
+                    loop.getStep() != null ? simplify(loop.getStep()) : null);
+        } else if (statement instanceof WhileNode) {
+            optimized = new WhileNode(simplify(((WhileNode) statement).getCondition()));
+        } else {
+            return statement;
+        }
+        optimized.setLineNumber(statement.getLineNumber());
+        optimized.setSource(statement.getSourceLine(), statement.getSourceColumn());
+        return optimized;
+    }
+
+    // Simplifies an expression bottom-up
+    Node simplify(Node node) {
+        if (node instanceof NegateNode) {
+            Node operand = simplify(((NegateNode) node).getOperand());
+            Node folded = fold(MathOpNode.Operation.SUBTRACT, new IntegerNode(0), operand);
+            return folded != null ? folded : new NegateNode(operand);
+        }
+        if (!(node instanceof MathOpNode)) {
+            return node;
+        }
+
+        MathOpNode op = (MathOpNode) node;
+        MathOpNode.Operation operation = op.getOperation();
+        Node left = simplify(op.getLeft());
+        Node right = simplify(op.getRight());
+
+        Node folded = fold(operation, left, right);
+        if (folded != null) {
+            return folded;
+        }
+
+        if (operation == MathOpNode.Operation.SUBTRACT && isIntConstant(left, 0)) {
+            return new NegateNode(right);
+        }
+
+        // Identities below are only exact when the other operand is a number.
+        // x + 0 is deliberately kept: for x = -0.0 it yields 0.0.
+        switch (operation) {
+            case SUBTRACT:
+                if (isIntConstant(right, 0) && isNumeric(left)) {
+                    return left;
+                }
+                break;
+            case MULTIPLY:
+                if (isIntConstant(right, 1) && isNumeric(left)) {
+                    return left;
+                }
+                if (isIntConstant(left, 1) && isNumeric(right)) {
+                    return right;
+                }
+                if (isIntConstant(right, 2) && left instanceof VariableNode && isNumeric(left)) {
+                    return new MathOpNode(MathOpNode.Operation.ADD, left, left);
+                }
+                if (isIntConstant(left, 2) && right instanceof VariableNode && isNumeric(right)) {
+                    return new MathOpNode(MathOpNode.Operation.ADD, right, right);
+                }
+                break;
+            case DIVIDE:
+                if (isIntConstant(right, 1) && isNumeric(left)) {
+                    return left;
+                }
+                break;
+            default:
+                break;
+        }
+        return new MathOpNode(operation, left, right);
+    }
+
+    // Evaluates an operation on two constants, or returns null when it cannot be done at compile time
+    private static Node fold(MathOpNode.Operation operation, Node left, Node right) {
+        if (!isConstant(left) || !isConstant(right)) {
+            return null;
+        }
+
+        if (left instanceof StringNode || right instanceof StringNode) {
+            if (operation == MathOpNode.Operation.ADD) {
+                return new StringNode(text(left) + text(right));
+            }
+            if (operation.isComparison() && left instanceof StringNode && right instanceof StringNode) {
+                int order = ((StringNode) left).getValue().compareTo(((StringNode) right).getValue());
+                return new IntegerNode(ExecutionContext.compare(operation, order, 0));
+            }
+            return null; // leave the type mismatch to be reported at run time
+        }
+
+        if (left instanceof IntegerNode && right instanceof IntegerNode) {
+            int a = ((IntegerNode) left).getValue();
+            int b = ((IntegerNode) right).getValue();
+            switch (operation) {
+                case ADD:
+                    return new IntegerNode(a + b);
+                case SUBTRACT:
+                    return new IntegerNode(a - b);
+                case MULTIPLY:
+                    return new IntegerNode(a * b);
+                case DIVIDE:
+                    return b == 0 ? null : new IntegerNode(a / b);
+                case MODULO:
+                    return b == 0 ? null : new IntegerNode(a % b);
+                default:
+                    return new IntegerNode(ExecutionContext.compare(operation, a, b));
+            }
+        }
+
+        float a = floatValue(left);
+        float b = floatValue(right);
+        switch (operation) {
+            case ADD:
+                return new FloatNode(a + b);
+            case SUBTRACT:
+                return new FloatNode(a - b);
+            case MULTIPLY:
+                return new FloatNode(a * b);
+            case DIVIDE:
+                return b == 0 ? null : new FloatNode(a / b);
+            case MODULO:
+                return b == 0 ? null : new FloatNode(a % b);
+            default:
+                return new IntegerNode(ExecutionContext.compare(operation, a, b));
+        }
+    }
+
+    private static boolean isConstant(Node node) {
+        return node instanceof IntegerNode || node instanceof FloatNode || node instanceof StringNode;
+    }
+
+    private static boolean isIntConstant(Node node, int value) {
+        return node instanceof IntegerNode && ((IntegerNode) node).getValue() == value;
+    }
+
+    private static float floatValue(Node node) {
+        return node instanceof IntegerNode ? ((IntegerNode) node).getValue() : ((FloatNode) node).getValue();
+    }
+
+    private static String text(Node node) {
+        if (node instanceof IntegerNode) {
+            return Integer.toString(((IntegerNode) node).getValue());
+        } else if (node instanceof FloatNode) {
+            return Float.toString(((FloatNode) node).getValue());
+        }
+        return ((StringNode) node).getValue();
+    }
+
+    // Checks whether an expression always produces a number
+    private boolean isNumeric(Node node) {
+        return isNumeric(node, numericVariables);
+    }
+
+    private static boolean isNumeric(Node node, Set<Integer> numericVariables) {
+        if (node instanceof IntegerNode || node instanceof FloatNode) {
+            return true;
+        } else if (node instanceof VariableNode) {
+            return numericVariables.contains(((VariableNode) node).getSymbol());
+        } else if (node instanceof NegateNode) {
+            return isNumeric(((NegateNode) node).getOperand(), numericVariables);
+        } else if (node instanceof MathOpNode) {
+            MathOpNode op = (MathOpNode) node;
+            if (op.getOperation().isComparison()) {
+                return true; // gives 1 or 0 whatever it compares
+            }
+            return isNumeric(op.getLeft(), numericVariables) && isNumeric(op.getRight(), numericVariables);
+        }
+        return false;
+    }
+
+    // Finds the variables that can only ever hold numbers: never targets of READ or INPUT and
+    // only ever assigned numeric expressions. Starts optimistic and removes variables until stable.
+    private static Set<Integer> findNumericVariables(List<StatementNode> statements) {
+        Set<Integer> numeric = new HashSet<>();
+        for (StatementNode statement : statements) {
+            if (statement instanceof AssignmentNode) {
+                numeric.add(((AssignmentNode) statement).getVariable().getSymbol());
+            }
+        }
+        for (StatementNode statement : statements) {
+            List<VariableNode> targets = statement instanceof ReadNode ? ((ReadNode) statement).getVariables()
+                    : statement instanceof InputNode ? ((InputNode) statement).getVariables()
+                    : null;
+            if (targets != null) {
+                for (VariableNode target : targets) {
+                    numeric.remove(target.getSymbol());
+                }
+            }
+            // Loop variables are left alone; the loop itself rejects strings at run time
+            if (statement instanceof ForNode) {
+                numeric.remove(((ForNode) statement).getVariable().getSymbol());
+            }
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (StatementNode statement : statements) {
+                if (statement instanceof AssignmentNode) {
+                    AssignmentNode assignment = (AssignmentNode) statement;
+                    int symbol = assignment.getVariable().getSymbol();
+                    if (numeric.contains(symbol) && !isNumeric(assignment.getValue(), numeric)) {
+                        numeric.remove(symbol);
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return numeric;
+    }
+
+    // Walks the straight-line program backwards tracking which variables are still going to be
+    // read, and drops assignments to variables that are not. Programs that jump or loop fall back
+    // to dropping assignments to variables that are never read anywhere.
+    private List<StatementNode> removeDeadAssignments(List<StatementNode> statements) {
+        for (StatementNode statement : statements) {
+            if (statement instanceof GotoNode || statement instanceof GosubNode || statement instanceof ReturnNode
+                    || statement instanceof ForNode || statement instanceof NextNode
+                    || statement instanceof WhileNode || statement instanceof WendNode) {
+                return removeUnreadAssignments(statements);
+            }
+        }
+
+        Set<Integer> live = new HashSet<>();
+        List<StatementNode> kept = new ArrayList<>();
+        for (int i = statements.size() - 1; i >= 0; i--) {
+            StatementNode statement = statements.get(i);
+            if (statement instanceof AssignmentNode) {
+                AssignmentNode assignment = (AssignmentNode) statement;
+                int symbol = assignment.getVariable().getSymbol();
+                if (!live.contains(symbol) && assignment.getLineNumber() < 0 && cannotFail(assignment.getValue())) {
+                    continue;
+                }
+                live.remove(symbol);
+                addReads(assignment.getValue(), live);
+            } else if (statement instanceof PrintNode) {
+                for (Node item : ((PrintNode) statement).getNodes()) {
+                    addReads(item, live);
+                }
+            } else if (statement instanceof ReadNode) {
+                for (VariableNode variable : ((ReadNode) statement).getVariables()) {
+                    live.remove(variable.getSymbol());
+                }
+            } else if (statement instanceof InputNode) {
+                for (VariableNode variable : ((InputNode) statement).getVariables()) {
+                    live.remove(variable.getSymbol());
+                }
+            }
+            kept.add(statement);
+        }
+        Collections.reverse(kept);
+        return kept;
+    }
+
+    private List<StatementNode> removeUnreadAssignments(List<StatementNode> statements) {
+        Set<Integer> read = new HashSet<>();
+        for (StatementNode statement : statements) {
+            if (statement instanceof AssignmentNode) {
+                addReads(((AssignmentNode) statement).getValue(), read);
+            } else if (statement instanceof PrintNode) {
+                for (Node item : ((PrintNode) statement).getNodes()) {
+                    addReads(item, read);
+                }
+            } else if (statement instanceof ForNode) {
+                ForNode loop = (ForNode) statement;
+                read.add(loop.getVariable().getSymbol());
+                addReads(loop.getStart(), read);
+                addReads(loop.getLimit(), read);
+                addReads(loop.getStep(), read);
+            } else if (statement instanceof WhileNode) {
+                addReads(((WhileNode) statement).getCondition(), read);
+            }
+        }
+
+        List<StatementNode> kept = new ArrayList<>();
+        for (StatementNode statement : statements) {
+            if (statement instanceof AssignmentNode && statement.getLineNumber() < 0) {
+                AssignmentNode assignment = (AssignmentNode) statement;
+                if (!read.contains(assignment.getVariable().getSymbol()) && cannotFail(assignment.getValue())) {
+                    continue;
+                }
+            }
+            kept.add(statement);
+        }
+        return kept;
+    }
+
+    // Moves loop-invariant subexpressions out of loops, outer loops first. An invariant is a MathOpNode
+    // that reads no variable the loop writes and cannot fail, so evaluating it once before the loop,
+    // even when the body then never runs, is invisible. Each distinct one is assigned to a hidden
+    // variable just before the loop statement, which hands its line number to the first of them so
+    // that a GOTO still runs them. Loops that contain GOTO or GOSUB, or whose body is a jump target,
+    // are left alone.
+    private List<StatementNode> hoistInvariants(List<StatementNode> statements) {
+        Set<Integer> targets = new HashSet<>();
+        for (StatementNode statement : statements) {
+            if (statement instanceof GotoNode) {
+                targets.add(((GotoNode) statement).getTarget());
+            } else if (statement instanceof GosubNode) {
+                targets.add(((GosubNode) statement).getTarget());
+            }
+        }
+
+        List<StatementNode> result = new ArrayList<>(statements);
+        for (int i = 0; i < result.size(); i++) {
+            StatementNode loop = result.get(i);
+            if (!(loop instanceof ForNode) && !(loop instanceof WhileNode)) {
+                continue;
+            }
+            int end = loopEnd(result, i);
+            if (end < 0 || !isClosed(result, i, end, targets)) {
+                continue;
+            }
+
+            Set<Integer> written = new HashSet<>();
+            for (int j = i; j < end; j++) {
+                addWrites(result.get(j), written);
+            }
+            Map<String, VariableNode> invariants = new HashMap<>();
+            List<StatementNode> hoisted = new ArrayList<>();
+            // A WHILE tests its condition on every pass; a FOR evaluates its own expressions only once
+            for (int j = loop instanceof WhileNode ? i : i + 1; j < end; j++) {
+                result.set(j, hoist(result.get(j), written, invariants, hoisted, loop));
+            }
+            if (!hoisted.isEmpty()) {
+                StatementNode head = result.get(i);
+                hoisted.get(0).setLineNumber(head.getLineNumber());
+                head.setLineNumber(-1);
+                result.addAll(i, hoisted);
+                i += hoisted.size();
+            }
+        }
+        return result;
+    }
+
+    // Finds the NEXT or WEND closing the loop at start, or -1 when there is none or loops in between overlap it
+    private static int loopEnd(List<StatementNode> statements, int start) {
+        boolean isFor = statements.get(start) instanceof ForNode;
+        int fors = 0;
+        int whiles = 0;
+        for (int j = start + 1; j < statements.size(); j++) {
+            StatementNode statement = statements.get(j);
+            if (statement instanceof ForNode) {
+                fors++;
+            } else if (statement instanceof WhileNode) {
+                whiles++;
+            } else if (statement instanceof NextNode) {
+                if (fors == 0) {
+                    return isFor && whiles == 0 ? j : -1;
+                }
+                fors--;
+            } else if (statement instanceof WendNode) {
+                if (whiles == 0) {
+                    return !isFor && fors == 0 ? j : -1;
+                }
+                whiles--;
+            }
+        }
+        return -1;
+    }
+
+    // Checks that the statements after start up to end can only be reached through start and only left at the end
+    private static boolean isClosed(List<StatementNode> statements, int start, int end, Set<Integer> targets) {
+        for (int j = start + 1; j <= end; j++) {
+            StatementNode statement = statements.get(j);
+            if (statement instanceof GotoNode || statement instanceof GosubNode || targets.contains(statement.getLineNumber())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void addWrites(StatementNode statement, Set<Integer> written) {
+        if (statement instanceof AssignmentNode) {
+            written.add(((AssignmentNode) statement).getVariable().getSymbol());
+        } else if (statement instanceof ForNode) {
+            written.add(((ForNode) statement).getVariable().getSymbol());
+        } else if (statement instanceof ReadNode) {
+            for (VariableNode variable : ((ReadNode) statement).getVariables()) {
+                written.add(variable.getSymbol());
+            }
+        } else if (statement instanceof InputNode) {
+            for (VariableNode variable : ((InputNode) statement).getVariables()) {
+                written.add(variable.getSymbol());
+            }
+        }
+    }
+
+    // Rewrites the expressions of one statement of a loop body, returning it unchanged if nothing was hoisted
+    private StatementNode hoist(StatementNode statement, Set<Integer> written, Map<String, VariableNode> invariants,
+                                List<StatementNode> hoisted, StatementNode loop) {
+        StatementNode rewritten;
+        if (statement instanceof AssignmentNode) {
+            AssignmentNode assignment = (AssignmentNode) statement;
+            Node value = hoist(assignment.getValue(), written, invariants, hoisted, loop);
+            if (value == assignment.getValue()) {
+                return statement;
+            }
+            rewritten = new AssignmentNode(assignment.getVariable(), value);
+        } else if (statement instanceof PrintNode) {
+            List<Node> items = new ArrayList<>();
+            boolean changed = false;
+            for (Node item : ((PrintNode) statement).getNodes()) {
+                Node value = hoist(item, written, invariants, hoisted, loop);
+                changed |= value != item;
+                items.add(value);
+            }
+            if (!changed) {
+                return statement;
+            }
+            rewritten = new PrintNode(items);
+        } else if (statement instanceof ForNode) {
+            ForNode inner = (ForNode) statement;
+            Node start = hoist(inner.getStart(), written, invariants, hoisted, loop);
+            Node limit = hoist(inner.getLimit(), written, invariants, hoisted, loop);
+            Node step = hoist(inner.getStep(), written, invariants, hoisted, loop);
+            if (start == inner.getStart() && limit == inner.getLimit() && step == inner.getStep()) {
+                return statement;
+            }
+            rewritten = new ForNode(inner.getVariable(), start, limit, step);
+        } else if (statement instanceof WhileNode) {
+            Node condition = ((WhileNode) statement).getCondition();
+            Node value = hoist(condition, written, invariants, hoisted, loop);
+            if (value == condition) {
+                return statement;
+            }
+            rewritten = new WhileNode(value);
+        } else {
+            return statement;
+        }
+        rewritten.setLineNumber(statement.getLineNumber());
+        rewritten.setSource(statement.getSourceLine(), statement.getSourceColumn());
+        return rewritten;
+    }
+
+    // Replaces the largest invariant subexpressions with hidden variables, reusing one for equal expressions
+    private Node hoist(Node node, Set<Integer> written, Map<String, VariableNode> invariants,
+                       List<StatementNode> hoisted, StatementNode loop) {
+        if (node instanceof NegateNode) {
+            Node operand = ((NegateNode) node).getOperand();
+            Node value = hoist(operand, written, invariants, hoisted, loop);
+            return value == operand ? node : new NegateNode(value);
+        }
+        if (!(node instanceof MathOpNode)) {
+            return node;
+        }
+
+        MathOpNode op = (MathOpNode) node;
+        Set<Integer> reads = new HashSet<>();
+        addReads(op, reads);
+        if (Collections.disjoint(reads, written) && cannotFail(op)) {
+            String key = op.toString();
+            VariableNode variable = invariants.get(key);
+            if (variable == null) {
+                // '#' cannot appear in a BASIC name, so the hidden variable clashes with nothing
+                variable = new VariableNode("#" + hoistedCount++);
+                invariants.put(key, variable);
+                AssignmentNode assignment = new AssignmentNode(variable, op);
+                assignment.setSource(loop.getSourceLine(), loop.getSourceColumn());
+                hoisted.add(assignment);
+                if (isNumeric(op)) {
+                    numericVariables.add(variable.getSymbol());
+                }
+            }
+            return new VariableNode(variable);
+        }
+
+        Node left = hoist(op.getLeft(), written, invariants, hoisted, loop);
+        Node right = hoist(op.getRight(), written, invariants, hoisted, loop);
+        if (left == op.getLeft() && right == op.getRight()) {
+            return node;
+        }
+        return new MathOpNode(op.getOperation(), left, right);
+    }
+
+    private static void addReads(Node node, Set<Integer> live) {
+        if (node instanceof VariableNode) {
+            live.add(((VariableNode) node).getSymbol());
+        } else if (node instanceof NegateNode) {
+            addReads(((NegateNode) node).getOperand(), live);
+        } else if (node instanceof MathOpNode) {
+            addReads(((MathOpNode) node).getLeft(), live);
+            addReads(((MathOpNode) node).getRight(), live);
+        }
+    }
+
+    // Checks that evaluating an expression can never raise a runtime error, so skipping it is safe
+    private boolean cannotFail(Node node) {
+        if (isConstant(node) || node instanceof VariableNode) {
+            return true;
+        } else if (node instanceof NegateNode) {
+            return isNumeric(((NegateNode) node).getOperand()) && cannotFail(((NegateNode) node).getOperand());
+        } else if (node instanceof MathOpNode) {
+            MathOpNode op = (MathOpNode) node;
+            if (!cannotFail(op.getLeft()) || !cannotFail(op.getRight())) {
+                return false;
+            }
+            switch (op.getOperation()) {
+                case ADD:
+                    return true; // adds numbers or concatenates, never fails
+                case DIVIDE:
+                case MODULO:
+                    Node divisor = op.getRight();
+                    return isNumeric(op.getLeft()) && isConstant(divisor) && !(divisor instanceof StringNode)
+                            && floatValue(divisor) != 0;
+                default:
+                    return isNumeric(op.getLeft()) && isNumeric(op.getRight());
+            }
+        }
+        return false;
+    }
+}
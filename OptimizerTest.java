@@ -0,0 +1,44 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class OptimizerTest {
+
+    private String optimize(String source) throws LexerException {
+        StatementsNode program = new Parser(new Lexer().lexString(source)).parse();
+        return new Optimizer().optimize(program).toString();
+    }
+
+    @Test
+    public void testConstantFolding() throws LexerException {
+        assertEquals("x = (6 ADD y)\nprint x", optimize("x = (2 * 3) + y\nprint x"));
+    }
+
+    @Test
+    public void testUnaryMinusBecomesNegate() throws LexerException {
+        assertEquals("x = -y\nprint x, -5", optimize("x = -y\nprint x, -5"));
+    }
+
+    @Test
+    public void testStrengthReduction() throws LexerException {
+        assertEquals("x = 3\ny = (x ADD x)\nprint y", optimize("x = 3\ny = x * 2\nprint y"));
+    }
+
+    @Test
+    public void testDeadAssignmentsRemoved() throws LexerException {
+        assertEquals("x = 2\nprint x", optimize("x = 1\nunused = 5\nx = 2\nprint x"));
+    }
+
+    @Test
+    public void testLoopInvariantsHoisted() throws LexerException {
+        assertEquals("a = 3\nb = 4\n10 #0 = (a MULTIPLY b)\nfor i = 1 to n\n20 s = ((s ADD #0) ADD i)\n30 t = (t ADD #0)\n40 next i\nprint s, t",
+                optimize("a = 3\nb = 4\n10 for i = 1 to n\n20 s = s + a * b + i\n30 t = t + a * b\n40 next i\nprint s, t"));
+        // b changes in the loop and the division could fail, so neither is moved
+        assertEquals("while (i LESS 3)\nb = (b ADD 1)\ni = (i ADD (a DIVIDE b))\nwend\nprint i",
+                optimize("while i < 3\nb = b + 1\ni = i + a / b\nwend\nprint i"));
+    }
+
+    @Test
+    public void testFailingAssignmentKept() throws LexerException {
+        assertEquals("x = (1 DIVIDE 0)", optimize("x = 1 / 0"));
+    }
+}
@@ -0,0 +1,199 @@
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+// Where PRINT writes. Values are formatted straight into a reusable byte buffer: ints digit by
+// digit and ASCII text char by char, so printing allocates nothing for them, and the buffer
+// reaches the destination in large writes instead of one synchronized PrintStream call per item.
+// Floats with a fraction are rendered by Float.toString so every backend keeps printing exactly the
+// same digits. A sink belongs to a single run and is not thread-safe.
+public class OutputSink {
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MIN_INT = Integer.toString(Integer.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+
+    // When buffered output is passed on to the destination
+    enum FlushPolicy {
+        LINE,   // after every PRINT, for watching a program's progress
+        BUFFER  // only when the buffer fills, before INPUT and when the run ends
+    }
+
+    private final WritableByteChannel channel; // set for channel destinations
+    private final OutputStream stream; // set for stream destinations
+    private final FlushPolicy policy;
+    private final Charset charset;
+    private final boolean asciiCompatible;
+    private final byte[] buffer;
+    private final ByteBuffer view;
+    private int size = 0;
+    private long written = 0;
+
+    // Constructor to write to a channel such as a FileChannel
+    public OutputSink(WritableByteChannel channel, FlushPolicy policy) {
+        this(channel, null, policy, DEFAULT_CAPACITY);
+    }
+
+    // Constructor to write to a stream; flushing the sink flushes the stream too
+    public OutputSink(OutputStream stream, FlushPolicy policy) {
+        this(null, stream, policy, DEFAULT_CAPACITY);
+    }
+
+    OutputSink(WritableByteChannel channel, OutputStream stream, FlushPolicy policy, int capacity) {
+        this.channel = channel;
+        this.stream = stream;
+        this.policy = policy;
+        this.charset = Charset.defaultCharset();
+        this.asciiCompatible = charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.ISO_8859_1)
+                || charset.equals(StandardCharsets.US_ASCII);
+        this.buffer = new byte[Math.max(64, capacity)];
+        this.view = ByteBuffer.wrap(buffer);
+    }
+
+    // Method to create a sink on the process's standard output file descriptor, bypassing System.out
+    public static OutputSink console(FlushPolicy policy) {
+        System.out.flush(); // keep anything already printed through System.out ahead of the program's output
+        return new OutputSink(new FileOutputStream(FileDescriptor.out).getChannel(), policy);
+    }
+
+    // Method to get how many bytes have been printed, flushed or not
+    public long getBytesWritten() {
+        return written + size;
+    }
+
+    void printInt(int value) {
+        if (value == Integer.MIN_VALUE) {
+            writeBytes(MIN_INT);
+            return;
+        }
+        ensure(11);
+        if (value < 0) {
+            buffer[size++] = '-';
+            value = -value;
+        }
+        int end = size + digits(value);
+        for (int i = end - 1; i >= size; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        size = end;
+    }
+
+    // Whole numbers below 10^7 print as Float.toString would, the integer followed by ".0"
+    void printFloat(float value) {
+        if (value == (int) value && Math.abs(value) < 1e7f && Float.floatToRawIntBits(value) != Integer.MIN_VALUE) {
+            printInt((int) value);
+            ensure(2);
+            buffer[size++] = '.';
+            buffer[size++] = '0';
+        } else {
+            printString(Float.toString(value));
+        }
+    }
+
+    void printString(String value) {
+        if (value == null) {
+            value = "null";
+        }
+        int length = value.length();
+        if (asciiCompatible) {
+            int i = 0;
+            while (i < length) {
+                if (size == buffer.length) {
+                    drain();
+                }
+                int stop = Math.min(length, i + buffer.length - size);
+                for (; i < stop; i++) {
+                    char ch = value.charAt(i);
+                    if (ch >= 0x80) {
+                        writeBytes(value.substring(i).getBytes(charset));
+                        return;
+                    }
+                    buffer[size++] = (byte) ch;
+                }
+            }
+        } else {
+            writeBytes(value.getBytes(charset));
+        }
+    }
+
+    void printSeparator() {
+        ensure(1);
+        buffer[size++] = ' ';
+    }
+
+    void printEnd() {
+        writeBytes(LINE_SEPARATOR);
+        if (policy == FlushPolicy.LINE) {
+            flush();
+        }
+    }
+
+    // Method to pass everything printed so far on to the destination
+    public void flush() {
+        drain();
+        if (stream != null) {
+            try {
+                stream.flush();
+            } catch (IOException e) {
+                throw new BasicRuntimeException("Failed to write output: " + e.getMessage());
+            }
+        }
+    }
+
+    private void writeBytes(byte[] bytes) {
+        if (bytes.length > buffer.length - size) {
+            drain();
+            if (bytes.length > buffer.length) {
+                write(ByteBuffer.wrap(bytes), bytes, bytes.length);
+                written += bytes.length;
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    private void ensure(int space) {
+        if (buffer.length - size < space) {
+            drain();
+        }
+    }
+
+    // Writes out the buffer without flushing a stream destination
+    private void drain() {
+        if (size > 0) {
+            view.clear().limit(size);
+            write(view, buffer, size);
+            written += size;
+            size = 0;
+        }
+    }
+
+    private void write(ByteBuffer bytes, byte[] array, int length) {
+        try {
+            if (channel != null) {
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+            } else {
+                stream.write(array, 0, length);
+            }
+        } catch (IOException e) {
+            throw new BasicRuntimeException("Failed to write output: " + e.getMessage());
+        }
+    }
+
+    private static int digits(int value) {
+        int count = 1;
+        while (value >= 10) {
+            value /= 10;
+            count++;
+        }
+        return count;
+    }
+}
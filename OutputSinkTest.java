@@ -0,0 +1,77 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+public class OutputSinkTest {
+    // Helper method that returns what a sink wrote as text
+    private static String text(ByteArrayOutputStream bytes) {
+        return new String(bytes.toByteArray(), Charset.defaultCharset());
+    }
+
+    @Test
+    public void testFormatsLikePrintStream() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputSink sink = new OutputSink(null, bytes, OutputSink.FlushPolicy.BUFFER, 64);
+        StringBuilder expected = new StringBuilder();
+        int[] ints = {0, 7, -7, 10, 999999, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        float[] floats = {0f, -0f, 1.5f, -2f, 3f, 9999999f, 1e7f, 0.001f, 1e-4f, 1f / 3, Float.NaN, Float.NEGATIVE_INFINITY};
+        for (int value : ints) {
+            sink.printInt(value);
+            sink.printSeparator();
+            expected.append(value).append(' ');
+        }
+        for (float value : floats) {
+            sink.printFloat(value);
+            sink.printSeparator();
+            expected.append(value).append(' ');
+        }
+        Random random = new Random(3);
+        for (int i = 0; i < 1000; i++) {
+            float value = random.nextInt(2000000) / (random.nextBoolean() ? 1f : 8f);
+            sink.printFloat(value);
+            expected.append(value);
+        }
+        sink.printEnd();
+        expected.append(System.lineSeparator());
+        sink.flush();
+        assertEquals(expected.toString(), text(bytes));
+        assertEquals(bytes.size(), sink.getBytesWritten());
+    }
+
+    @Test
+    public void testWritesTextLongerThanTheBuffer() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputSink sink = new OutputSink(null, bytes, OutputSink.FlushPolicy.BUFFER, 64);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            text.append("line ").append(i).append(i % 7 == 0 ? " \u00e9\u4e2d " : " ");
+        }
+        sink.printString("start ");
+        sink.printString(text.toString());
+        sink.flush();
+        // Characters the default charset cannot encode come out as PrintStream would write them
+        String expected = "start " + text;
+        assertEquals(new String(expected.getBytes(Charset.defaultCharset()), Charset.defaultCharset()), text(bytes));
+    }
+
+    @Test
+    public void testFlushPolicies() {
+        ByteArrayOutputStream lines = new ByteArrayOutputStream();
+        OutputSink eager = new OutputSink(lines, OutputSink.FlushPolicy.LINE);
+        eager.printInt(1);
+        assertEquals(0, lines.size());
+        eager.printEnd();
+        assertEquals("1" + System.lineSeparator(), text(lines));
+
+        ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+        OutputSink buffered = new OutputSink(blocks, OutputSink.FlushPolicy.BUFFER);
+        buffered.printInt(1);
+        buffered.printEnd();
+        assertEquals(0, blocks.size());
+        buffered.flush();
+        assertEquals("1" + System.lineSeparator(), text(blocks));
+    }
+}
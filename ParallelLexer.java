@@ -0,0 +1,136 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Lexes large documents on several cores.
+// One quick pass over the characters splits the document into chunks that end at a newline outside
+// any string literal, and records the line each chunk starts on. Every chunk then starts at column 1
+// of a known line, so chunks are lexed independently on a ForkJoinPool with their own Lexer and the
+// resulting TokenBuffers are concatenated in order. Offsets are absolute, so nothing is fixed up.
+public class ParallelLexer {
+    // Default number of characters per chunk; documents under two chunks are lexed on the calling thread
+    static final int CHUNK_SIZE = 256 * 1024;
+
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    // Constructor for a lexer that runs on the common pool
+    public ParallelLexer() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    // Constructor for a lexer that runs on the given pool
+    public ParallelLexer(ForkJoinPool pool) {
+        this(pool, CHUNK_SIZE);
+    }
+
+    ParallelLexer(ForkJoinPool pool, int chunkSize) {
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+    }
+
+    // Tokenizes what is left of the CodeHandler; the result is the same as Lexer.lexPacked
+    public TokenBuffer lex(CodeHandler codeHandler) throws LexerException {
+        int start = codeHandler.getIndex();
+        int end = codeHandler.getLimit();
+        // Workers intern into the caller's table, not whichever is current on their own threads
+        SymbolTable symbols = SymbolTable.current();
+        if (end - start < 2 * chunkSize || pool.getParallelism() < 2) {
+            return new Lexer(symbols).lexPacked(codeHandler);
+        }
+
+        Chunks chunks = split(codeHandler, start, end);
+        TokenBuffer[] parts = new TokenBuffer[chunks.count];
+        try {
+            pool.invoke(new LexChunks(codeHandler, symbols, chunks, parts, 0, chunks.count));
+        } catch (UncheckedLexerException e) {
+            throw e.getCause();
+        }
+        codeHandler.swallow(end - start);
+        return TokenBuffer.concat(codeHandler, symbols, parts);
+    }
+
+    // Finds chunk boundaries by tracking string literals the way Lexer.processStringLiteral does.
+    // Only newlines outside strings count as lines, again matching the Lexer.
+    private Chunks split(CodeHandler codeHandler, int start, int end) {
+        Chunks chunks = new Chunks((end - start) / chunkSize + 2);
+        chunks.add(start, 1);
+        int line = 1;
+        int next = start + chunkSize;
+        boolean inString = false;
+        for (int i = start; i < end; i++) {
+            char ch = codeHandler.charAt(i);
+            if (inString) {
+                if (ch == '\\' && i + 1 < end && codeHandler.charAt(i + 1) == '"') {
+                    i++;
+                } else if (ch == '"') {
+                    inString = false;
+                }
+            } else if (ch == '"') {
+                inString = true;
+            } else if (ch == '\n') {
+                line++;
+                if (i + 1 >= next && i + 1 < end) {
+                    chunks.add(i + 1, line);
+                    next = i + 1 + chunkSize;
+                }
+            }
+        }
+        chunks.offsets[chunks.count] = end;
+        return chunks;
+    }
+
+    // Chunk i covers [offsets[i], offsets[i + 1]) and starts on lines[i]. Boundaries are at least
+    // chunkSize apart, so the capacity estimated by split() is never exceeded.
+    private static class Chunks {
+        final int[] offsets;
+        final int[] lines;
+        int count = 0;
+
+        Chunks(int capacity) {
+            offsets = new int[capacity + 1];
+            lines = new int[capacity];
+        }
+
+        void add(int offset, int line) {
+            offsets[count] = offset;
+            lines[count] = line;
+            count++;
+        }
+    }
+
+    // Lexes chunks [from, to) by splitting the range in half until one chunk is left.
+    // invokeAll reports the left half's failure first, so the earliest error in the document wins.
+    private static class LexChunks extends RecursiveAction {
+        private final CodeHandler codeHandler;
+        private final SymbolTable symbols;
+        private final Chunks chunks;
+        private final TokenBuffer[] parts;
+        private final int from;
+        private final int to;
+
+        LexChunks(CodeHandler codeHandler, SymbolTable symbols, Chunks chunks, TokenBuffer[] parts, int from, int to) {
+            this.codeHandler = codeHandler;
+            this.symbols = symbols;
+            this.chunks = chunks;
+            this.parts = parts;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new LexChunks(codeHandler, symbols, chunks, parts, from, middle),
+                        new LexChunks(codeHandler, symbols, chunks, parts, middle, to));
+                return;
+            }
+            CodeHandler range = codeHandler.range(chunks.offsets[from], chunks.offsets[from + 1]);
+            try {
+                parts[from] = new Lexer(symbols).lexPacked(range, chunks.lines[from]);
+            } catch (LexerException e) {
+                throw new UncheckedLexerException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,38 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.ForkJoinPool;
+
+public class ParallelLexerTest {
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    // Helper method that renders every token of a buffer with its position
+    private String dump(TokenBuffer tokens) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < tokens.size(); i++) {
+            out.append(tokens.token(i)).append(" @").append(tokens.start(i)).append('\n');
+        }
+        return out.toString();
+    }
+
+    @Test
+    public void testMatchesSequentialLexer() throws LexerException {
+        String source = new ProgramGenerator(7).generate(ProgramGenerator.Profile.MIXED, 20000);
+        String expected = dump(new Lexer().lexPacked(CodeHandler.fromString(source)));
+        assertEquals(expected, dump(new ParallelLexer(pool, 64).lex(CodeHandler.fromString(source))));
+    }
+
+    @Test
+    public void testDoesNotSplitInsideStrings() throws LexerException {
+        String source = "x = 1\nprint \"a\nb \\\"\nc\"\ny = 2\nprint \"\n\n\", y\n";
+        String expected = dump(new Lexer().lexPacked(CodeHandler.fromString(source)));
+        assertEquals(expected, dump(new ParallelLexer(pool, 1).lex(CodeHandler.fromString(source))));
+    }
+
+    @Test
+    public void testReportsLexerErrors() {
+        String source = "x = 1\ny = 2\nprint \"open\n";
+        assertThrows(LexerException.class, () -> new ParallelLexer(pool, 1).lex(CodeHandler.fromString(source)));
+    }
+}
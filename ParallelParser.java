@@ -0,0 +1,169 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Parses a packed TokenBuffer on several cores.
+// The buffer is cut into ranges of about chunkTokens tokens at points where one statement must end
+// and the next begin: a new source line that starts with a line number, a statement keyword or a
+// variable, after a token that can close a statement. Each range gets its own Parser over a TokenManager view, runs on
+// a ForkJoinPool, and the statement lists are joined in source order.
+// If any range fails or stops early, the buffer is parsed again sequentially so that the result,
+// including where parsing stops and which error is thrown, is exactly what Parser would give.
+public class ParallelParser {
+    // Default number of tokens per range; smaller buffers are parsed on the calling thread
+    static final int CHUNK_TOKENS = 16 * 1024;
+
+    private final ForkJoinPool pool;
+    private final int chunkTokens;
+
+    // Constructor for a parser that runs on the common pool
+    public ParallelParser() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    // Constructor for a parser that runs on the given pool
+    public ParallelParser(ForkJoinPool pool) {
+        this(pool, CHUNK_TOKENS);
+    }
+
+    ParallelParser(ForkJoinPool pool, int chunkTokens) {
+        this.pool = pool;
+        this.chunkTokens = chunkTokens;
+    }
+
+    // Method to parse the whole buffer; the result is the same as new Parser(new TokenManager(tokens)).parse()
+    public StatementsNode parse(TokenBuffer tokens) {
+        return parse(tokens, false);
+    }
+
+    // Method to parse the whole buffer and throw a ParseException where parsing stops, if that is
+    // before the end; the same as parse() followed by Parser.requireFinished()
+    public StatementsNode parseAll(TokenBuffer tokens) {
+        return parse(tokens, true);
+    }
+
+    private StatementsNode parse(TokenBuffer tokens, boolean requireFinished) {
+        if (tokens.size() < 2 * chunkTokens || pool.getParallelism() < 2) {
+            return parseSequentially(tokens, requireFinished);
+        }
+
+        int[] bounds = split(tokens);
+        int ranges = bounds.length - 1;
+        List<List<StatementNode>> parts = new ArrayList<>(Collections.nCopies(ranges, null));
+        try {
+            pool.invoke(new ParseRanges(tokens, bounds, parts, 0, ranges));
+        } catch (RuntimeException e) {
+            return parseSequentially(tokens, requireFinished);
+        }
+
+        // Every range parsed to its end, so together they cover the whole buffer
+        int total = 0;
+        for (List<StatementNode> part : parts) {
+            if (part == null) {
+                return parseSequentially(tokens, requireFinished);
+            }
+            total += part.size();
+        }
+        List<StatementNode> statements = new ArrayList<>(total);
+        for (List<StatementNode> part : parts) {
+            statements.addAll(part);
+        }
+        return new StatementsNode(statements);
+    }
+
+    private static StatementsNode parseSequentially(TokenBuffer tokens, boolean requireFinished) {
+        Parser parser = new Parser(new TokenManager(tokens));
+        StatementsNode program = parser.parse();
+        if (requireFinished) {
+            parser.requireFinished();
+        }
+        return program;
+    }
+
+    // Picks range boundaries; bounds[i] is the first token of range i and the last entry is the buffer size
+    private int[] split(TokenBuffer tokens) {
+        List<Integer> bounds = new ArrayList<>();
+        bounds.add(0);
+        int next = chunkTokens;
+        for (int i = next; i < tokens.size(); i++) {
+            if (i >= next && isStatementBoundary(tokens, i)) {
+                bounds.add(i);
+                next = i + chunkTokens;
+            }
+        }
+        bounds.add(tokens.size());
+
+        int[] result = new int[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    // Checks whether a statement must start at token i; a range that begins anywhere else could
+    // cut a statement in two
+    private static boolean isStatementBoundary(TokenBuffer tokens, int i) {
+        return tokens.line(i) != tokens.line(i - 1) && isStatementBoundary(tokens.type(i - 1), tokens.type(i));
+    }
+
+    // Checks whether a statement must start at a token of type next when it follows previous on an
+    // earlier line: next can only begin a statement and previous can end one
+    static boolean isStatementBoundary(Token.TokenType previous, Token.TokenType next) {
+        if (!Parser.canStartStatement(next)) {
+            return false;
+        }
+        switch (previous) {
+            case WORD:
+            case NUMBER:
+            case STRINGLITERAL:
+            case RPAREN:
+            case RETURN:
+            case WEND:
+            case END:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Parses ranges [from, to) by splitting in half until one is left. A range that does not parse
+    // completely leaves a null part, which sends parse() back to the sequential parser.
+    private static class ParseRanges extends RecursiveAction {
+        private final TokenBuffer tokens;
+        private final int[] bounds;
+        private final List<List<StatementNode>> parts;
+        private final int from;
+        private final int to;
+
+        ParseRanges(TokenBuffer tokens, int[] bounds, List<List<StatementNode>> parts, int from, int to) {
+            this.tokens = tokens;
+            this.bounds = bounds;
+            this.parts = parts;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ParseRanges(tokens, bounds, parts, from, middle),
+                        new ParseRanges(tokens, bounds, parts, middle, to));
+                return;
+            }
+            // Nodes take their SymbolTable from the thread, and a worker's is not the caller's
+            SymbolTable.Scope scope = tokens.getSymbolTable().use();
+            try {
+                Parser parser = new Parser(new TokenManager(tokens, bounds[from], bounds[from + 1]));
+                StatementsNode range = parser.parse();
+                if (parser.isFinished()) {
+                    parts.set(from, range.getStatements());
+                }
+            } finally {
+                scope.close();
+            }
+        }
+    }
+}
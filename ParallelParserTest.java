@@ -0,0 +1,65 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.ForkJoinPool;
+
+public class ParallelParserTest {
+    private final ForkJoinPool pool = new ForkJoinPool(4);
+
+    // Helper method that lexes a program into a packed buffer
+    private TokenBuffer lex(String source) throws LexerException {
+        return new Lexer().lexPacked(CodeHandler.fromString(source));
+    }
+
+    @Test
+    public void testMatchesSequentialParser() throws LexerException {
+        TokenBuffer tokens = lex(new ProgramGenerator(11).generate(ProgramGenerator.Profile.MIXED, 20000));
+        String expected = new Parser(new TokenManager(tokens)).parse().toString();
+        assertEquals(expected, new ParallelParser(pool, 16).parse(tokens).toString());
+    }
+
+    @Test
+    public void testStatementsSpanningLines() throws LexerException {
+        TokenBuffer tokens = lex("x = 1\ny = x\n+ 2\nprint x,\ny\ninput\n\"a\", z\nread a\n, b\nprint y\n");
+        String expected = new Parser(new TokenManager(tokens)).parse().toString();
+        assertEquals(expected, new ParallelParser(pool, 1).parse(tokens).toString());
+    }
+
+    @Test
+    public void testParsesUnderScopedSymbolTable() throws LexerException {
+        SymbolTable table = new SymbolTable();
+        SymbolTable.Scope scope = table.use();
+        try {
+            StringBuilder source = new StringBuilder();
+            for (int i = 0; i < 200; i++) {
+                source.append("alpha = beta + ").append(i).append("\nprint \"text\", alpha\n");
+            }
+            TokenBuffer tokens = lex(source.toString());
+            String expected = new Parser(new TokenManager(tokens)).parse().toString();
+            assertEquals(expected, new ParallelParser(pool, 16).parse(tokens).toString());
+        } finally {
+            scope.close();
+        }
+    }
+
+    @Test
+    public void testStopsWhereSequentialParserStops() throws LexerException {
+        TokenBuffer tokens = lex("x = 1\ny = 2\n) z = 3\nprint x\n");
+        assertEquals("x = 1\ny = 2", new ParallelParser(pool, 1).parse(tokens).toString());
+    }
+
+    @Test
+    public void testParseAllRejectsAnUnfinishedParse() throws LexerException {
+        TokenBuffer tokens = lex("x = 1\ny = 2\n) z = 3\nprint x\n");
+        ParseException e = assertThrows(ParseException.class, () -> new ParallelParser(pool, 1).parseAll(tokens));
+        assertEquals(3, e.getLine());
+        assertEquals("x = 1\ny = 2\nprint x", new ParallelParser(pool, 1).parseAll(lex("x = 1\ny = 2\nprint x\n")).toString());
+    }
+
+    @Test
+    public void testReportsSyntaxErrors() throws LexerException {
+        TokenBuffer tokens = lex("x = 1\ny = 2\nz = \nprint x\n");
+        assertThrows(RuntimeException.class, () -> new ParallelParser(pool, 1).parse(tokens));
+    }
+}
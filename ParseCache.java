@@ -0,0 +1,376 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+// On-disk cache of parsed programs keyed by a SHA-256 of the grammar version and the source text.
+// A hit maps the cached file and decodes the compact AST with AstCodec instead of lexing and
+// parsing again. Entries are touched on every hit, and when the directory grows past its size
+// limit the least recently used entries are deleted first.
+public class ParseCache {
+    private static final String SUFFIX = ".ast";
+
+    private final Path directory;
+    private final long maxBytes;
+
+    // Constructor to create a cache in the given directory, holding at most maxBytes of entries
+    public ParseCache(Path directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        Files.createDirectories(directory);
+    }
+
+    // Method to compute the cache key for a document. The grammar version is part of it, so entries
+    // parsed by an older grammar are never returned for the same text.
+    public String key(CodeHandler codeHandler) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(ByteBuffer.allocate(4).putInt(0, Parser.GRAMMAR_VERSION));
+        codeHandler.digest(digest);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    // Method to look up a parsed program; returns null on a miss or an unreadable entry
+    public StatementsNode get(String key) {
+        Path entry = directory.resolve(key + SUFFIX);
+        if (!Files.exists(entry)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+            ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            StatementsNode program = AstCodec.decode(bytes);
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return program;
+        } catch (IOException | RuntimeException e) {
+            // Corrupt, truncated or from an older format: drop it and parse again
+            try {
+                Files.deleteIfExists(entry);
+            } catch (IOException ignored) {
+                // another process may be replacing it
+            }
+            return null;
+        }
+    }
+
+    // Method to store a parsed program and evict old entries if the cache is over its limit
+    public void put(String key, StatementsNode program) throws IOException {
+        Path entry = directory.resolve(key + SUFFIX);
+        Path temp = Files.createTempFile(directory, key, ".tmp");
+        try {
+            Files.write(temp, AstCodec.encode(program));
+            Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        evict();
+    }
+
+    // Deletes least recently used entries until the cache fits in maxBytes
+    private void evict() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        HashMap<Path, Long> lastUsed = new HashMap<>();
+        long total = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path entry : stream) {
+                entries.add(entry);
+                lastUsed.put(entry, Files.getLastModifiedTime(entry).toMillis());
+                total += Files.size(entry);
+            }
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        entries.sort((a, b) -> Long.compare(lastUsed.get(a), lastUsed.get(b)));
+        for (Path entry : entries) {
+            if (total <= maxBytes) {
+                break;
+            }
+            long size = Files.size(entry);
+            if (Files.deleteIfExists(entry)) {
+                total -= size;
+            }
+        }
+    }
+}
+
+// Compact binary form of a StatementsNode. Each statement is written as its line number followed by
+// its nodes in pre-order, each a one byte tag and then its fields; names and strings go through a
+// table so each distinct one is stored once.
+class AstCodec {
+    private static final int MAGIC = 0x42415354; // "BAST"
+    private static final int VERSION = 4;
+
+    private static final byte ASSIGNMENT = 1;
+    private static final byte PRINT = 2;
+    private static final byte READ = 3;
+    private static final byte DATA = 4;
+    private static final byte INPUT = 5;
+    private static final byte GOTO = 6;
+    private static final byte GOSUB = 7;
+    private static final byte RETURN = 8;
+    private static final byte END = 9;
+    private static final byte VARIABLE = 10;
+    private static final byte INTEGER = 11;
+    private static final byte FLOAT = 12;
+    private static final byte STRING = 13;
+    private static final byte MATH_OP = 14;
+    private static final byte NEGATE = 15;
+    private static final byte NONE = 16;
+    private static final byte FOR = 17;
+    private static final byte NEXT = 18;
+    private static final byte WHILE = 19;
+    private static final byte WEND = 20;
+
+    private static final MathOpNode.Operation[] OPERATIONS = MathOpNode.Operation.values();
+
+    // Encoding state: the table of strings written so far
+    private final DataOutputStream out;
+    private final HashMap<String, Integer> written = new HashMap<>();
+
+    // Decoding state
+    private final ByteBuffer in;
+    private final List<Integer> read = new ArrayList<>(); // SymbolTable ids by table index
+
+    private AstCodec(DataOutputStream out, ByteBuffer in) {
+        this.out = out;
+        this.in = in;
+    }
+
+    static byte[] encode(StatementsNode program) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        AstCodec codec = new AstCodec(new DataOutputStream(bytes), null);
+        codec.out.writeInt(MAGIC);
+        codec.out.writeInt(VERSION);
+        codec.out.writeInt(program.getStatements().size());
+        for (StatementNode statement : program.getStatements()) {
+            codec.out.writeInt(statement.getLineNumber());
+            codec.out.writeInt(statement.getSourceLine());
+            codec.out.writeInt(statement.getSourceColumn());
+            codec.write(statement);
+        }
+        codec.out.flush();
+        return bytes.toByteArray();
+    }
+
+    static StatementsNode decode(ByteBuffer bytes) {
+        AstCodec codec = new AstCodec(null, bytes);
+        if (bytes.getInt() != MAGIC || bytes.getInt() != VERSION) {
+            throw new IllegalArgumentException("Not a cached AST of this version");
+        }
+        int count = bytes.getInt();
+        List<StatementNode> statements = new ArrayList<>(Math.min(count, bytes.remaining()));
+        for (int i = 0; i < count; i++) {
+            int lineNumber = bytes.getInt();
+            int sourceLine = bytes.getInt();
+            int sourceColumn = bytes.getInt();
+            StatementNode statement = (StatementNode) codec.read();
+            statement.setLineNumber(lineNumber);
+            statement.setSource(sourceLine, sourceColumn);
+            statements.add(statement);
+        }
+        return new StatementsNode(statements);
+    }
+
+    private void write(Node node) throws IOException {
+        if (node == null) {
+            out.writeByte(NONE);
+        } else if (node instanceof VariableNode) {
+            out.writeByte(VARIABLE);
+            writeString(((VariableNode) node).getName());
+        } else if (node instanceof IntegerNode) {
+            out.writeByte(INTEGER);
+            out.writeInt(((IntegerNode) node).getValue());
+        } else if (node instanceof FloatNode) {
+            out.writeByte(FLOAT);
+            out.writeFloat(((FloatNode) node).getValue());
+        } else if (node instanceof StringNode) {
+            out.writeByte(STRING);
+            writeString(((StringNode) node).getValue());
+        } else if (node instanceof MathOpNode) {
+            MathOpNode op = (MathOpNode) node;
+            out.writeByte(MATH_OP);
+            out.writeByte(op.getOperation().ordinal());
+            write(op.getLeft());
+            write(op.getRight());
+        } else if (node instanceof NegateNode) {
+            out.writeByte(NEGATE);
+            write(((NegateNode) node).getOperand());
+        } else if (node instanceof AssignmentNode) {
+            out.writeByte(ASSIGNMENT);
+            write(((AssignmentNode) node).getVariable());
+            write(((AssignmentNode) node).getValue());
+        } else if (node instanceof PrintNode) {
+            out.writeByte(PRINT);
+            writeList(((PrintNode) node).getNodes());
+        } else if (node instanceof ReadNode) {
+            out.writeByte(READ);
+            writeList(((ReadNode) node).getVariables());
+        } else if (node instanceof DataNode) {
+            out.writeByte(DATA);
+            writeList(((DataNode) node).getData());
+        } else if (node instanceof InputNode) {
+            out.writeByte(INPUT);
+            write(((InputNode) node).getPrompt());
+            writeList(((InputNode) node).getVariables());
+        } else if (node instanceof GotoNode) {
+            out.writeByte(GOTO);
+            out.writeInt(((GotoNode) node).getTarget());
+        } else if (node instanceof GosubNode) {
+            out.writeByte(GOSUB);
+            out.writeInt(((GosubNode) node).getTarget());
+        } else if (node instanceof ReturnNode) {
+            out.writeByte(RETURN);
+        } else if (node instanceof EndNode) {
+            out.writeByte(END);
+        } else if (node instanceof ForNode) {
+            ForNode loop = (ForNode) node;
+            out.writeByte(FOR);
+            write(loop.getVariable());
+            write(loop.getStart());
+            write(loop.getLimit());
+            write(loop.getStep());
+        } else if (node instanceof NextNode) {
+            out.writeByte(NEXT);
+            write(((NextNode) node).getVariable());
+        } else if (node instanceof WhileNode) {
+            out.writeByte(WHILE);
+            write(((WhileNode) node).getCondition());
+        } else if (node instanceof WendNode) {
+            out.writeByte(WEND);
+        } else {
+            throw new IllegalArgumentException("Cannot encode " + node);
+        }
+    }
+
+    private void writeList(List<? extends Node> nodes) throws IOException {
+        out.writeInt(nodes.size());
+        for (Node node : nodes) {
+            write(node);
+        }
+    }
+
+    // Strings are written once; later occurrences refer back to the first by index
+    private void writeString(String value) throws IOException {
+        Integer index = written.get(value);
+        if (index != null) {
+            out.writeInt(index);
+            return;
+        }
+        written.put(value, written.size());
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(-1);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private Node read() {
+        byte tag = in.get();
+        switch (tag) {
+            case NONE:
+                return null;
+            case VARIABLE:
+                return new VariableNode(readSymbol());
+            case INTEGER:
+                return new IntegerNode(in.getInt());
+            case FLOAT:
+                return new FloatNode(in.getFloat());
+            case STRING:
+                return new StringNode(readSymbol());
+            case MATH_OP: {
+                MathOpNode.Operation operation = OPERATIONS[in.get()];
+                Node left = read();
+                return new MathOpNode(operation, left, read());
+            }
+            case NEGATE:
+                return new NegateNode(read());
+            case ASSIGNMENT: {
+                VariableNode variable = (VariableNode) read();
+                return new AssignmentNode(variable, read());
+            }
+            case PRINT:
+                return new PrintNode(readList());
+            case READ:
+                return new ReadNode(readVariables());
+            case DATA:
+                return new DataNode(readList());
+            case INPUT: {
+                Node prompt = read();
+                return new InputNode(prompt, readVariables());
+            }
+            case GOTO:
+                return new GotoNode(in.getInt());
+            case GOSUB:
+                return new GosubNode(in.getInt());
+            case RETURN:
+                return new ReturnNode();
+            case END:
+                return new EndNode();
+            case FOR: {
+                VariableNode variable = (VariableNode) read();
+                Node start = read();
+                Node limit = read();
+                return new ForNode(variable, start, limit, read());
+            }
+            case NEXT:
+                return new NextNode((VariableNode) read());
+            case WHILE:
+                return new WhileNode(read());
+            case WEND:
+                return new WendNode();
+            default:
+                throw new IllegalArgumentException("Unknown node tag " + tag);
+        }
+    }
+
+    private List<Node> readList() {
+        int count = in.getInt();
+        List<Node> nodes = new ArrayList<>(Math.min(count, in.remaining()));
+        for (int i = 0; i < count; i++) {
+            nodes.add(read());
+        }
+        return nodes;
+    }
+
+    private List<VariableNode> readVariables() {
+        int count = in.getInt();
+        List<VariableNode> variables = new ArrayList<>(Math.min(count, in.remaining()));
+        for (int i = 0; i < count; i++) {
+            variables.add((VariableNode) read());
+        }
+        return variables;
+    }
+
+    // Each distinct string is interned once, then every later reference reuses its id
+    private int readSymbol() {
+        int index = in.getInt();
+        if (index >= 0) {
+            return read.get(index);
+        }
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        int symbol = SymbolTable.current().intern(new String(bytes, StandardCharsets.UTF_8));
+        read.add(symbol);
+        return symbol;
+    }
+}
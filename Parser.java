@@ -1,4 +1,5 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Optional;
@@ -10,31 +11,99 @@ abstract class Node {
 }
 
 abstract class StatementNode extends Node {
+    private int lineNumber = -1; // BASIC line number, or -1 for an unnumbered statement
+    private int sourceLine = -1; // line and column of the statement's first token, -1 when unknown
+    private int sourceColumn = -1;
+
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    void setLineNumber(int lineNumber) {
+        this.lineNumber = lineNumber;
+    }
+
+    public int getSourceLine() {
+        return sourceLine;
+    }
+
+    public int getSourceColumn() {
+        return sourceColumn;
+    }
+
+    void setSource(int line, int column) {
+        this.sourceLine = line;
+        this.sourceColumn = column;
+    }
 }
 
 class VariableNode extends Node {
-    private final String name;
+    private final SymbolTable symbols; // the table current when the node was made
+    private final int symbol; // id of the name in symbols
+    private int slot = -1; // index into the variable table, assigned when a program is loaded
 
     public VariableNode(String name) {
-        this.name = name;
+        this(SymbolTable.current().intern(name));
+    }
+
+    VariableNode(int symbol) {
+        this.symbols = SymbolTable.current();
+        this.symbol = symbol;
+    }
+
+    // Constructor for an unresolved copy of a variable, named from the same table
+    VariableNode(VariableNode variable) {
+        this.symbols = variable.symbols;
+        this.symbol = variable.symbol;
+    }
+
+    public String getName() {
+        return symbols.name(symbol);
+    }
+
+    // Method to get the name's id; equal names have equal ids
+    public int getSymbol() {
+        return symbol;
+    }
+
+    int getSlot() {
+        return slot;
+    }
+
+    void setSlot(int slot) {
+        this.slot = slot;
     }
 
     @Override
     public String toString() {
-        return name;
+        return getName();
     }
 }
 
 class StringNode extends Node {
-    private String value;
+    private final SymbolTable symbols; // the table current when the node was made
+    private final int symbol; // id of the text in symbols
 
     public StringNode(String value) {
-        this.value = value;
+        this(SymbolTable.current().intern(value));
+    }
+
+    StringNode(int symbol) {
+        this.symbols = SymbolTable.current();
+        this.symbol = symbol;
+    }
+
+    public String getValue() {
+        return symbols.name(symbol);
+    }
+
+    int getSymbol() {
+        return symbol;
     }
 
     @Override
     public String toString() {
-        return "\"" + value + "\"";
+        return "\"" + getValue() + "\"";
     }
 }
 
@@ -45,6 +114,10 @@ class ReadNode extends StatementNode {
         this.variables = variables;
     }
 
+    public List<VariableNode> getVariables() {
+        return variables;
+    }
+
     @Override
     public String toString() {
         return "read " + variables.stream().map(VariableNode::toString).collect(Collectors.joining(", "));
@@ -58,6 +131,10 @@ class DataNode extends StatementNode {
         this.data = data;
     }
 
+    public List<Node> getData() {
+        return data;
+    }
+
     @Override
     public String toString() {
         return "data " + data.stream().map(Node::toString).collect(Collectors.joining(", "));
@@ -73,6 +150,14 @@ class InputNode extends StatementNode {
         this.variables = variables;
     }
 
+    public Node getPrompt() {
+        return prompt;
+    }
+
+    public List<VariableNode> getVariables() {
+        return variables;
+    }
+
     @Override
     public String toString() {
         String promptStr = prompt != null ? prompt.toString() + ", " : "";
@@ -88,6 +173,10 @@ class PrintNode extends StatementNode {
         this.nodes = nodes;
     }
 
+    public List<Node> getNodes() {
+        return nodes;
+    }
+
     @Override
     public String toString() {
         return "print " + nodes.stream().map(Node::toString).collect(Collectors.joining(", "));
@@ -103,6 +192,14 @@ class AssignmentNode extends StatementNode {
         this.value = value;
     }
 
+    public VariableNode getVariable() {
+        return variable;
+    }
+
+    public Node getValue() {
+        return value;
+    }
+
     @Override
     public String toString() {
         return variable.toString() + " = " + value.toString();
@@ -116,9 +213,217 @@ class StatementsNode extends Node {
         this.statements = statements;
     }
 
+    public List<StatementNode> getStatements() {
+        return statements;
+    }
+
+    @Override
+    public String toString() {
+        return statements.stream()
+                .map(statement -> (statement.getLineNumber() >= 0 ? statement.getLineNumber() + " " : "") + statement)
+                .collect(Collectors.joining("\n"));
+    }
+}
+
+// GOTO; the target line is resolved to a statement index when the program is loaded
+class GotoNode extends StatementNode {
+    private final int target;
+    private int targetIndex = -1;
+
+    public GotoNode(int target) {
+        this.target = target;
+    }
+
+    public int getTarget() {
+        return target;
+    }
+
+    int getTargetIndex() {
+        return targetIndex;
+    }
+
+    void setTargetIndex(int targetIndex) {
+        this.targetIndex = targetIndex;
+    }
+
+    @Override
+    public String toString() {
+        return "goto " + target;
+    }
+}
+
+// GOSUB; like GOTO, but RETURN comes back to the statement after it
+class GosubNode extends StatementNode {
+    private final int target;
+    private int targetIndex = -1;
+
+    public GosubNode(int target) {
+        this.target = target;
+    }
+
+    public int getTarget() {
+        return target;
+    }
+
+    int getTargetIndex() {
+        return targetIndex;
+    }
+
+    void setTargetIndex(int targetIndex) {
+        this.targetIndex = targetIndex;
+    }
+
+    @Override
+    public String toString() {
+        return "gosub " + target;
+    }
+}
+
+class ReturnNode extends StatementNode {
+    @Override
+    public String toString() {
+        return "return";
+    }
+}
+
+class EndNode extends StatementNode {
     @Override
     public String toString() {
-        return statements.stream().map(StatementNode::toString).collect(Collectors.joining("\n"));
+        return "end";
+    }
+}
+
+// FOR variable = start TO limit [STEP step]. Loading pairs it with its NEXT and gives it two
+// hidden slots that hold the limit and step while the loop runs.
+class ForNode extends StatementNode {
+    private final VariableNode variable;
+    private final Node start;
+    private final Node limit;
+    private final Node step; // null for the default step of 1
+    private int nextIndex = -1;
+    private int limitSlot = -1;
+    private int stepSlot = -1;
+
+    public ForNode(VariableNode variable, Node start, Node limit, Node step) {
+        this.variable = variable;
+        this.start = start;
+        this.limit = limit;
+        this.step = step;
+    }
+
+    public VariableNode getVariable() {
+        return variable;
+    }
+
+    public Node getStart() {
+        return start;
+    }
+
+    public Node getLimit() {
+        return limit;
+    }
+
+    public Node getStep() {
+        return step;
+    }
+
+    int getNextIndex() {
+        return nextIndex;
+    }
+
+    void setNextIndex(int nextIndex) {
+        this.nextIndex = nextIndex;
+    }
+
+    int getLimitSlot() {
+        return limitSlot;
+    }
+
+    int getStepSlot() {
+        return stepSlot;
+    }
+
+    void setLoopSlots(int limitSlot, int stepSlot) {
+        this.limitSlot = limitSlot;
+        this.stepSlot = stepSlot;
+    }
+
+    @Override
+    public String toString() {
+        return "for " + variable + " = " + start + " to " + limit + (step != null ? " step " + step : "");
+    }
+}
+
+// WHILE condition; the statements up to the matching WEND repeat while the condition is not 0.
+// Loading pairs it with its WEND.
+class WhileNode extends StatementNode {
+    private final Node condition;
+    private int wendIndex = -1;
+
+    public WhileNode(Node condition) {
+        this.condition = condition;
+    }
+
+    public Node getCondition() {
+        return condition;
+    }
+
+    int getWendIndex() {
+        return wendIndex;
+    }
+
+    void setWendIndex(int wendIndex) {
+        this.wendIndex = wendIndex;
+    }
+
+    @Override
+    public String toString() {
+        return "while " + condition;
+    }
+}
+
+// WEND; goes back to the innermost open WHILE to test its condition again
+class WendNode extends StatementNode {
+    private int whileIndex = -1;
+
+    int getWhileIndex() {
+        return whileIndex;
+    }
+
+    void setWhileIndex(int whileIndex) {
+        this.whileIndex = whileIndex;
+    }
+
+    @Override
+    public String toString() {
+        return "wend";
+    }
+}
+
+// NEXT [variable]; loading pairs it with the innermost open FOR
+class NextNode extends StatementNode {
+    private final VariableNode variable; // null when NEXT names no variable
+    private int forIndex = -1;
+
+    public NextNode(VariableNode variable) {
+        this.variable = variable;
+    }
+
+    public VariableNode getVariable() {
+        return variable;
+    }
+
+    int getForIndex() {
+        return forIndex;
+    }
+
+    void setForIndex(int forIndex) {
+        this.forIndex = forIndex;
+    }
+
+    @Override
+    public String toString() {
+        return variable != null ? "next " + variable : "next";
     }
 }
 
@@ -131,6 +436,10 @@ class IntegerNode extends Node {
         this.value = value;
     }
 
+    public int getValue() {
+        return value;
+    }
+
     @Override
     public String toString() {
         return Integer.toString(value);
@@ -145,6 +454,10 @@ class FloatNode extends Node {
         this.value = value;
     }
 
+    public float getValue() {
+        return value;
+    }
+
     @Override
     public String toString() {
         return Float.toString(value);
@@ -154,7 +467,12 @@ class FloatNode extends Node {
 // Math operation node
 class MathOpNode extends Node {
     enum Operation {
-        ADD, SUBTRACT, MULTIPLY, DIVIDE
+        ADD, SUBTRACT, MULTIPLY, DIVIDE, MODULO,
+        EQUAL, NOT_EQUAL, LESS, LESS_EQUAL, GREATER, GREATER_EQUAL; // comparisons give 1 when true, 0 when false
+
+        boolean isComparison() {
+            return ordinal() >= EQUAL.ordinal();
+        }
     }
 
     private Operation operation;
@@ -167,162 +485,909 @@ class MathOpNode extends Node {
         this.right = right;
     }
 
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public Node getLeft() {
+        return left;
+    }
+
+    public Node getRight() {
+        return right;
+    }
+
     @Override
     public String toString() {
         return "(" + left.toString() + " " + operation.name() + " " + right.toString() + ")";
     }
 }
 
+// Arithmetic negation; produced by the Optimizer in place of the parser's (0 SUBTRACT x)
+class NegateNode extends Node {
+    private final Node operand;
+
+    public NegateNode(Node operand) {
+        this.operand = operand;
+    }
+
+    public Node getOperand() {
+        return operand;
+    }
+
+    @Override
+    public String toString() {
+        return "-" + operand.toString();
+    }
+}
+
 // Manages the stream of tokens
+// Tokens are pulled from their source on demand and only the lookahead window is buffered,
+// so a TokenManager fed straight from a Lexer holds O(lookahead) tokens instead of the whole program.
 class TokenManager {
-    private LinkedList<Token> tokens;
+    // Supplies tokens one at a time, returning null when there are none left
+    interface TokenSource {
+        Token next() throws LexerException;
+    }
+
+    private final TokenSource source;
+    private Token[] lookahead = new Token[4];
+    private int head = 0;
+    private int count = 0;
+    private boolean exhausted = false;
+
+    // Set instead of source when reading a packed TokenBuffer, which supports O(1) random lookahead
+    private final TokenBuffer buffer;
+    private int position;
+    private final int limit;
 
     public TokenManager(LinkedList<Token> tokens) {
-        this.tokens = tokens;
+        this.source = tokens::poll;
+        this.buffer = null;
+        this.limit = 0;
+    }
+
+    // Pulls tokens from any source, such as one stitched together from several buffers
+    TokenManager(TokenSource source) {
+        this.source = source;
+        this.buffer = null;
+        this.limit = 0;
+    }
+
+    // Streams tokens straight out of the lexer as the parser asks for them
+    public TokenManager(Lexer lexer, CodeHandler codeHandler) {
+        lexer.reset();
+        this.source = () -> lexer.nextToken(codeHandler);
+        this.buffer = null;
+        this.limit = 0;
+    }
+
+    // Reads tokens from a packed buffer, materializing each Token only when it is handed out
+    public TokenManager(TokenBuffer buffer) {
+        this(buffer, 0, buffer.size());
+    }
+
+    // Reads the tokens in [from, to) of a packed buffer
+    public TokenManager(TokenBuffer buffer, int from, int to) {
+        this.source = null;
+        this.buffer = buffer;
+        this.position = from;
+        this.limit = to;
+    }
+
+    // Buffers tokens until at least n are available or the source is exhausted
+    private boolean fill(int n) {
+        while (count < n && !exhausted) {
+            Token token;
+            try {
+                token = source.next();
+            } catch (LexerException e) {
+                throw new UncheckedLexerException(e);
+            }
+            if (token == null) {
+                exhausted = true;
+                break;
+            }
+            if (count == lookahead.length) {
+                grow();
+            }
+            lookahead[(head + count) & (lookahead.length - 1)] = token;
+            count++;
+        }
+        return count >= n;
+    }
+
+    // Doubles the ring buffer, only needed when a caller looks further ahead than before
+    private void grow() {
+        Token[] bigger = new Token[lookahead.length * 2];
+        for (int i = 0; i < count; i++) {
+            bigger[i] = lookahead[(head + i) & (lookahead.length - 1)];
+        }
+        lookahead = bigger;
+        head = 0;
     }
 
     public Optional<Token> peek(int j) {
-        if (j >= 0 && j < tokens.size()) {
-            return Optional.of(tokens.get(j));
+        if (buffer != null) {
+            return j >= 0 && position + j < limit ? Optional.of(buffer.token(position + j)) : Optional.empty();
+        }
+        if (j >= 0 && fill(j + 1)) {
+            return Optional.of(lookahead[(head + j) & (lookahead.length - 1)]);
         }
         return Optional.empty();
     }
 
+    // Method to get how many tokens are left when that is known up front, otherwise 0
+    int remainingHint() {
+        return buffer != null ? limit - position : 0;
+    }
+
     public boolean hasMoreTokens() {
-        return !tokens.isEmpty();
+        if (buffer != null) {
+            return position < limit;
+        }
+        return fill(1);
     }
 
     public Optional<Token> matchAndRemove(Token.TokenType type) {
-        if (!tokens.isEmpty() && tokens.getFirst().type == type) {
-            return Optional.of(tokens.removeFirst());
+        if (buffer != null) {
+            return position < limit && buffer.type(position) == type ? Optional.of(next()) : Optional.empty();
+        }
+        if (fill(1) && lookahead[head].type == type) {
+            return Optional.of(next());
         }
         return Optional.empty();
     }
+
+    // Removes and returns the next token, or null when there are no more
+    public Token next() {
+        if (buffer != null) {
+            return position < limit ? buffer.token(position++) : null;
+        }
+        if (!fill(1)) {
+            return null;
+        }
+        Token token = lookahead[head];
+        lookahead[head] = null;
+        head = (head + 1) & (lookahead.length - 1);
+        count--;
+        return token;
+    }
+}
+
+// Receives the nodes Parser recognizes, children before their parents. Each call returns a handle
+// that the parser passes back when the node becomes a child of another; list children arrive as
+// items[from, from + count). Lets the same grammar build a Node tree or a FlatAst.
+interface AstEmitter {
+    int variable(int symbol);
+    int integer(int value);
+    int floating(float value);
+    int string(int symbol);
+    int mathOp(MathOpNode.Operation operation, int left, int right);
+    int assignment(int variable, int value);
+    int print(int[] items, int from, int count);
+    int read(int[] items, int from, int count);
+    int data(int[] items, int from, int count);
+    int input(int prompt, int[] items, int from, int count); // prompt is -1 when there is none
+    int gotoLine(int target);
+    int gosub(int target);
+    int returnStatement();
+    int end();
+    int forLoop(int variable, int start, int limit, int step); // step is -1 when there is none
+    int next(int variable); // variable is -1 when there is none
+    int whileLoop(int condition);
+    int wend();
+
+    // Called once per statement in program order, after all its nodes, with the source line and
+    // column of its first token
+    void statement(int statement, int lineNumber, int sourceLine, int sourceColumn);
+}
+
+// Builds the ordinary Node tree. Handles index a pool of the current statement's nodes, which is
+// reused for the next statement once a statement has been emitted.
+class NodeEmitter implements AstEmitter {
+    private Node[] nodes = new Node[16];
+    private int size = 0;
+    private final List<StatementNode> statements = new ArrayList<>();
+    private long created = 0;
+
+    StatementsNode program() {
+        return new StatementsNode(statements);
+    }
+
+    // Method to get how many nodes were built, including those of an unfinished statement
+    long created() {
+        return created;
+    }
+
+    private int add(Node node) {
+        created++;
+        if (size == nodes.length) {
+            nodes = Arrays.copyOf(nodes, size * 2);
+        }
+        nodes[size] = node;
+        return size++;
+    }
+
+    private Node node(int handle) {
+        return handle < 0 ? null : nodes[handle];
+    }
+
+    private <T extends Node> List<T> list(int[] items, int from, int count) {
+        List<T> list = new ArrayList<>(count);
+        for (int i = from; i < from + count; i++) {
+            @SuppressWarnings("unchecked")
+            T item = (T) nodes[items[i]];
+            list.add(item);
+        }
+        return list;
+    }
+
+    public int variable(int symbol) {
+        return add(new VariableNode(symbol));
+    }
+
+    public int integer(int value) {
+        return add(new IntegerNode(value));
+    }
+
+    public int floating(float value) {
+        return add(new FloatNode(value));
+    }
+
+    public int string(int symbol) {
+        return add(new StringNode(symbol));
+    }
+
+    public int mathOp(MathOpNode.Operation operation, int left, int right) {
+        return add(new MathOpNode(operation, nodes[left], nodes[right]));
+    }
+
+    public int assignment(int variable, int value) {
+        return add(new AssignmentNode((VariableNode) nodes[variable], nodes[value]));
+    }
+
+    public int print(int[] items, int from, int count) {
+        return add(new PrintNode(list(items, from, count)));
+    }
+
+    public int read(int[] items, int from, int count) {
+        return add(new ReadNode(list(items, from, count)));
+    }
+
+    public int data(int[] items, int from, int count) {
+        return add(new DataNode(list(items, from, count)));
+    }
+
+    public int input(int prompt, int[] items, int from, int count) {
+        return add(new InputNode(node(prompt), list(items, from, count)));
+    }
+
+    public int gotoLine(int target) {
+        return add(new GotoNode(target));
+    }
+
+    public int gosub(int target) {
+        return add(new GosubNode(target));
+    }
+
+    public int returnStatement() {
+        return add(new ReturnNode());
+    }
+
+    public int end() {
+        return add(new EndNode());
+    }
+
+    public int forLoop(int variable, int start, int limit, int step) {
+        return add(new ForNode((VariableNode) nodes[variable], nodes[start], nodes[limit], node(step)));
+    }
+
+    public int next(int variable) {
+        return add(new NextNode((VariableNode) node(variable)));
+    }
+
+    public int whileLoop(int condition) {
+        return add(new WhileNode(nodes[condition]));
+    }
+
+    public int wend() {
+        return add(new WendNode());
+    }
+
+    public void statement(int statement, int lineNumber, int sourceLine, int sourceColumn) {
+        StatementNode node = (StatementNode) nodes[statement];
+        node.setLineNumber(lineNumber);
+        node.setSource(sourceLine, sourceColumn);
+        statements.add(node);
+        Arrays.fill(nodes, 0, size, null);
+        size = 0;
+    }
+}
+
+// A syntax error found in recovery mode, at the line and column of the token where it was noticed
+class Diagnostic {
+    private final int line;
+    private final int column;
+    private final String message;
+
+    Diagnostic(int line, int column, String message) {
+        this.line = line;
+        this.column = column;
+        this.message = message;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return line + ":" + column + ": " + message;
+    }
+}
+
+// Thrown by Parser on the first syntax error. The source position says where the problem is, so it
+// records no stack trace, which keeps failing parses cheap for callers that retry or fall back.
+class ParseException extends RuntimeException {
+    private final int line;
+    private final int column;
+
+    ParseException(int line, int column, String message) {
+        super("line " + line + ", column " + column + ": " + message, null, false, false);
+        this.line = line;
+        this.column = column;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public int getColumn() {
+        return column;
+    }
 }
 
 class Parser {
-    private LinkedList<Token> tokens;
+    // Bumped whenever the same source can parse into a different tree, so ParseCache keys change with it.
+    // 2: comparisons and %, 3: WHILE/WEND and NEXT taking its variable only from its own line
+    static final int GRAMMAR_VERSION = 3;
+
+    // Thrown in recovery mode once an error has been recorded, to unwind to the start of the statement.
+    // It is shared and carries no stack trace, so an error costs no more than its Diagnostic.
+    private static final ParseException SKIP_STATEMENT = new ParseException(-1, -1, "statement skipped");
+
+    // Binary operators by token type, and how tightly each Operation binds; higher binds tighter.
+    // Prefix minus binds tighter than all of them.
+    private static final MathOpNode.Operation[] BINARY_OPERATIONS = new MathOpNode.Operation[Token.TokenType.values().length];
+    private static final MathOpNode.Operation[] OPERATIONS = MathOpNode.Operation.values();
+    private static final int[] PRECEDENCE = new int[OPERATIONS.length];
+    private static final int NEGATE = -1; // pending prefix minus
+    private static final int OPEN = -2; // pending open parenthesis
+
+    static {
+        binary(Token.TokenType.EQUALS, MathOpNode.Operation.EQUAL, 1);
+        binary(Token.TokenType.NOTEQUALS, MathOpNode.Operation.NOT_EQUAL, 1);
+        binary(Token.TokenType.LESSTHAN, MathOpNode.Operation.LESS, 1);
+        binary(Token.TokenType.LEQ, MathOpNode.Operation.LESS_EQUAL, 1);
+        binary(Token.TokenType.GREATERTHAN, MathOpNode.Operation.GREATER, 1);
+        binary(Token.TokenType.GEQ, MathOpNode.Operation.GREATER_EQUAL, 1);
+        binary(Token.TokenType.PLUS, MathOpNode.Operation.ADD, 2);
+        binary(Token.TokenType.MINUS, MathOpNode.Operation.SUBTRACT, 2);
+        binary(Token.TokenType.STAR, MathOpNode.Operation.MULTIPLY, 3);
+        binary(Token.TokenType.SLASH, MathOpNode.Operation.DIVIDE, 3);
+        binary(Token.TokenType.PERCENT, MathOpNode.Operation.MODULO, 3);
+    }
+
+    private static void binary(Token.TokenType type, MathOpNode.Operation operation, int precedence) {
+        BINARY_OPERATIONS[type.ordinal()] = operation;
+        PRECEDENCE[operation.ordinal()] = precedence;
+    }
+
+    private final TokenManager tokens;
     private Token currentToken;
+    private Token previousToken; // last token eaten, for positions at the end of input
+    private AstEmitter emitter;
+    private List<Diagnostic> diagnostics; // set in recovery mode
+    private long nodeCount = 0;
+
+    // Handles of list items being collected; nested lists stack on top of each other
+    private int[] items = new int[16];
+    private int itemCount = 0;
+
+    // Expression stacks: handles of parsed operands, and pending operators as Operation ordinals,
+    // NEGATE or OPEN
+    private int[] operands = new int[16];
+    private int operandCount = 0;
+    private int[] operators = new int[16];
+    private int operatorCount = 0;
 
     public Parser(LinkedList<Token> tokens) {
+        this(new TokenManager(tokens));
+    }
+
+    // Parses tokens as the TokenManager produces them, so lexing and parsing can run as one pipeline
+    public Parser(TokenManager tokens) {
         this.tokens = tokens;
         // Initialize currentToken
-        this.currentToken = tokens.isEmpty() ? null : tokens.pop();
+        this.currentToken = tokens.next();
     }
 
     private void eat(Token.TokenType type) {
         if (currentToken != null && currentToken.type == type) {
-            currentToken = tokens.isEmpty() ? null : tokens.pop();
+            advance();
         } else {
-            throw new RuntimeException("Unexpected token: " + currentToken + ", expected: " + type);
+            throw error("Expected " + type + ", found " + describe(currentToken));
         }
     }
 
-    private Node parseExpression() {
-        Node node = parseTerm();
+    private void advance() {
+        previousToken = currentToken;
+        currentToken = tokens.next();
+    }
 
-        while (currentToken != null && (currentToken.type == Token.TokenType.PLUS || currentToken.type == Token.TokenType.MINUS)) {
-            Token token = currentToken;
-            if (token.type == Token.TokenType.PLUS) {
-                eat(Token.TokenType.PLUS);
-            } else if (token.type == Token.TokenType.MINUS) {
-                eat(Token.TokenType.MINUS);
-            }
+    // Builds the error for the current token, or for the end of the last token when input ran out.
+    // In recovery mode the error is recorded and the shared SKIP_STATEMENT is returned instead.
+    private ParseException error(String message) {
+        return error(currentToken != null ? currentToken : previousToken, message);
+    }
+
+    // Builds the error for a token that has already been eaten, such as a malformed number
+    private ParseException error(Token at, String message) {
+        int line = at != null ? at.getLineNumber() : 1;
+        int column = at != null ? at.getCharPosition() : 1;
+        if (diagnostics != null) {
+            diagnostics.add(new Diagnostic(line, column, message));
+            return SKIP_STATEMENT;
+        }
+        return new ParseException(line, column, message);
+    }
+
+    private static String describe(Token token) {
+        if (token == null) {
+            return "end of input";
+        }
+        return token.value != null ? token.type + " '" + token.value + "'" : token.type.toString();
+    }
 
-            node = new MathOpNode(token.type == Token.TokenType.PLUS ? MathOpNode.Operation.ADD : MathOpNode.Operation.SUBTRACT, node, parseTerm());
+    // Skips to the next token that begins a line and can begin a statement, moving past at least one
+    // token so that a statement which fails before eating anything cannot be retried forever
+    private void synchronize(Token first) {
+        if (currentToken != null && currentToken == first) {
+            advance();
+        }
+        while (currentToken != null
+                && (currentToken.getLineNumber() == previousToken.getLineNumber() || !canStartStatement(currentToken.type))) {
+            advance();
         }
+    }
 
-        return node;
+    // Checks whether a token of this type can be the first of a statement, counting line numbers
+    static boolean canStartStatement(Token.TokenType type) {
+        switch (type) {
+            case NUMBER:
+            case PRINT:
+            case READ:
+            case DATA:
+            case INPUT:
+            case WORD:
+            case GOTO:
+            case GOSUB:
+            case RETURN:
+            case END:
+            case FOR:
+            case NEXT:
+            case WHILE:
+            case WEND:
+                return true;
+            default:
+                return false;
+        }
     }
 
-    private Node parseTerm() {
-        Node node = parseFactor();
+    private void addItem(int handle) {
+        if (itemCount == items.length) {
+            items = Arrays.copyOf(items, itemCount * 2);
+        }
+        items[itemCount++] = handle;
+    }
 
-        while (currentToken != null && (currentToken.type == Token.TokenType.STAR || currentToken.type == Token.TokenType.SLASH)) {
+    // Parses an expression by operator precedence with explicit stacks rather than one recursive call
+    // per precedence level and parenthesis, so every operator costs a table lookup and a push, and
+    // parsing handles any nesting depth; the tree walks after it still recurse. Operands are emitted
+    // as they are read and operators when they are reduced, which gives the emitter the same
+    // children-first order as recursion would.
+    private int parseExpression() {
+        int operatorBase = operatorCount;
+        int open = 0; // parentheses opened in this expression and not yet closed
+        while (true) {
+            // Expecting an operand, possibly after prefix minus signs and opening parentheses
             Token token = currentToken;
-            if (token.type == Token.TokenType.STAR) {
-                eat(Token.TokenType.STAR);
-            } else if (token.type == Token.TokenType.SLASH) {
-                eat(Token.TokenType.SLASH);
+            if (token == null) {
+                throw error("Expected an expression, found end of input");
+            }
+            switch (token.type) {
+                case MINUS:
+                    advance();
+                    pushOperator(NEGATE);
+                    continue;
+                case LPAREN:
+                    advance();
+                    pushOperator(OPEN);
+                    open++;
+                    continue;
+                case NUMBER:
+                    advance();
+                    pushOperand(parseNumber(token, false));
+                    break;
+                case STRINGLITERAL:
+                    advance();
+                    pushOperand(emitter.string(symbolOf(token)));
+                    break;
+                case WORD:
+                    advance();
+                    pushOperand(emitter.variable(symbolOf(token)));
+                    break;
+                default:
+                    throw error("Expected an expression, found " + describe(token));
+            }
+
+            // After an operand: close parentheses, then take a binary operator or finish
+            while (true) {
+                if (open > 0 && currentToken != null && currentToken.type == Token.TokenType.RPAREN) {
+                    advance();
+                    reduce(operatorBase, 0);
+                    operatorCount--; // the OPEN
+                    open--;
+                    continue;
+                }
+                MathOpNode.Operation operation = currentToken != null ? BINARY_OPERATIONS[currentToken.type.ordinal()] : null;
+                if (operation == null) {
+                    if (open > 0) {
+                        throw error("Expected RPAREN, found " + describe(currentToken));
+                    }
+                    reduce(operatorBase, 0);
+                    operatorCount = operatorBase;
+                    return operands[--operandCount];
+                }
+                advance();
+                int precedence = PRECEDENCE[operation.ordinal()];
+                reduce(operatorBase, precedence); // operators are left associative
+                pushOperator(operation.ordinal());
+                break;
+            }
+        }
+    }
+
+    // Pops and emits the operators above base that bind at least as tightly as precedence, stopping at
+    // an open parenthesis
+    private void reduce(int base, int precedence) {
+        while (operatorCount > base) {
+            int operator = operators[operatorCount - 1];
+            if (operator == OPEN) {
+                return;
+            }
+            if (operator == NEGATE) {
+                // Same tree as before: 0 - x, with the 0 emitted after x
+                int operand = operands[operandCount - 1];
+                operands[operandCount - 1] = emitter.mathOp(MathOpNode.Operation.SUBTRACT, emitter.integer(0), operand);
+            } else {
+                if (PRECEDENCE[operator] < precedence) {
+                    return;
+                }
+                int right = operands[--operandCount];
+                int left = operands[operandCount - 1];
+                operands[operandCount - 1] = emitter.mathOp(OPERATIONS[operator], left, right);
             }
+            operatorCount--;
+        }
+    }
+
+    private void pushOperand(int handle) {
+        if (operandCount == operands.length) {
+            operands = Arrays.copyOf(operands, operandCount * 2);
+        }
+        operands[operandCount++] = handle;
+    }
 
-            node = new MathOpNode(token.type == Token.TokenType.STAR ? MathOpNode.Operation.MULTIPLY : MathOpNode.Operation.DIVIDE, node, parseFactor());
+    private void pushOperator(int operator) {
+        if (operatorCount == operators.length) {
+            operators = Arrays.copyOf(operators, operatorCount * 2);
         }
+        operators[operatorCount++] = operator;
+    }
 
-        return node;
-    }
-
-    private Node parseFactor() {
-        Token token = currentToken;
-        if (token.type == Token.TokenType.MINUS) {
-            eat(Token.TokenType.MINUS);
-            Node node = parseFactor(); // Handle unary minus
-            return new MathOpNode(MathOpNode.Operation.SUBTRACT, new IntegerNode(0), node);
-        } else if (token.type == Token.TokenType.NUMBER) {
-            eat(Token.TokenType.NUMBER);
-            return new IntegerNode(Integer.parseInt(token.value));
-        } else if (token.type == Token.TokenType.STRINGLITERAL) {
-            eat(Token.TokenType.STRINGLITERAL);
-            return new StringNode(token.value); // Correctly handle STRINGLITERAL tokens
-        } else if (token.type == Token.TokenType.LPAREN) {
-            eat(Token.TokenType.LPAREN);
-            Node node = parseExpression();
-            eat(Token.TokenType.RPAREN);
-            return node;
-        } else if (token.type == Token.TokenType.WORD) {
-            eat(Token.TokenType.WORD);
-            return new VariableNode(token.value);
+    // Numbers with a decimal point become floats, everything else an integer
+    private int parseNumber(Token token, boolean negative) {
+        try {
+            if (token.value.indexOf('.') >= 0) {
+                float value = Float.parseFloat(token.value);
+                return emitter.floating(negative ? -value : value);
+            }
+            int value = Integer.parseInt(token.value);
+            return emitter.integer(negative ? -value : value);
+        } catch (NumberFormatException e) {
+            throw error(token, "Invalid number " + token.value);
         }
-        throw new RuntimeException("Unexpected token: " + token + " at line " + token + ", position " + token);
     }
     
     
 
-    private StatementsNode Statements() {
-    List<StatementNode> statementList = new ArrayList<>();
+    private void Statements() {
     while (true) {
-        StatementNode statement = Statement();
-        if (statement == null) {
-            break;
+        Token first = currentToken;
+        try {
+            if (!NumberedStatement()) {
+                break;
+            }
+        } catch (ParseException e) {
+            if (e != SKIP_STATEMENT) {
+                throw e;
+            }
+            itemCount = 0;
+            operandCount = 0;
+            operatorCount = 0;
+            synchronize(first);
         }
-        statementList.add(statement);
     }
-    return new StatementsNode(statementList);
 }
-private StatementNode Statement() {
+
+// Parses one statement with its optional line number, returning false when the current token cannot
+// start one. Outside recovery mode parsing then simply stops, and isFinished() tells whether it was at the end.
+private boolean NumberedStatement() {
+    int lineNumber = -1;
+    // A number at the start of a statement is its BASIC line number
+    if (currentToken != null && currentToken.type == Token.TokenType.NUMBER) {
+        lineNumber = LineNumber();
+    }
+    int sourceLine = currentToken != null ? currentToken.getLineNumber() : -1;
+    int sourceColumn = currentToken != null ? currentToken.getCharPosition() : -1;
+    int statement = Statement();
+    if (statement < 0) {
+        if (lineNumber >= 0) {
+            throw error("Expected a statement after line number " + lineNumber + ", found " + describe(currentToken));
+        }
+        if (currentToken != null && diagnostics != null) {
+            throw error("Expected a statement, found " + describe(currentToken));
+        }
+        return false;
+    }
+    emitter.statement(statement, lineNumber, sourceLine, sourceColumn);
+    return true;
+}
+
+// Parses one statement and returns its handle, or -1 when the current token cannot start one
+private int Statement() {
     if (currentToken != null && currentToken.type == Token.TokenType.PRINT) {
         return PrintStatement();
+    } else if (currentToken != null && currentToken.type == Token.TokenType.READ) {
+        return ReadStatement();
+    } else if (currentToken != null && currentToken.type == Token.TokenType.DATA) {
+        return DataStatement();
+    } else if (currentToken != null && currentToken.type == Token.TokenType.INPUT) {
+        return InputStatement();
     } else if (currentToken != null && currentToken.type == Token.TokenType.WORD) {
         return Assignment();
+    } else if (currentToken != null && currentToken.type == Token.TokenType.GOTO) {
+        eat(Token.TokenType.GOTO);
+        return emitter.gotoLine(LineNumber());
+    } else if (currentToken != null && currentToken.type == Token.TokenType.GOSUB) {
+        eat(Token.TokenType.GOSUB);
+        return emitter.gosub(LineNumber());
+    } else if (currentToken != null && currentToken.type == Token.TokenType.RETURN) {
+        eat(Token.TokenType.RETURN);
+        return emitter.returnStatement();
+    } else if (currentToken != null && currentToken.type == Token.TokenType.END) {
+        eat(Token.TokenType.END);
+        return emitter.end();
+    } else if (currentToken != null && currentToken.type == Token.TokenType.FOR) {
+        return ForStatement();
+    } else if (currentToken != null && currentToken.type == Token.TokenType.NEXT) {
+        eat(Token.TokenType.NEXT);
+        // Only a name on the same line belongs to the NEXT; one on the next line starts a new statement
+        boolean named = currentToken != null && currentToken.type == Token.TokenType.WORD
+                && currentToken.getLineNumber() == previousToken.getLineNumber();
+        return emitter.next(named ? Variable() : -1);
+    } else if (currentToken != null && currentToken.type == Token.TokenType.WHILE) {
+        eat(Token.TokenType.WHILE);
+        return emitter.whileLoop(parseExpression());
+    } else if (currentToken != null && currentToken.type == Token.TokenType.WEND) {
+        eat(Token.TokenType.WEND);
+        return emitter.wend();
+    }
+    return -1;
+}
+
+private int LineNumber() {
+    Token token = currentToken;
+    eat(Token.TokenType.NUMBER);
+    try {
+        return Integer.parseInt(token.value);
+    } catch (NumberFormatException e) {
+        throw error(token, "Invalid line number " + token.value);
     }
-    return null;
 }
 
-private PrintNode PrintStatement() {
+private int ForStatement() {
+    eat(Token.TokenType.FOR);
+    int variable = Variable();
+    eat(Token.TokenType.EQUALS);
+    int start = parseExpression();
+    eat(Token.TokenType.TO);
+    int limit = parseExpression();
+    int step = -1;
+    if (currentToken != null && currentToken.type == Token.TokenType.STEP) {
+        eat(Token.TokenType.STEP);
+        step = parseExpression();
+    }
+    return emitter.forLoop(variable, start, limit, step);
+}
+
+private int PrintStatement() {
     eat(Token.TokenType.PRINT);
-    List<Node> printItems = new ArrayList<>();
-    printItems.add(parseExpression()); // For simplicity, we start with a single item
+    int first = itemCount;
+    addItem(parseExpression()); // For simplicity, we start with a single item
+
+    while (currentToken != null && currentToken.type == Token.TokenType.COMMA) {
+        eat(Token.TokenType.COMMA);
+        addItem(parseExpression());
+    }
+
+    int count = itemCount - first;
+    itemCount = first;
+    return emitter.print(items, first, count);
+}
+
+private int ReadStatement() {
+    eat(Token.TokenType.READ);
+    int first = VariableList();
+    int count = itemCount - first;
+    itemCount = first;
+    return emitter.read(items, first, count);
+}
+
+private int DataStatement() {
+    eat(Token.TokenType.DATA);
+    int first = itemCount;
+    addItem(DataValue());
 
     while (currentToken != null && currentToken.type == Token.TokenType.COMMA) {
         eat(Token.TokenType.COMMA);
-        printItems.add(parseExpression());
+        addItem(DataValue());
+    }
+
+    int count = itemCount - first;
+    itemCount = first;
+    return emitter.data(items, first, count);
+}
+
+// DATA only holds constants: a string or an optionally negated number
+private int DataValue() {
+    Token token = currentToken;
+    if (token != null && token.type == Token.TokenType.STRINGLITERAL) {
+        eat(Token.TokenType.STRINGLITERAL);
+        return emitter.string(symbolOf(token));
     }
+    boolean negative = token != null && token.type == Token.TokenType.MINUS;
+    if (negative) {
+        eat(Token.TokenType.MINUS);
+    }
+    Token number = currentToken;
+    eat(Token.TokenType.NUMBER);
+    return parseNumber(number, negative);
+}
 
-    return new PrintNode(printItems);
+private int InputStatement() {
+    eat(Token.TokenType.INPUT);
+    int prompt = -1;
+    if (currentToken != null && currentToken.type == Token.TokenType.STRINGLITERAL) {
+        prompt = emitter.string(symbolOf(currentToken));
+        eat(Token.TokenType.STRINGLITERAL);
+        eat(Token.TokenType.COMMA);
+    }
+    int first = VariableList();
+    int count = itemCount - first;
+    itemCount = first;
+    return emitter.input(prompt, items, first, count);
 }
 
-private AssignmentNode Assignment() {
-    String varName = currentToken.value;
+// Collects variables on the item stack and returns where they start
+private int VariableList() {
+    int first = itemCount;
+    addItem(Variable());
+
+    while (currentToken != null && currentToken.type == Token.TokenType.COMMA) {
+        eat(Token.TokenType.COMMA);
+        addItem(Variable());
+    }
+
+    return first;
+}
+
+private int Variable() {
+    Token token = currentToken;
     eat(Token.TokenType.WORD);
+    return emitter.variable(symbolOf(token));
+}
+
+private int Assignment() {
+    int variable = Variable();
     eat(Token.TokenType.EQUALS);
-    Node value = parseExpression();
-    return new AssignmentNode(new VariableNode(varName), value);
+    int value = parseExpression();
+    return emitter.assignment(variable, value);
+}
+
+// Lexed tokens carry their SymbolTable id; hand-built ones are interned here
+private static int symbolOf(Token token) {
+    return token.symbol >= 0 ? token.symbol : SymbolTable.current().intern(token.value);
 }
 
 
-    public Node parse() {
-        return Statements();
+    public StatementsNode parse() {
+        NodeEmitter nodes = new NodeEmitter();
+        parse(nodes);
+        nodeCount = nodes.created();
+        return nodes.program();
+    }
+
+    // Method to get how many nodes the last parse() built
+    long getNodeCount() {
+        return nodeCount;
+    }
+
+    // Method to parse straight into the flat, array-backed form of the AST
+    public FlatAst parseFlat() {
+        // Every token adds at most one node, so the arrays rarely have to grow
+        FlatAst.Builder builder = new FlatAst.Builder(tokens.remainingHint() + 1);
+        parse(builder);
+        return builder.build();
+    }
+
+    // Method to parse in recovery mode: every syntax error is added to diagnostics and parsing resumes
+    // at the next line that starts a statement, so one pass reports all of them. Returns the statements
+    // that parsed. A LexerException still ends parsing, as the lexer cannot resume.
+    public StatementsNode parse(List<Diagnostic> diagnostics) {
+        NodeEmitter nodes = new NodeEmitter();
+        parse(nodes, diagnostics);
+        nodeCount = nodes.created();
+        return nodes.program();
+    }
+
+    // Method to parse into any emitter, which sees every statement in order
+    void parse(AstEmitter emitter) {
+        parse(emitter, null);
+    }
+
+    // Method to parse into an emitter, in recovery mode when diagnostics is not null. The emitter may
+    // see the nodes of a statement that failed, but never the statement itself.
+    void parse(AstEmitter emitter, List<Diagnostic> diagnostics) {
+        this.emitter = emitter;
+        this.diagnostics = diagnostics;
+        try {
+            Statements();
+        } finally {
+            this.diagnostics = null;
+        }
+    }
+
+    // Checks whether parsing consumed every token, rather than stopping at one it did not recognize
+    boolean isFinished() {
+        return currentToken == null;
+    }
+
+    // Method to throw a ParseException at the token where parsing stopped, unless it reached the end
+    void requireFinished() {
+        if (!isFinished()) {
+            throw error("Expected a statement, found " + describe(currentToken));
+        }
     }
     
 }
-
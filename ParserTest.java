@@ -1,9 +1,12 @@
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 // Additional imports
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.LinkedList;
+import java.util.List;
 
 public class ParserTest {
 
@@ -57,4 +60,92 @@ public class ParserTest {
         Node ast = parseExpression("z = x + y");
         assertEquals("z = (x ADD y)", ast.toString());
     }
+
+    @Test
+    public void testStreamingParse() {
+        TokenManager tokens = new TokenManager(new Lexer(), CodeHandler.fromString("y = x + 5\nprint y"));
+        Node ast = new Parser(tokens).parse();
+        assertEquals("y = (x ADD 5)\nprint y", ast.toString());
+    }
+
+    @Test
+    public void testLineNumbersAndControlFlow() throws IOException, LexerException {
+        Node ast = parseExpression("10 FOR i = 1 TO 9 STEP 2\n20 GOSUB 100\n30 NEXT i\n40 GOTO 200\n100 RETURN\n200 END");
+        assertEquals("10 for i = 1 to 9 step 2\n20 gosub 100\n30 next i\n40 goto 200\n100 return\n200 end", ast.toString());
+    }
+
+    @Test
+    public void testBareNextBeforeAssignment() throws IOException, LexerException {
+        Node ast = parseExpression("for i = 1 to 3\nprint i\nnext\nx = 5\nprint x");
+        assertEquals("for i = 1 to 3\nprint i\nnext\nx = 5\nprint x", ast.toString());
+    }
+
+    @Test
+    public void testWhileWend() throws IOException, LexerException {
+        Node ast = parseExpression("10 WHILE i < n * 2\n20 i = i + 1\n30 WEND");
+        assertEquals("10 while (i LESS (n MULTIPLY 2))\n20 i = (i ADD 1)\n30 wend", ast.toString());
+    }
+
+    @Test
+    public void testSyntaxErrorPosition() throws LexerException {
+        Parser parser = new Parser(new Lexer().lexString("x = 1\ny = (2 + 3\n"));
+        ParseException e = assertThrows(ParseException.class, parser::parse);
+        assertEquals(2, e.getLine());
+        assertEquals(10, e.getColumn());
+        assertEquals("line 2, column 10: Expected RPAREN, found end of input", e.getMessage());
+    }
+
+    @Test
+    public void testRecoveryReportsEveryError() throws LexerException {
+        String source = "10 x = )\n20 print 1\n30 y = * 2\n40 for i = 1 2\n50 next i\n60 )\n70\n80 end";
+        List<Diagnostic> diagnostics = new ArrayList<>();
+        Node ast = new Parser(new Lexer().lexString(source)).parse(diagnostics);
+
+        assertEquals("20 print 1\n50 next i\n80 end", ast.toString());
+        assertEquals(5, diagnostics.size());
+        assertEquals("1:8: Expected an expression, found RPAREN ')'", diagnostics.get(0).toString());
+        assertEquals("3:8: Expected an expression, found STAR '*'", diagnostics.get(1).toString());
+        assertEquals("4:14: Expected TO, found NUMBER '2'", diagnostics.get(2).toString());
+        assertEquals(6, diagnostics.get(3).getLine());
+        assertEquals(8, diagnostics.get(4).getLine());
+    }
+
+    @Test
+    public void testRecoveryFromInvalidNumbers() throws LexerException {
+        List<Diagnostic> diagnostics = new ArrayList<>();
+        Node ast = new Parser(new Lexer().lexString("10 x = 99999999999\n20 y = 1.2.3\n30 print 1")).parse(diagnostics);
+
+        assertEquals("30 print 1", ast.toString());
+        assertEquals(2, diagnostics.size());
+        assertEquals("1:8: Invalid number 99999999999", diagnostics.get(0).toString());
+        assertEquals("2:8: Invalid number 1.2.3", diagnostics.get(1).toString());
+    }
+
+    @Test
+    public void testOperatorPrecedence() throws IOException, LexerException {
+        Node ast = parseExpression("z = a + b * c % 2 < -d - 1 = e");
+        assertEquals("z = (((a ADD ((b MULTIPLY c) MODULO 2)) LESS ((0 SUBTRACT d) SUBTRACT 1)) EQUAL e)", ast.toString());
+        ast = parseExpression("print a <> b, a <= (b - c) - d, a >= b > c");
+        assertEquals("print (a NOT_EQUAL b), (a LESS_EQUAL ((b SUBTRACT c) SUBTRACT d)), ((a GREATER_EQUAL b) GREATER c)", ast.toString());
+    }
+
+    @Test
+    public void testDeeplyNestedParentheses() throws LexerException {
+        int depth = 100000;
+        StringBuilder source = new StringBuilder("x = ");
+        for (int i = 0; i < depth; i++) {
+            source.append("(1 + ");
+        }
+        source.append('1');
+        for (int i = 0; i < depth; i++) {
+            source.append(')');
+        }
+        // Only the parser is iterative; building and walking a tree this deep would still recurse
+        Parser parser = new Parser(new TokenManager(new Lexer().lexPacked(CodeHandler.fromString(source.toString()))));
+        parser.parseFlat();
+        assertEquals(true, parser.isFinished());
+
+        ParseException e = assertThrows(ParseException.class, () -> parseExpression("x = ((1 + 2)\ny = x"));
+        assertEquals("line 2, column 1: Expected RPAREN, found WORD 'y'", e.getMessage());
+    }
 }
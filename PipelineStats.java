@@ -0,0 +1,190 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// Per-phase timings and counters for one trip through the pipeline, from loading the source to
+// running the program. Each phase records its wall time, how many items it processed, and the
+// bytes the current thread allocated meanwhile (when the JVM can tell). Every phase is also
+// committed as a basic.Phase Flight Recorder event, which costs next to nothing unless a
+// recording with that event enabled is running, so production latency can be attributed with
+// jcmd JFR.start instead of a profiler.
+public class PipelineStats {
+    enum Phase {
+        LOAD("chars"), LEX("tokens"), PARSE("nodes"), OPTIMIZE("statements"), COMPILE("statements"), EXECUTE("output bytes");
+
+        final String unit;
+
+        Phase(String unit) {
+            this.unit = unit;
+        }
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final long[] nanos = new long[PHASES.length];
+    private final long[] items = new long[PHASES.length];
+    private final long[] allocated = new long[PHASES.length];
+    private final boolean[] recorded = new boolean[PHASES.length];
+
+    // The phase in progress, started by begin()
+    private Phase current;
+    private long startNanos;
+    private long startAllocated;
+    private PhaseEvent event;
+
+    // Method to start timing a phase; phases run one at a time on the calling thread
+    public void begin(Phase phase) {
+        if (current != null) {
+            throw new IllegalStateException("Phase " + current + " is still running");
+        }
+        current = phase;
+        event = new PhaseEvent();
+        event.begin();
+        startAllocated = allocatedBytes();
+        startNanos = System.nanoTime();
+    }
+
+    // Method to finish the running phase, crediting it with the items it processed
+    public void end(Phase phase, long count) {
+        long elapsed = System.nanoTime() - startNanos;
+        long bytes = allocatedBytes();
+        if (phase != current) {
+            throw new IllegalStateException("Phase " + phase + " was not started");
+        }
+        int i = phase.ordinal();
+        nanos[i] += elapsed;
+        items[i] += count;
+        allocated[i] += bytes >= 0 && startAllocated >= 0 ? bytes - startAllocated : 0;
+        recorded[i] = true;
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.phase = phase.name().toLowerCase();
+            event.items = count;
+            event.unit = phase.unit;
+            event.allocated = bytes >= 0 && startAllocated >= 0 ? bytes - startAllocated : -1;
+            event.commit();
+        }
+        event = null;
+        current = null;
+    }
+
+    public long getNanos(Phase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    public long getItems(Phase phase) {
+        return items[phase.ordinal()];
+    }
+
+    public long getAllocated(Phase phase) {
+        return allocated[phase.ordinal()];
+    }
+
+    // Method to format the phases that ran as a table, with a total line
+    public String summary() {
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%-9s %10s %12s %-13s %14s %11s%n", "phase", "ms", "items", "unit", "items/s", "alloc MB"));
+        long totalNanos = 0;
+        long totalAllocated = 0;
+        for (Phase phase : PHASES) {
+            int i = phase.ordinal();
+            if (!recorded[i]) {
+                continue;
+            }
+            totalNanos += nanos[i];
+            totalAllocated += allocated[i];
+            double seconds = nanos[i] / 1e9;
+            text.append(String.format("%-9s %10.3f %12d %-13s %14.0f %11.2f%n", phase.name().toLowerCase(), nanos[i] / 1e6,
+                    items[i], phase.unit, seconds > 0 ? items[i] / seconds : 0.0, allocated[i] / 1e6));
+        }
+        text.append(String.format("%-9s %10.3f %12s %-13s %14s %11.2f%n", "total", totalNanos / 1e6, "", "", "", totalAllocated / 1e6));
+        return text.toString();
+    }
+
+    // Method to count the nodes of a program, for parsers that do not report how many they built
+    static long countNodes(StatementsNode program) {
+        long count = 0;
+        for (StatementNode statement : program.getStatements()) {
+            count += countNodes(statement);
+        }
+        return count;
+    }
+
+    private static long countNodes(Node node) {
+        if (node == null) {
+            return 0;
+        } else if (node instanceof MathOpNode) {
+            return 1 + countNodes(((MathOpNode) node).getLeft()) + countNodes(((MathOpNode) node).getRight());
+        } else if (node instanceof NegateNode) {
+            return 1 + countNodes(((NegateNode) node).getOperand());
+        } else if (node instanceof AssignmentNode) {
+            return 1 + countNodes(((AssignmentNode) node).getVariable()) + countNodes(((AssignmentNode) node).getValue());
+        } else if (node instanceof PrintNode) {
+            return 1 + countAll(((PrintNode) node).getNodes());
+        } else if (node instanceof ReadNode) {
+            return 1 + countAll(((ReadNode) node).getVariables());
+        } else if (node instanceof DataNode) {
+            return 1 + countAll(((DataNode) node).getData());
+        } else if (node instanceof InputNode) {
+            return 1 + countNodes(((InputNode) node).getPrompt()) + countAll(((InputNode) node).getVariables());
+        } else if (node instanceof ForNode) {
+            ForNode loop = (ForNode) node;
+            return 1 + countNodes(loop.getVariable()) + countNodes(loop.getStart()) + countNodes(loop.getLimit())
+                    + countNodes(loop.getStep());
+        } else if (node instanceof NextNode) {
+            return 1 + countNodes(((NextNode) node).getVariable());
+        } else if (node instanceof WhileNode) {
+            return 1 + countNodes(((WhileNode) node).getCondition());
+        }
+        return 1;
+    }
+
+    private static long countAll(Iterable<? extends Node> nodes) {
+        long count = 0;
+        for (Node node : nodes) {
+            count += countNodes(node);
+        }
+        return count;
+    }
+
+    // Bytes allocated by this thread so far, or -1 when the JVM does not track it
+    private static long allocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+            if (threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
+
+// Flight Recorder event committed for every finished phase
+@Name("basic.Phase")
+@Label("BASIC Pipeline Phase")
+@Category("BASIC")
+@Description("One phase of loading, lexing, parsing, optimizing, compiling or running a BASIC program")
+@StackTrace(false)
+class PhaseEvent extends Event {
+    @Label("Phase")
+    String phase;
+
+    @Label("Items")
+    long items;
+
+    @Label("Unit")
+    String unit;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocated;
+}
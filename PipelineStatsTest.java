@@ -0,0 +1,71 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class PipelineStatsTest {
+    @Test
+    public void testRecordsPhasesThatRan() {
+        PipelineStats stats = new PipelineStats();
+        stats.begin(PipelineStats.Phase.LEX);
+        stats.end(PipelineStats.Phase.LEX, 10);
+        stats.begin(PipelineStats.Phase.LEX);
+        stats.end(PipelineStats.Phase.LEX, 5);
+
+        assertEquals(15, stats.getItems(PipelineStats.Phase.LEX));
+        assertTrue(stats.getNanos(PipelineStats.Phase.LEX) > 0);
+        String summary = stats.summary();
+        assertTrue(summary.contains("lex"));
+        assertTrue(summary.contains("tokens"));
+        assertTrue(summary.contains("total"));
+        assertFalse(summary.contains("parse"));
+    }
+
+    @Test
+    public void testRejectsUnbalancedPhases() {
+        PipelineStats stats = new PipelineStats();
+        assertThrows(IllegalStateException.class, () -> stats.end(PipelineStats.Phase.PARSE, 0));
+        stats.begin(PipelineStats.Phase.PARSE);
+        assertThrows(IllegalStateException.class, () -> stats.begin(PipelineStats.Phase.EXECUTE));
+        assertThrows(IllegalStateException.class, () -> stats.end(PipelineStats.Phase.EXECUTE, 0));
+    }
+
+    @Test
+    public void testParserNodeCountMatchesTree() throws LexerException {
+        Parser parser = new Parser(new TokenManager(new Lexer().lexString("x = 1 + 2 * y\nprint x, \"a\"\nfor i = 1 to 3\nnext i\n")));
+        StatementsNode program = parser.parse();
+        assertEquals(PipelineStats.countNodes(program), parser.getNodeCount());
+        assertEquals(16, parser.getNodeCount());
+    }
+
+    @Test
+    public void testCommitsFlightRecorderEvents() throws Exception {
+        Path file = Files.createTempFile("phases", ".jfr");
+        try {
+            try (Recording recording = new Recording()) {
+                recording.enable("basic.Phase");
+                recording.start();
+                PipelineStats stats = new PipelineStats();
+                stats.begin(PipelineStats.Phase.OPTIMIZE);
+                stats.end(PipelineStats.Phase.OPTIMIZE, 7);
+                recording.stop();
+                recording.dump(file);
+            }
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            assertEquals(1, events.size());
+            assertEquals("optimize", events.get(0).getString("phase"));
+            assertEquals(7, events.get(0).getLong("items"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
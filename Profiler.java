@@ -0,0 +1,298 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Finds the statements and operators a running program spends its time in.
+// Executors call enter() as each statement starts: that bumps the statement's exact execution count
+// and publishes the statement, with the GOSUB path that led to it, in a single atomic long. A daemon
+// thread looks at it every interval and charges the time since its previous look to whatever it
+// finds, so the program itself never reads the clock. Operator counts cost nothing at run time: a
+// statement evaluates the same MathOpNodes every time it runs, so they are its count times its operators.
+// A Profiler follows one run of one program, on one thread.
+public class Profiler {
+    private static final long DEFAULT_INTERVAL = 1_000_000; // 1 ms
+    private static final int MAX_DEPTH = 128; // GOSUBs nested deeper are charged to the frame at this depth
+    private static final int LABEL_LENGTH = 40;
+    private static final MathOpNode.Operation[] OPERATIONS = MathOpNode.Operation.values();
+
+    private final StatementNode[] statements;
+    private final long[] counts;
+    private final int[][] operations; // for each statement, how many of each operation it evaluates
+    private final long interval;
+
+    // GOSUB paths form a tree of frames, frame 0 being the main program
+    private int[] parents = new int[16];
+    private int[] targets = new int[16]; // BASIC line the frame's GOSUB jumped to
+    private int[] depths = new int[16];
+    private int frameCount = 1;
+    private final HashMap<Long, Integer> children = new HashMap<>(); // parent << 32 | target -> frame
+    private int frame = 0;
+    private int overflow = 0; // GOSUBs past MAX_DEPTH still waiting for their RETURN
+    private int current = -1;
+
+    // frame << 32 | statement of the running statement, or -1 while nothing runs
+    private final AtomicLong position = new AtomicLong(-1);
+    private final HashMap<Long, long[]> samples = new HashMap<>(); // position -> {samples, nanos}
+    private volatile boolean sampling = false;
+    private Thread sampler;
+
+    // Constructor to profile a program, sampling every millisecond
+    public Profiler(StatementsNode program) {
+        this(program, DEFAULT_INTERVAL);
+    }
+
+    // Constructor to profile the program that will run, after any optimization, sampling every intervalNanos
+    public Profiler(StatementsNode program, long intervalNanos) {
+        this.statements = program.getStatements().toArray(new StatementNode[0]);
+        this.counts = new long[statements.length];
+        this.operations = new int[statements.length][];
+        this.interval = intervalNanos;
+        for (int i = 0; i < statements.length; i++) {
+            operations[i] = new int[OPERATIONS.length];
+            countOperations(statements[i], operations[i]);
+        }
+    }
+
+    // Method to start the sampling thread; call before the program runs
+    public void start() {
+        if (sampler != null) {
+            throw new IllegalStateException("Profiler already started");
+        }
+        sampling = true;
+        sampler = new Thread(this::sample, "basic-profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    // Method to stop sampling once the program has finished; the reports are complete after this
+    public void stop() {
+        position.set(-1);
+        sampling = false;
+        if (sampler != null) {
+            LockSupport.unpark(sampler);
+            boolean interrupted = false;
+            while (sampler.isAlive()) {
+                try {
+                    sampler.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void sample() {
+        long last = System.nanoTime();
+        while (sampling) {
+            LockSupport.parkNanos(interval);
+            long now = System.nanoTime();
+            long seen = position.get();
+            if (seen >= 0) {
+                long[] entry = samples.computeIfAbsent(seen, key -> new long[2]);
+                entry[0]++;
+                entry[1] += now - last;
+            }
+            last = now;
+        }
+    }
+
+    // Method called by executors as the statement with the given index starts
+    void enter(int statement) {
+        counts[statement]++;
+        current = statement;
+        position.lazySet(((long) frame << 32) | statement);
+    }
+
+    // Method called when the current statement, a GOSUB, pushes its return address
+    void call() {
+        if (depths[frame] == MAX_DEPTH) {
+            overflow++;
+            return;
+        }
+        int target = current >= 0 && statements[current] instanceof GosubNode ? ((GosubNode) statements[current]).getTarget() : -1;
+        long key = ((long) frame << 32) | (target & 0xFFFFFFFFL);
+        Integer child = children.get(key);
+        if (child == null) {
+            if (frameCount == parents.length) {
+                parents = Arrays.copyOf(parents, frameCount * 2);
+                targets = Arrays.copyOf(targets, frameCount * 2);
+                depths = Arrays.copyOf(depths, frameCount * 2);
+            }
+            child = frameCount++;
+            parents[child] = frame;
+            targets[child] = target;
+            depths[child] = depths[frame] + 1;
+            children.put(key, child);
+        }
+        frame = child;
+    }
+
+    // Method called when a RETURN pops a return address
+    void ret() {
+        if (overflow > 0) {
+            overflow--;
+        } else if (frame != 0) {
+            frame = parents[frame];
+        }
+    }
+
+    // Method to get how many times the statement with the given index ran
+    public long getCount(int statement) {
+        return counts[statement];
+    }
+
+    // Method to get how many samples found the statement running, under any GOSUB path
+    public long getSamples(int statement) {
+        return sum(statement, 0);
+    }
+
+    // Method to get the time charged to the statement by sampling
+    public long getNanos(int statement) {
+        return sum(statement, 1);
+    }
+
+    // Method to get how many times an operator was evaluated
+    public long getOperationCount(MathOpNode.Operation operation) {
+        long total = 0;
+        for (int i = 0; i < statements.length; i++) {
+            total += counts[i] * operations[i][operation.ordinal()];
+        }
+        return total;
+    }
+
+    private long sum(int statement, int field) {
+        long total = 0;
+        for (Map.Entry<Long, long[]> entry : samples.entrySet()) {
+            if ((int) (long) entry.getKey() == statement) {
+                total += entry.getValue()[field];
+            }
+        }
+        return total;
+    }
+
+    // Method to format the flat profile: statements by sampled time, then operators by count.
+    // An operator's time is estimated by splitting each statement's time evenly over the operators it evaluates.
+    public String flatProfile() {
+        long[] statementSamples = new long[statements.length];
+        long[] statementNanos = new long[statements.length];
+        long totalNanos = 0;
+        for (Map.Entry<Long, long[]> entry : samples.entrySet()) {
+            int statement = (int) (long) entry.getKey();
+            statementSamples[statement] += entry.getValue()[0];
+            statementNanos[statement] += entry.getValue()[1];
+            totalNanos += entry.getValue()[1];
+        }
+
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < statements.length; i++) {
+            if (counts[i] > 0 || statementSamples[i] > 0) {
+                order.add(i);
+            }
+        }
+        order.sort((a, b) -> statementNanos[a] != statementNanos[b] ? Long.compare(statementNanos[b], statementNanos[a])
+                : counts[a] != counts[b] ? Long.compare(counts[b], counts[a]) : Integer.compare(a, b));
+
+        StringBuilder text = new StringBuilder();
+        text.append(String.format("%8s %10s %6s %12s %-9s %s%n", "samples", "ms", "%time", "count", "line:col", "statement"));
+        for (int i : order) {
+            text.append(String.format("%8d %10.3f %6.2f %12d %-9s %s%n", statementSamples[i], statementNanos[i] / 1e6,
+                    totalNanos > 0 ? 100.0 * statementNanos[i] / totalNanos : 0.0, counts[i], where(statements[i]), text(statements[i])));
+        }
+
+        text.append(String.format("%n%-13s %14s %10s%n", "operator", "count", "est. ms"));
+        for (MathOpNode.Operation operation : OPERATIONS) {
+            if (getOperationCount(operation) == 0) {
+                continue;
+            }
+            double nanos = 0;
+            for (int i = 0; i < statements.length; i++) {
+                int total = 0;
+                for (int n : operations[i]) {
+                    total += n;
+                }
+                if (total > 0) {
+                    nanos += statementNanos[i] * (double) operations[i][operation.ordinal()] / total;
+                }
+            }
+            text.append(String.format("%-13s %14d %10.3f%n", operation.name().toLowerCase(), getOperationCount(operation), nanos / 1e6));
+        }
+        return text.toString();
+    }
+
+    // Method to format the samples as collapsed stacks, one "frame;frame;statement samples" line per
+    // distinct stack, as read by flamegraph.pl, speedscope and similar tools
+    public String collapsedStacks() {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<Long, long[]> entry : samples.entrySet()) {
+            long key = entry.getKey();
+            StringBuilder stack = new StringBuilder();
+            stack.append(label(statements[(int) key]).replace(';', ','));
+            for (int f = (int) (key >>> 32); f != 0; f = parents[f]) {
+                stack.insert(0, (targets[f] >= 0 ? "GOSUB " + targets[f] : "GOSUB") + ";");
+            }
+            stack.insert(0, "main;");
+            lines.add(stack.append(' ').append(entry.getValue()[0]).toString());
+        }
+        lines.sort(null);
+        StringBuilder text = new StringBuilder();
+        for (String line : lines) {
+            text.append(line).append('\n');
+        }
+        return text.toString();
+    }
+
+    // Method to write collapsedStacks() to a file
+    public void writeCollapsedStacks(Path file) throws IOException {
+        Files.write(file, collapsedStacks().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String where(StatementNode statement) {
+        return statement.getSourceLine() >= 0 ? statement.getSourceLine() + ":" + statement.getSourceColumn() : "?";
+    }
+
+    // The statement's position and text on one short line
+    private static String label(StatementNode statement) {
+        return where(statement) + " " + text(statement);
+    }
+
+    private static String text(StatementNode statement) {
+        String text = (statement.getLineNumber() >= 0 ? statement.getLineNumber() + " " : "") + statement;
+        text = text.replace('\n', ' ');
+        return text.length() > LABEL_LENGTH ? text.substring(0, LABEL_LENGTH - 3) + "..." : text;
+    }
+
+    private static void countOperations(Node node, int[] found) {
+        if (node instanceof MathOpNode) {
+            MathOpNode op = (MathOpNode) node;
+            found[op.getOperation().ordinal()]++;
+            countOperations(op.getLeft(), found);
+            countOperations(op.getRight(), found);
+        } else if (node instanceof NegateNode) {
+            countOperations(((NegateNode) node).getOperand(), found);
+        } else if (node instanceof AssignmentNode) {
+            countOperations(((AssignmentNode) node).getValue(), found);
+        } else if (node instanceof PrintNode) {
+            for (Node item : ((PrintNode) node).getNodes()) {
+                countOperations(item, found);
+            }
+        } else if (node instanceof ForNode) {
+            ForNode loop = (ForNode) node;
+            countOperations(loop.getStart(), found);
+            countOperations(loop.getLimit(), found);
+            countOperations(loop.getStep(), found);
+        } else if (node instanceof WhileNode) {
+            countOperations(((WhileNode) node).getCondition(), found);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+public class ProfilerTest {
+    private static final String PROGRAM = "s = 0\nfor i = 1 to 1000\ngosub 100\nnext i\nprint s\nend\n100 s = s + i * 2\nreturn\n";
+
+    // Helper method that runs a program on the given backend under a profiler
+    private Profiler profile(String source, boolean vm) throws LexerException {
+        StatementsNode program = new Parser(new Lexer().lexString(source)).parse();
+        Profiler profiler = new Profiler(program, 100_000);
+        ByteArrayInputStream input = new ByteArrayInputStream(new byte[0]);
+        PrintStream output = new PrintStream(new ByteArrayOutputStream());
+        ExecutionContext context;
+        profiler.start();
+        try {
+            if (vm) {
+                VirtualMachine machine = new VirtualMachine(new BytecodeCompiler().compile(program, true));
+                context = machine.newContext(input, output);
+                context.setProfiler(profiler);
+                machine.run(context);
+            } else {
+                Interpreter interpreter = new Interpreter(program);
+                context = interpreter.newContext(input, output);
+                context.setProfiler(profiler);
+                interpreter.run(context);
+            }
+        } finally {
+            profiler.stop();
+        }
+        return profiler;
+    }
+
+    @Test
+    public void testCountsStatementsOnEveryBackend() throws LexerException {
+        for (boolean vm : new boolean[] {false, true}) {
+            Profiler profiler = profile(PROGRAM, vm);
+            assertEquals(1, profiler.getCount(0));
+            assertEquals(1000, profiler.getCount(2));
+            assertEquals(1000, profiler.getCount(6));
+            assertEquals(1, profiler.getCount(5));
+        }
+    }
+
+    @Test
+    public void testCountsOperators() throws LexerException {
+        Profiler profiler = profile(PROGRAM, false);
+        assertEquals(1000, profiler.getOperationCount(MathOpNode.Operation.ADD));
+        assertEquals(1000, profiler.getOperationCount(MathOpNode.Operation.MULTIPLY));
+        assertEquals(0, profiler.getOperationCount(MathOpNode.Operation.DIVIDE));
+    }
+
+    @Test
+    public void testReportsSourcePositions() throws LexerException {
+        Profiler profiler = profile(PROGRAM, true);
+        String flat = profiler.flatProfile();
+        assertTrue(flat.contains("7:5"), flat);
+        assertTrue(flat.contains("multiply"), flat);
+        for (String line : profiler.collapsedStacks().split("\n")) {
+            if (!line.isEmpty()) {
+                assertTrue(line.startsWith("main;"), line);
+                assertTrue(line.matches(".* [1-9][0-9]*"), line);
+            }
+        }
+    }
+
+    @Test
+    public void testStatementsKnowWhereTheyStart() throws LexerException {
+        StatementsNode program = new Parser(new Lexer().lexString("x = 1\n  10 print x\n")).parse();
+        assertEquals(1, program.getStatements().get(0).getSourceLine());
+        assertEquals(1, program.getStatements().get(0).getSourceColumn());
+        assertEquals(2, program.getStatements().get(1).getSourceLine());
+        assertEquals(6, program.getStatements().get(1).getSourceColumn());
+    }
+}
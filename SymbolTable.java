@@ -0,0 +1,170 @@
+// Hash-consing table for identifiers and string literal values.
+// Every distinct text gets one String and one integer id for the life of the table, so tokens
+// and AST nodes hold ids instead of their own copies and names compare as integers. Lexers and
+// nodes use the current thread's table: the process-wide one, which never forgets a text, unless
+// another table has been made current with use(). BasicEngine gives every program its own table,
+// so it is collected along with the program instead of growing with every source ever compiled. The Lexer
+// interns straight from the source characters and only allocates a String for text it has not
+// seen before. Lookups run without locking against the current table; a miss, including one
+// caused by racing with an insert on another thread, is retried under the lock.
+public class SymbolTable {
+    private static final SymbolTable SHARED = new SymbolTable();
+    private static final ThreadLocal<SymbolTable> CURRENT = new ThreadLocal<>();
+
+    // Open-addressing table of id + 1 (0 marks an empty slot) and the text of each id.
+    // Arrays are replaced when they grow, so a lookup always sees a consistent pair.
+    private static final class State {
+        final int[] slots;
+        final int[] hashes;
+        final String[] names;
+
+        State(int capacity) {
+            slots = new int[capacity];
+            hashes = new int[capacity];
+            names = new String[capacity / 2];
+        }
+    }
+
+    private volatile State state = new State(1024);
+    private int size = 0;
+
+    // Undoes use(), making the previous table current again
+    public interface Scope extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    // The table new Lexers and nodes on this thread intern into; ids are only comparable within one table
+    public static SymbolTable current() {
+        SymbolTable table = CURRENT.get();
+        return table != null ? table : SHARED;
+    }
+
+    // Method to make this the current thread's table until the returned Scope is closed
+    public Scope use() {
+        SymbolTable previous = CURRENT.get();
+        CURRENT.set(this);
+        return () -> {
+            if (previous != null) {
+                CURRENT.set(previous);
+            } else {
+                CURRENT.remove();
+            }
+        };
+    }
+
+    // Method to get the id of a text, adding it on first use
+    public int intern(String text) {
+        return intern(text, 0, text.length(), false);
+    }
+
+    // Method to get the id of source[start, end), lower-cased first when lowerCase is set.
+    // Characters above ASCII are lower-cased the way String.toLowerCase does it.
+    public int intern(CharSequence source, int start, int end, boolean lowerCase) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            char ch = source.charAt(i);
+            if (lowerCase) {
+                if (ch >= 128) {
+                    return intern(source.subSequence(start, end).toString().toLowerCase());
+                }
+                ch = lower(ch);
+            }
+            hash = 31 * hash + ch;
+        }
+
+        State current = state;
+        int id = find(current, hash, source, start, end, lowerCase);
+        return id >= 0 ? id : add(hash, source, start, end, lowerCase);
+    }
+
+    // Method to get the text of an id
+    public String name(int id) {
+        return state.names[id];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private synchronized int add(int hash, CharSequence source, int start, int end, boolean lowerCase) {
+        State current = state;
+        int id = find(current, hash, source, start, end, lowerCase);
+        if (id >= 0) {
+            return id;
+        }
+        if (size == current.names.length) {
+            current = grow(current);
+        }
+        StringBuilder text = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char ch = source.charAt(i);
+            text.append(lowerCase ? lower(ch) : ch);
+        }
+        id = size++;
+        current.names[id] = text.toString();
+        insert(current, hash, id);
+        return id;
+    }
+
+    // Probes for the text; returns -1 on a miss so the caller retries under the lock
+    private static int find(State state, int hash, CharSequence source, int start, int end, boolean lowerCase) {
+        int mask = state.slots.length - 1;
+        for (int slot = mix(hash) & mask; ; slot = (slot + 1) & mask) {
+            int entry = state.slots[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            if (state.hashes[slot] == hash) {
+                String name = state.names[entry - 1];
+                if (name != null && matches(name, source, start, end, lowerCase)) {
+                    return entry - 1;
+                }
+            }
+        }
+    }
+
+    private static boolean matches(String name, CharSequence source, int start, int end, boolean lowerCase) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char ch = source.charAt(start + i);
+            if ((lowerCase ? lower(ch) : ch) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The names array is half the size of the slots, which keeps the load factor at or below 0.5
+    private State grow(State current) {
+        State grown = new State(current.slots.length * 2);
+        System.arraycopy(current.names, 0, grown.names, 0, size);
+        for (int slot = 0; slot < current.slots.length; slot++) {
+            if (current.slots[slot] != 0) {
+                insert(grown, current.hashes[slot], current.slots[slot] - 1);
+            }
+        }
+        state = grown;
+        return grown;
+    }
+
+    private static void insert(State state, int hash, int id) {
+        int mask = state.slots.length - 1;
+        int slot = mix(hash) & mask;
+        while (state.slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        state.hashes[slot] = hash;
+        state.slots[slot] = id + 1;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static char lower(char ch) {
+        return ch >= 'A' && ch <= 'Z' ? (char) (ch | 0x20) : ch;
+    }
+}
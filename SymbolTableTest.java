@@ -0,0 +1,79 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class SymbolTableTest {
+    @Test
+    public void testInternsEachTextOnce() {
+        SymbolTable symbols = new SymbolTable();
+        int x = symbols.intern("x");
+        assertEquals(x, symbols.intern("x"));
+        assertEquals(x, symbols.intern("let X = 1", 4, 5, true));
+        assertNotEquals(x, symbols.intern("X"));
+        assertEquals("x", symbols.name(x));
+        assertEquals(2, symbols.size());
+    }
+
+    @Test
+    public void testGrowsAndStaysConsistentAcrossThreads() throws Exception {
+        SymbolTable symbols = new SymbolTable();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<int[]>> results = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                results.add(pool.submit(() -> {
+                    int[] ids = new int[5000];
+                    for (int i = 0; i < ids.length; i++) {
+                        ids[i] = symbols.intern("name" + i);
+                    }
+                    return ids;
+                }));
+            }
+            int[] first = results.get(0).get();
+            for (Future<int[]> result : results) {
+                int[] ids = result.get();
+                for (int i = 0; i < ids.length; i++) {
+                    assertEquals(first[i], ids[i]);
+                    assertEquals("name" + i, symbols.name(ids[i]));
+                }
+            }
+            assertEquals(5000, symbols.size());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testScopedTable() {
+        SymbolTable outer = SymbolTable.current();
+        SymbolTable program = new SymbolTable();
+        VariableNode variable;
+        SymbolTable.Scope scope = program.use();
+        try {
+            assertSame(program, SymbolTable.current());
+            variable = new VariableNode("scoped");
+            assertEquals(1, program.size());
+        } finally {
+            scope.close();
+        }
+        assertSame(outer, SymbolTable.current());
+        // The node keeps the table it was made with
+        assertEquals("scoped", variable.getName());
+    }
+
+    @Test
+    public void testLexerSharesNamesBetweenNodes() throws LexerException {
+        StatementsNode program = new Parser(new TokenManager(new Lexer().lexString("Total = 1\nprint total, \"a\", \"a\"\n"))).parse();
+        VariableNode assigned = ((AssignmentNode) program.getStatements().get(0)).getVariable();
+        PrintNode print = (PrintNode) program.getStatements().get(1);
+        assertEquals(assigned.getSymbol(), ((VariableNode) print.getNodes().get(0)).getSymbol());
+        assertSame(((StringNode) print.getNodes().get(1)).getValue(), ((StringNode) print.getNodes().get(2)).getValue());
+    }
+}
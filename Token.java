@@ -2,22 +2,37 @@ public class Token {
     // Enumeration for different types of tokens
     enum TokenType {
         WORD, NUMBER, ENDOFLINE, STRINGLITERAL, LABEL,
-        PRINT, READ, INPUT, DATA, GOSUB, FOR, TO, STEP, NEXT, RETURN, IF, THEN, FUNCTION, WHILE, END,
-        EQUALS, NOTEQUALS, LPAREN, RPAREN, PLUS, MINUS, STAR, SLASH, LESSTHAN, GREATERTHAN, LEQ, GEQ,
+        PRINT, READ, INPUT, DATA, GOSUB, GOTO, FOR, TO, STEP, NEXT, RETURN, IF, THEN, FUNCTION, WHILE, WEND, END,
+        EQUALS, NOTEQUALS, LPAREN, RPAREN, PLUS, MINUS, STAR, SLASH, PERCENT, LESSTHAN, GREATERTHAN, LEQ, GEQ,
         SPECIAL_CHAR, COMMA
     }
 
     TokenType type;
     String value;
+    int symbol; // SymbolTable id of a WORD or STRINGLITERAL value, -1 when not interned
     private int lineNumber;
     private int charPosition;
 
     // Constructor to create a token with a type, line number, position, and value
     public Token(TokenType type, int lineNumber, int charPosition, String value) {
+        this(type, lineNumber, charPosition, value, -1);
+    }
+
+    // Constructor for a token whose value is the text for symbol in its Lexer's SymbolTable
+    public Token(TokenType type, int lineNumber, int charPosition, String value, int symbol) {
         this.type = type;
         this.lineNumber = lineNumber;
         this.charPosition = charPosition;
         this.value = value;
+        this.symbol = symbol;
+    }
+
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    public int getCharPosition() {
+        return charPosition;
     }
 
     // Overloaded constructor for tokens
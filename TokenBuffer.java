@@ -0,0 +1,119 @@
+import java.util.Arrays;
+
+// Packed, struct-of-arrays token store filled by Lexer.lexPacked.
+// Each token is a row across parallel primitive arrays; names and strings are SymbolTable ids and
+// other values are sliced out of the source only when asked for, so tokenizing allocates a few
+// arrays instead of one object per token.
+public class TokenBuffer {
+    private static final Token.TokenType[] TYPES = Token.TokenType.values();
+
+    private final CodeHandler source;
+    private final SymbolTable symbolTable; // the table the symbol ids belong to
+    private byte[] types;
+    private int[] lines;
+    private int[] columns;
+    private int[] starts;
+    private int[] ends;
+    private int[] symbols;
+    private int size = 0;
+
+    // Constructor to create an empty buffer over the document the tokens come from
+    public TokenBuffer(CodeHandler source, SymbolTable symbolTable, int initialCapacity) {
+        this.source = source;
+        this.symbolTable = symbolTable;
+        int capacity = Math.max(1, initialCapacity);
+        this.types = new byte[capacity];
+        this.lines = new int[capacity];
+        this.columns = new int[capacity];
+        this.starts = new int[capacity];
+        this.ends = new int[capacity];
+        this.symbols = new int[capacity];
+    }
+
+    // Appends a token given its type, position, source range and interned value (-1 if none)
+    public void add(Token.TokenType type, int line, int column, int start, int end, int symbol) {
+        if (size == types.length) {
+            grow();
+        }
+        types[size] = (byte) type.ordinal();
+        lines[size] = line;
+        columns[size] = column;
+        starts[size] = start;
+        ends[size] = end;
+        symbols[size] = symbol;
+        size++;
+    }
+
+    // Joins buffers lexed from consecutive ranges of the same document, in order
+    static TokenBuffer concat(CodeHandler source, SymbolTable symbolTable, TokenBuffer[] parts) {
+        int total = 0;
+        for (TokenBuffer part : parts) {
+            total += part.size;
+        }
+        TokenBuffer joined = new TokenBuffer(source, symbolTable, total);
+        for (TokenBuffer part : parts) {
+            System.arraycopy(part.types, 0, joined.types, joined.size, part.size);
+            System.arraycopy(part.lines, 0, joined.lines, joined.size, part.size);
+            System.arraycopy(part.columns, 0, joined.columns, joined.size, part.size);
+            System.arraycopy(part.starts, 0, joined.starts, joined.size, part.size);
+            System.arraycopy(part.ends, 0, joined.ends, joined.size, part.size);
+            System.arraycopy(part.symbols, 0, joined.symbols, joined.size, part.size);
+            joined.size += part.size;
+        }
+        return joined;
+    }
+
+    private void grow() {
+        int capacity = types.length + (types.length >> 1) + 1;
+        types = Arrays.copyOf(types, capacity);
+        lines = Arrays.copyOf(lines, capacity);
+        columns = Arrays.copyOf(columns, capacity);
+        starts = Arrays.copyOf(starts, capacity);
+        ends = Arrays.copyOf(ends, capacity);
+        symbols = Arrays.copyOf(symbols, capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // The table the symbol ids belong to, which nodes parsed from the buffer must read names from
+    public SymbolTable getSymbolTable() {
+        return symbolTable;
+    }
+
+    public Token.TokenType type(int i) {
+        return TYPES[types[i]];
+    }
+
+    public int line(int i) {
+        return lines[i];
+    }
+
+    public int column(int i) {
+        return columns[i];
+    }
+
+    public int start(int i) {
+        return starts[i];
+    }
+
+    public int end(int i) {
+        return ends[i];
+    }
+
+    // SymbolTable id of the token's value for words and string literals, otherwise -1
+    public int symbol(int i) {
+        return symbols[i];
+    }
+
+    // Recovers the token's value from its symbol or source range, null for keywords
+    public String value(int i) {
+        return Lexer.valueOf(type(i), source, symbolTable, starts[i], ends[i], symbols[i]);
+    }
+
+    // Materializes a single Token for code that works with Token objects
+    public Token token(int i) {
+        return new Token(type(i), lines[i], columns[i], value(i), symbols[i]);
+    }
+}
@@ -0,0 +1,277 @@
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+// Streams comma separated values from a channel straight into variable slots, for INPUT and for
+// READ from a data file. Bytes are read in blocks into a reusable buffer and each value is parsed
+// in place only when a statement asks for it: ints and short decimals go directly into the slot's
+// primitive, and a String is built only for text or numbers the fast paths do not cover. Only the
+// value being parsed has to fit in the buffer, so files of any size are read at I/O speed.
+// INPUT keeps the line rules it always had: each INPUT starts a new line, values are split on every
+// comma and empty values at the end of a line are dropped. Data files are CSV: values are separated
+// by commas or line breaks, blank lines are skipped and "double quoted" values are strings, with
+// "" standing for a quote.
+public class ValueReader implements Closeable {
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+    // 10^i as floats; all are exact, so one float division rounds a short decimal correctly
+    private static final float[] POWERS = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+    // How a value ended
+    private static final int COMMA = 0;
+    private static final int LINE = 1;
+    private static final int END = 2;
+
+    private final ReadableByteChannel channel;
+    private final boolean csv;
+    private final Charset charset = Charset.defaultCharset();
+    private byte[] buffer;
+    private ByteBuffer view;
+    private int position = 0; // next unread byte
+    private int limit = 0; // end of the bytes read so far
+    private boolean exhausted = false;
+    private boolean lineOpen = false; // the current line may still hold values
+
+    private ValueReader(ReadableByteChannel channel, boolean csv, int capacity) {
+        this.channel = channel;
+        this.csv = csv;
+        this.buffer = new byte[Math.max(16, capacity)];
+        this.view = ByteBuffer.wrap(buffer);
+    }
+
+    // Method to read INPUT values from a stream; file streams are read through their channel
+    static ValueReader forInput(InputStream input) {
+        ReadableByteChannel channel = input instanceof FileInputStream ? ((FileInputStream) input).getChannel() : Channels.newChannel(input);
+        return new ValueReader(channel, false, DEFAULT_CAPACITY);
+    }
+
+    // Method to open a CSV data file for READ
+    public static ValueReader open(Path file) throws IOException {
+        return new ValueReader(FileChannel.open(file, StandardOpenOption.READ), true, DEFAULT_CAPACITY);
+    }
+
+    // Method to read CSV data for READ from any channel, using a buffer of the given size
+    static ValueReader forData(ReadableByteChannel channel, int capacity) {
+        return new ValueReader(channel, true, capacity);
+    }
+
+    // Method to read the next INPUT value into a slot, moving on to the next line when this one is used up
+    void readInput(ExecutionContext context, int slot) {
+        while (true) {
+            if (!lineOpen) {
+                if (!available(1)) {
+                    throw new BasicRuntimeException("End of input");
+                }
+                lineOpen = true;
+                if (atLineEnd(0)) {
+                    // An empty line is one empty value
+                    delimiter();
+                    lineOpen = false;
+                    context.assignParsed(slot, "");
+                    return;
+                }
+            }
+            int commas = 0;
+            while (position + commas < limit || available(commas + 1)) {
+                if (buffer[position + commas] != ',') {
+                    break;
+                }
+                commas++;
+            }
+            if (atLineEnd(commas)) {
+                // Nothing but commas left, so no more values on this line
+                position += commas;
+                delimiter();
+                lineOpen = false;
+                continue;
+            }
+            readValue(context, slot);
+            return;
+        }
+    }
+
+    // Method to drop whatever is left of the current INPUT line
+    void endLine() {
+        if (lineOpen) {
+            position += valueLength();
+            while (delimiter() == COMMA) {
+                position += valueLength();
+            }
+            lineOpen = false;
+        }
+    }
+
+    // Method to read the next data value into a slot, returning false when there are none left
+    boolean readData(ExecutionContext context, int slot) {
+        while (!lineOpen) {
+            if (!available(1)) {
+                return false;
+            }
+            if (!atLineEnd(0)) {
+                lineOpen = true;
+            } else {
+                delimiter(); // blank line
+            }
+        }
+        readValue(context, slot);
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    // Stores the value at position and steps over it and its delimiter
+    private void readValue(ExecutionContext context, int slot) {
+        int length = valueLength();
+        store(context, slot, position, position + length);
+        position += length;
+        if (delimiter() != COMMA) {
+            lineOpen = false;
+        }
+    }
+
+    // Length of the value starting at position, which is then entirely in the buffer
+    private int valueLength() {
+        boolean quoted = false;
+        int k = 0;
+        while (position + k < limit || available(k + 1)) {
+            byte b = buffer[position + k];
+            if (csv && b == '"') {
+                quoted = !quoted;
+            } else if (!quoted && (b == ',' || b == '\n' || b == '\r')) {
+                break;
+            }
+            k++;
+        }
+        return k;
+    }
+
+    // Consumes the comma or line break at position and says which it was; \r\n counts as one line break
+    private int delimiter() {
+        if (!available(1)) {
+            return END;
+        }
+        byte b = buffer[position++];
+        if (b == ',') {
+            return COMMA;
+        }
+        if (b == '\r' && available(1) && buffer[position] == '\n') {
+            position++;
+        }
+        return LINE;
+    }
+
+    private boolean atLineEnd(int offset) {
+        if (!available(offset + 1)) {
+            return true;
+        }
+        byte b = buffer[position + offset];
+        return b == '\n' || b == '\r';
+    }
+
+    private void store(ExecutionContext context, int slot, int start, int end) {
+        while (start < end && (buffer[start] & 0xFF) <= ' ') {
+            start++;
+        }
+        while (end > start && (buffer[end - 1] & 0xFF) <= ' ') {
+            end--;
+        }
+        if (csv && end - start >= 2 && buffer[start] == '"' && buffer[end - 1] == '"') {
+            context.storeString(slot, new String(buffer, start + 1, end - start - 2, charset).replace("\"\"", "\""));
+        } else if (!storeNumber(context, slot, start, end)) {
+            context.assignParsed(slot, new String(buffer, start, end - start, charset));
+        }
+    }
+
+    // Stores an int, or a decimal with at most 2^24 as its digits and at most 10 of them after the point.
+    // Anything else is left to assignParsed, so the result always matches Integer.parseInt and Float.parseFloat.
+    private boolean storeNumber(ExecutionContext context, int slot, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+            negative = buffer[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fraction = -1; // digits after the point, -1 while there is no point
+        for (; i < end; i++) {
+            byte b = buffer[i];
+            if (b >= '0' && b <= '9') {
+                if (++digits > 10) {
+                    return false;
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                if (fraction >= 0) {
+                    fraction++;
+                }
+            } else if (b == '.' && fraction < 0) {
+                fraction = 0;
+            } else {
+                return false;
+            }
+        }
+        if (digits == 0) {
+            return false;
+        }
+        if (fraction < 0) {
+            long value = negative ? -mantissa : mantissa;
+            if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                return false;
+            }
+            context.storeInt(slot, (int) value);
+            return true;
+        }
+        if (mantissa > (1 << 24)) {
+            return false;
+        }
+        float value = mantissa / POWERS[fraction];
+        context.storeFloat(slot, negative ? -value : value);
+        return true;
+    }
+
+    // Reads until at least n bytes from position are buffered, returning false if the channel ends first.
+    // Keeps the unread bytes, moving them to the front or growing the buffer to make room.
+    private boolean available(int n) {
+        while (limit - position < n) {
+            if (exhausted) {
+                return false;
+            }
+            if (limit == buffer.length) {
+                if (position > 0) {
+                    System.arraycopy(buffer, position, buffer, 0, limit - position);
+                    limit -= position;
+                    position = 0;
+                } else {
+                    byte[] bigger = new byte[buffer.length * 2];
+                    System.arraycopy(buffer, 0, bigger, 0, limit);
+                    buffer = bigger;
+                    view = ByteBuffer.wrap(buffer);
+                }
+            }
+            view.limit(buffer.length);
+            view.position(limit);
+            int read;
+            try {
+                read = channel.read(view);
+            } catch (IOException e) {
+                throw new BasicRuntimeException("Failed to read input: " + e.getMessage());
+            }
+            if (read < 0) {
+                exhausted = true;
+            } else {
+                limit += read;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,85 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.util.Collections;
+import java.util.Random;
+
+public class ValueReaderTest {
+    // Helper method that creates a context whose READ takes values from the given CSV text, through a tiny buffer
+    private ExecutionContext withData(String csv) {
+        ExecutionContext context = new ExecutionContext(1, Collections.emptyList(), new ByteArrayInputStream(new byte[0]),
+                new PrintStream(new ByteArrayOutputStream()));
+        context.setDataFile(ValueReader.forData(Channels.newChannel(new ByteArrayInputStream(csv.getBytes())), 16));
+        return context;
+    }
+
+    // Helper method that reads the next value as text, tagged with its kind
+    private static String next(ExecutionContext context, boolean input) {
+        if (input) {
+            context.readInput(0);
+        } else {
+            context.readData(0);
+        }
+        return describe(context);
+    }
+
+    private static String describe(ExecutionContext context) {
+        switch (context.kinds[0]) {
+            case ExecutionContext.INT:
+                return "i" + context.ints[0];
+            case ExecutionContext.FLOAT:
+                return "f" + context.floats[0];
+            default:
+                return "s" + context.strings[0];
+        }
+    }
+
+    @Test
+    public void testReadsCsvData() {
+        ExecutionContext context = withData("1, -2 ,3.25\r\n\n\"a, \"\"quoted\"\" string\",text,,99999999999\n.5,+7");
+        String[] expected = {"i1", "i-2", "f3.25", "sa, \"quoted\" string", "stext", "s", "f9.9999998E10", "f0.5", "i7"};
+        for (String value : expected) {
+            assertEquals(value, next(context, false));
+        }
+        assertThrows(BasicRuntimeException.class, () -> context.readData(0));
+    }
+
+    @Test
+    public void testNumbersMatchJavaParsing() {
+        Random random = new Random(11);
+        StringBuilder csv = new StringBuilder();
+        String[] texts = new String[2000];
+        for (int i = 0; i < texts.length; i++) {
+            String digits = Long.toString(random.nextInt(Integer.MAX_VALUE));
+            int point = random.nextInt(digits.length() + 1);
+            texts[i] = (random.nextBoolean() ? "-" : "") + digits.substring(0, point) + (i % 3 == 0 ? "" : ".") + digits.substring(point);
+            csv.append(texts[i]).append(i % 5 == 0 ? '\n' : ',');
+        }
+        ExecutionContext context = withData(csv.toString());
+        ExecutionContext expected = withData("");
+        for (String text : texts) {
+            expected.assignParsed(0, text);
+            assertEquals(describe(expected), next(context, false), text);
+        }
+    }
+
+    @Test
+    public void testInputKeepsLineRules() {
+        String lines = "1,2,,\n,,,\n\nx, 4.5,y\r\n7";
+        ExecutionContext context = new ExecutionContext(1, Collections.emptyList(), new ByteArrayInputStream(lines.getBytes()),
+                new PrintStream(new ByteArrayOutputStream()));
+        assertEquals("i1", next(context, true));
+        assertEquals("i2", next(context, true));
+        assertEquals("s", next(context, true)); // the all-comma line has no values, the empty one has one
+        context.endInput();
+        assertEquals("sx", next(context, true));
+        context.endInput(); // drops 4.5 and y
+        assertEquals("i7", next(context, true));
+        assertThrows(BasicRuntimeException.class, () -> context.readInput(0));
+    }
+}
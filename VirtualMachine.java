@@ -0,0 +1,283 @@
+import java.io.InputStream;
+import java.io.PrintStream;
+
+// Register VM that runs Bytecode in a single dispatch loop.
+// Registers are the ExecutionContext's kind-tagged primitive arrays; arithmetic on two ints is
+// handled inline and everything else falls back to ExecutionContext.apply.
+public class VirtualMachine {
+    // Operations of the comparison opcodes, indexed from Bytecode.EQUAL
+    private static final MathOpNode.Operation[] COMPARISONS = {
+        MathOpNode.Operation.EQUAL, MathOpNode.Operation.NOT_EQUAL, MathOpNode.Operation.LESS,
+        MathOpNode.Operation.LESS_EQUAL, MathOpNode.Operation.GREATER, MathOpNode.Operation.GREATER_EQUAL
+    };
+
+    private final Bytecode program;
+
+    public VirtualMachine(Bytecode program) {
+        this.program = program;
+    }
+
+    // Method to create fresh registers for one run of the program
+    public ExecutionContext newContext(InputStream input, PrintStream output) {
+        return program.newContext(input, output);
+    }
+
+    public ExecutionContext newContext(InputStream input, OutputSink output) {
+        return program.newContext(input, output);
+    }
+
+    // Method to run the program against the console
+    public void run() {
+        run(newContext(System.in, System.out));
+    }
+
+    // Method to run the program against the given context
+    public void run(ExecutionContext context) {
+        try {
+            execute(context);
+        } finally {
+            context.flush();
+        }
+    }
+
+    private void execute(ExecutionContext context) {
+        final int[] code = program.code;
+        final byte[] kinds = context.kinds;
+        final int[] ints = context.ints;
+        final float[] floats = context.floats;
+        final String[] strings = context.strings;
+        int pc = 0;
+
+        while (true) {
+            switch (code[pc]) {
+                case Bytecode.HALT:
+                    return;
+                case Bytecode.LOAD_INT: {
+                    int dst = code[pc + 1];
+                    kinds[dst] = ExecutionContext.INT;
+                    ints[dst] = code[pc + 2];
+                    pc += 3;
+                    break;
+                }
+                case Bytecode.LOAD_FLOAT: {
+                    int dst = code[pc + 1];
+                    kinds[dst] = ExecutionContext.FLOAT;
+                    floats[dst] = program.floatConstants[code[pc + 2]];
+                    pc += 3;
+                    break;
+                }
+                case Bytecode.LOAD_STRING: {
+                    int dst = code[pc + 1];
+                    kinds[dst] = ExecutionContext.STRING;
+                    strings[dst] = program.stringConstants[code[pc + 2]];
+                    pc += 3;
+                    break;
+                }
+                case Bytecode.MOVE: {
+                    int dst = code[pc + 1];
+                    int src = code[pc + 2];
+                    kinds[dst] = kinds[src];
+                    ints[dst] = ints[src];
+                    floats[dst] = floats[src];
+                    strings[dst] = strings[src];
+                    pc += 3;
+                    break;
+                }
+                case Bytecode.ADD: {
+                    int dst = code[pc + 1];
+                    int a = code[pc + 2];
+                    int b = code[pc + 3];
+                    if (kinds[a] == ExecutionContext.INT && kinds[b] == ExecutionContext.INT) {
+                        ints[dst] = ints[a] + ints[b];
+                        kinds[dst] = ExecutionContext.INT;
+                    } else {
+                        arithmetic(MathOpNode.Operation.ADD, dst, a, b, context);
+                    }
+                    pc += 4;
+                    break;
+                }
+                case Bytecode.SUBTRACT: {
+                    int dst = code[pc + 1];
+                    int a = code[pc + 2];
+                    int b = code[pc + 3];
+                    if (kinds[a] == ExecutionContext.INT && kinds[b] == ExecutionContext.INT) {
+                        ints[dst] = ints[a] - ints[b];
+                        kinds[dst] = ExecutionContext.INT;
+                    } else {
+                        arithmetic(MathOpNode.Operation.SUBTRACT, dst, a, b, context);
+                    }
+                    pc += 4;
+                    break;
+                }
+                case Bytecode.MULTIPLY: {
+                    int dst = code[pc + 1];
+                    int a = code[pc + 2];
+                    int b = code[pc + 3];
+                    if (kinds[a] == ExecutionContext.INT && kinds[b] == ExecutionContext.INT) {
+                        ints[dst] = ints[a] * ints[b];
+                        kinds[dst] = ExecutionContext.INT;
+                    } else {
+                        arithmetic(MathOpNode.Operation.MULTIPLY, dst, a, b, context);
+                    }
+                    pc += 4;
+                    break;
+                }
+                case Bytecode.DIVIDE:
+                    arithmetic(MathOpNode.Operation.DIVIDE, code[pc + 1], code[pc + 2], code[pc + 3], context);
+                    pc += 4;
+                    break;
+                case Bytecode.MODULO:
+                    arithmetic(MathOpNode.Operation.MODULO, code[pc + 1], code[pc + 2], code[pc + 3], context);
+                    pc += 4;
+                    break;
+                case Bytecode.EQUAL:
+                case Bytecode.NOT_EQUAL:
+                case Bytecode.LESS:
+                case Bytecode.LESS_EQUAL:
+                case Bytecode.GREATER:
+                case Bytecode.GREATER_EQUAL: {
+                    MathOpNode.Operation operation = COMPARISONS[code[pc] - Bytecode.EQUAL];
+                    int dst = code[pc + 1];
+                    int a = code[pc + 2];
+                    int b = code[pc + 3];
+                    if (kinds[a] == ExecutionContext.INT && kinds[b] == ExecutionContext.INT) {
+                        ints[dst] = ExecutionContext.compare(operation, ints[a], ints[b]);
+                        kinds[dst] = ExecutionContext.INT;
+                    } else {
+                        arithmetic(operation, dst, a, b, context);
+                    }
+                    pc += 4;
+                    break;
+                }
+                case Bytecode.NEGATE: {
+                    int dst = code[pc + 1];
+                    int src = code[pc + 2];
+                    if (kinds[src] == ExecutionContext.INT) {
+                        ints[dst] = -ints[src];
+                        kinds[dst] = ExecutionContext.INT;
+                    } else {
+                        store(dst, context.negate(kinds[src], ints[src], floats[src], strings[src]), context);
+                    }
+                    pc += 3;
+                    break;
+                }
+                case Bytecode.PRINT: {
+                    int src = code[pc + 1];
+                    switch (kinds[src]) {
+                        case ExecutionContext.INT:
+                            context.printInt(ints[src]);
+                            break;
+                        case ExecutionContext.FLOAT:
+                            context.printFloat(floats[src]);
+                            break;
+                        default:
+                            context.printString(strings[src]);
+                            break;
+                    }
+                    pc += 2;
+                    break;
+                }
+                case Bytecode.PRINT_SEPARATOR:
+                    context.printSeparator();
+                    pc += 1;
+                    break;
+                case Bytecode.PRINT_END:
+                    context.printEnd();
+                    pc += 1;
+                    break;
+                case Bytecode.READ:
+                    context.readData(code[pc + 1]);
+                    pc += 2;
+                    break;
+                case Bytecode.INPUT_PROMPT: {
+                    int prompt = code[pc + 1];
+                    context.printString(prompt < 0 ? "? " : program.stringConstants[prompt]);
+                    context.flush();
+                    pc += 2;
+                    break;
+                }
+                case Bytecode.INPUT:
+                    context.readInput(code[pc + 1]);
+                    pc += 2;
+                    break;
+                case Bytecode.INPUT_END:
+                    context.endInput();
+                    pc += 1;
+                    break;
+                case Bytecode.JUMP:
+                    pc = code[pc + 1];
+                    break;
+                case Bytecode.JUMP_UNLESS: {
+                    int src = code[pc + 1];
+                    boolean holds;
+                    if (kinds[src] == ExecutionContext.INT) {
+                        holds = ints[src] != 0;
+                    } else {
+                        context.floatResult = floats[src];
+                        holds = context.isTrue(kinds[src]);
+                    }
+                    pc = holds ? pc + 3 : code[pc + 2];
+                    break;
+                }
+                case Bytecode.GOSUB:
+                    context.pushReturn(pc + 2);
+                    pc = code[pc + 1];
+                    break;
+                case Bytecode.RETURN:
+                    pc = context.popReturn();
+                    break;
+                case Bytecode.FOR_TEST:
+                    pc = context.loopFinished(code[pc + 1], code[pc + 2], code[pc + 3]) ? code[pc + 4] : pc + 5;
+                    break;
+                case Bytecode.NEXT: {
+                    int variable = code[pc + 1];
+                    int limit = code[pc + 2];
+                    int step = code[pc + 3];
+                    boolean finished;
+                    if (kinds[variable] == ExecutionContext.INT && kinds[limit] == ExecutionContext.INT
+                            && kinds[step] == ExecutionContext.INT) {
+                        int value = ints[variable] += ints[step];
+                        finished = ints[step] >= 0 ? value > ints[limit] : value < ints[limit];
+                    } else {
+                        context.advanceLoop(variable, step);
+                        finished = context.loopFinished(variable, limit, step);
+                    }
+                    pc = finished ? pc + 5 : code[pc + 4];
+                    break;
+                }
+                case Bytecode.STATEMENT:
+                    context.enterStatement(code[pc + 1]);
+                    pc += 2;
+                    break;
+                case Bytecode.FAIL:
+                    throw new BasicRuntimeException(program.stringConstants[code[pc + 1]]);
+                default:
+                    throw new IllegalStateException("Bad opcode " + code[pc] + " at " + pc);
+            }
+        }
+    }
+
+    // Slow path for mixed-kind operands, delegating to the shared arithmetic rules
+    private static void arithmetic(MathOpNode.Operation operation, int dst, int a, int b, ExecutionContext context) {
+        byte kind = context.apply(operation,
+                context.kinds[a], context.ints[a], context.floats[a], context.strings[a],
+                context.kinds[b], context.ints[b], context.floats[b], context.strings[b]);
+        store(dst, kind, context);
+    }
+
+    // Copies the context's result registers into register dst
+    private static void store(int dst, byte kind, ExecutionContext context) {
+        context.kinds[dst] = kind;
+        switch (kind) {
+            case ExecutionContext.INT:
+                context.ints[dst] = context.intResult;
+                break;
+            case ExecutionContext.FLOAT:
+                context.floats[dst] = context.floatResult;
+                break;
+            default:
+                context.strings[dst] = context.stringResult;
+                break;
+        }
+    }
+}
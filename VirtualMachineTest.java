@@ -0,0 +1,59 @@
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+public class VirtualMachineTest {
+
+    // Helper method that compiles and runs a program on the VM, returning everything it printed
+    private String run(String source, String input) throws LexerException {
+        Lexer lexer = new Lexer();
+        Parser parser = new Parser(lexer.lexString(source));
+        VirtualMachine vm = new VirtualMachine(new BytecodeCompiler().compile(parser.parse()));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        vm.run(vm.newContext(new ByteArrayInputStream(input.getBytes()), new PrintStream(out)));
+        return out.toString().replace("\r\n", "\n");
+    }
+
+    @Test
+    public void testSelfReferencingAssignment() throws LexerException {
+        assertEquals("12\n", run("x = 2\nx = (x + 1) * (x + 2)\nprint x", ""));
+    }
+
+    @Test
+    public void testMixedKinds() throws LexerException {
+        assertEquals("3 3.5 s1.5\n", run("a = 7\nprint a / 2, a / 2.0, \"s\" + 1.5", ""));
+    }
+
+    @Test
+    public void testReadDataAndInput() throws LexerException {
+        assertEquals("? 1 two 9\n", run("DATA 1, \"two\"\nREAD a, b\nINPUT c\nprint a, b, c", "9\n"));
+    }
+
+    @Test
+    public void testComparisonsAndModulo() throws LexerException {
+        assertEquals("1 0 1 2 1.5 1\n", run("a = 7\nb = 7.5\nprint a < b, a = b, a <> 8, a % 5, b % 2, \"b\" > \"a\"", ""));
+    }
+
+    @Test
+    public void testDivisionByZero() {
+        assertThrows(BasicRuntimeException.class, () -> run("x = 0\ny = 1 / x", ""));
+    }
+
+    @Test
+    public void testLoopsAndJumps() throws LexerException {
+        assertEquals("sub\n55 1.5\n", run("10 s = 0\n20 for i = 1 to 10\n30 s = s + i\n40 next i\n50 gosub 100\n"
+                + "60 for f = 0 to 1 step 0.5\n70 t = t + f\n80 next f\n90 goto 120\n100 print \"sub\"\n110 return\n"
+                + "120 print s, t + f - 1.5\n", ""));
+    }
+
+    @Test
+    public void testWhileWend() throws LexerException {
+        assertEquals("3 3.5 6\n", run("x = 0.5\nwhile x < 3\nn = n + 1\nx = x + 1\nwend\nprint n, x, n * 2", ""));
+        assertEquals("6\n", run("n = 1\nwhile n % 6\nn = n + 1\nwend\nprint n", ""));
+        assertThrows(BasicRuntimeException.class, () -> run("s = \"a\"\nwhile s\nwend", ""));
+    }
+}
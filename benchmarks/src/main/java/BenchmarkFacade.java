@@ -0,0 +1,63 @@
+import java.nio.file.Path;
+import java.util.List;
+
+// The interpreter as seen by the JMH benchmarks; see basic.benchmarks.Interpreter for why it exists.
+// Every method is a direct call into the sources, so a benchmark measures them and not this class.
+public class BenchmarkFacade implements basic.benchmarks.Interpreter {
+    private static final long SEED = 42;
+
+    @Override
+    public String generate(String profile, int size) {
+        return new ProgramGenerator(SEED).generate(ProgramGenerator.Profile.valueOf(profile), size);
+    }
+
+    @Override
+    public String generateNested(int depth, int size) {
+        String line = new ProgramGenerator(SEED).nestedExpression(depth);
+        StringBuilder program = new StringBuilder();
+        while (program.length() < size) {
+            program.append(line);
+        }
+        return program.toString();
+    }
+
+    @Override
+    public Object lex(String source) throws LexerException {
+        return new Lexer().lexString(source);
+    }
+
+    @Override
+    public Object lexPacked(String source) throws LexerException {
+        return new Lexer().lexPacked(CodeHandler.fromString(source));
+    }
+
+    @Override
+    public Object lexParallel(String source) throws LexerException {
+        return new ParallelLexer().lex(CodeHandler.fromString(source));
+    }
+
+    @Override
+    public int tokenCount(Object tokens) {
+        return tokens instanceof TokenBuffer ? ((TokenBuffer) tokens).size() : ((List<?>) tokens).size();
+    }
+
+    @Override
+    public Object parse(Object tokens) {
+        return new Parser(new TokenManager((TokenBuffer) tokens)).parse();
+    }
+
+    @Override
+    public Object parseFlat(Object tokens) {
+        return new Parser(new TokenManager((TokenBuffer) tokens)).parseFlat();
+    }
+
+    @Override
+    public Object parseParallel(Object tokens) {
+        return new ParallelParser().parse((TokenBuffer) tokens);
+    }
+
+    @Override
+    public Object parseFile(Path file, boolean mapped) throws Exception {
+        return new Parser(new TokenManager(new Lexer(), new CodeHandler(file, mapped))).parse();
+    }
+}
@@ -0,0 +1,45 @@
+package basic.benchmarks;
+
+import java.nio.file.Path;
+
+// What the benchmarks need from the interpreter. Its classes live in the default package, which no
+// class in a named package can refer to, and JMH only accepts benchmarks in a named package, so
+// BenchmarkFacade implements this interface next to them and is looked up by name once per trial.
+// Tokens and trees are passed around as Object; every method returns what it built so the
+// benchmark can hand it to JMH's Blackhole.
+public interface Interpreter {
+    // Method to load the facade from the default package
+    static Interpreter load() throws ReflectiveOperationException {
+        return (Interpreter) Class.forName("BenchmarkFacade").getDeclaredConstructor().newInstance();
+    }
+
+    // Program of about size characters from ProgramGenerator, for one of its profiles
+    String generate(String profile, int size);
+
+    // Program of about size characters made of expressions nested depth parentheses deep
+    String generateNested(int depth, int size);
+
+    // LinkedList<Token> from Lexer.lexString
+    Object lex(String source) throws Exception;
+
+    // TokenBuffer from Lexer.lexPacked
+    Object lexPacked(String source) throws Exception;
+
+    // TokenBuffer from ParallelLexer on the common pool
+    Object lexParallel(String source) throws Exception;
+
+    // Number of tokens in a LinkedList<Token> or TokenBuffer
+    int tokenCount(Object tokens);
+
+    // StatementsNode parsed from a TokenBuffer
+    Object parse(Object tokens);
+
+    // FlatAst parsed from a TokenBuffer
+    Object parseFlat(Object tokens);
+
+    // StatementsNode from ParallelParser on the common pool
+    Object parseParallel(Object tokens);
+
+    // StatementsNode for a file, streamed from the Lexer into the Parser, read or memory-mapped
+    Object parseFile(Path file, boolean mapped) throws Exception;
+}
@@ -0,0 +1,74 @@
+package basic.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Lexer throughput per input profile. The aux counters make JMH report chars/s and tokens/s
+// next to ops/s, so profiles of different sizes can be compared directly.
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class LexerBenchmark {
+    @Param({"IDENTIFIERS", "NUMBERS", "STRINGS", "SYMBOLS", "MIXED"})
+    public String profile;
+
+    @Param({"100000", "10000000"})
+    public int size;
+
+    private Interpreter interpreter;
+    private String source;
+    private int tokens;
+
+    @Setup
+    public void generate() throws Exception {
+        interpreter = Interpreter.load();
+        source = interpreter.generate(profile, size);
+        tokens = interpreter.tokenCount(interpreter.lexPacked(source));
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+        public long chars;
+        public long tokens;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            chars = 0;
+            tokens = 0;
+        }
+    }
+
+    @Benchmark
+    public Object lex(Throughput throughput) throws Exception {
+        Object result = interpreter.lex(source);
+        throughput.chars += source.length();
+        throughput.tokens += tokens;
+        return result;
+    }
+
+    @Benchmark
+    public Object lexPacked(Throughput throughput) throws Exception {
+        Object result = interpreter.lexPacked(source);
+        throughput.chars += source.length();
+        throughput.tokens += tokens;
+        return result;
+    }
+
+    @Benchmark
+    public Object lexParallel(Throughput throughput) throws Exception {
+        Object result = interpreter.lexParallel(source);
+        throughput.chars += source.length();
+        throughput.tokens += tokens;
+        return result;
+    }
+}
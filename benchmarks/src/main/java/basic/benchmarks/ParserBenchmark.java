@@ -0,0 +1,73 @@
+package basic.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Parser throughput on pre-lexed input, so lexing cost is excluded. Tokens come from a packed
+// TokenBuffer that is reused across invocations; the flat profiles measure tokens/s and the
+// nested ones how deep MathOpNode chains parse.
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ParserBenchmark {
+    @Param({"MIXED", "SYMBOLS", "NESTED_10", "NESTED_100", "NESTED_1000"})
+    public String shape;
+
+    @Param({"1000000"})
+    public int size;
+
+    private Interpreter interpreter;
+    private Object tokens;
+    private int tokenCount;
+
+    @Setup
+    public void generate() throws Exception {
+        interpreter = Interpreter.load();
+        String source = shape.startsWith("NESTED_")
+                ? interpreter.generateNested(Integer.parseInt(shape.substring("NESTED_".length())), size)
+                : interpreter.generate(shape, size);
+        tokens = interpreter.lexPacked(source);
+        tokenCount = interpreter.tokenCount(tokens);
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+        public long tokens;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            tokens = 0;
+        }
+    }
+
+    @Benchmark
+    public Object parse(Throughput throughput) {
+        Object program = interpreter.parse(tokens);
+        throughput.tokens += tokenCount;
+        return program;
+    }
+
+    @Benchmark
+    public Object parseFlat(Throughput throughput) {
+        Object program = interpreter.parseFlat(tokens);
+        throughput.tokens += tokenCount;
+        return program;
+    }
+
+    @Benchmark
+    public Object parseParallel(Throughput throughput) {
+        Object program = interpreter.parseParallel(tokens);
+        throughput.tokens += tokenCount;
+        return program;
+    }
+}
@@ -0,0 +1,70 @@
+package basic.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+// End-to-end file-to-AST throughput: open the file through CodeHandler (read or mapped),
+// stream tokens from the Lexer into the Parser, and build the StatementsNode.
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PipelineBenchmark {
+    @Param({"MIXED"})
+    public String profile;
+
+    @Param({"1000000", "100000000"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean mapped;
+
+    private Interpreter interpreter;
+    private Path file;
+    private long chars;
+
+    @Setup
+    public void generate() throws Exception {
+        interpreter = Interpreter.load();
+        file = Files.createTempFile("pipeline", ".basic");
+        String source = interpreter.generate(profile, size);
+        Files.write(file, source.getBytes(StandardCharsets.ISO_8859_1));
+        chars = source.length();
+    }
+
+    @TearDown
+    public void delete() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+        public long chars;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            chars = 0;
+        }
+    }
+
+    @Benchmark
+    public Object fileToAst(Throughput throughput) throws Exception {
+        Object program = interpreter.parseFile(file, mapped);
+        throughput.chars += chars;
+        return program;
+    }
+}